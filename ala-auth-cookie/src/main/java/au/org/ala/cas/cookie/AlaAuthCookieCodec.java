@@ -0,0 +1,255 @@
+package au.org.ala.cas.cookie;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs and verifies the ALA-Auth cookie tokens: 1.keyId.payload.mac, where the payload is the base64url
+ * (unpadded) of "issuedAt\nexpiresAt\nuserid\nprincipalId" and the mac is the base64url HMAC-SHA256 of
+ * "1.keyId.payload" with the (shared secret) key of the keyId.
+ *
+ * CAS signs with the key of keyId; the verifier accepts the tokens signed with that key or with any of the
+ * verificationKeys, i.e. a key is rotated by adding the new key to the verificationKeys of the webapps first,
+ * then switching CAS to it (the tokens signed with the old key expire within timeToLive). The verification
+ * is a HMAC of ~100 bytes and a constant time comparison (microseconds), no call to CAS.
+ *
+ * NOTE: the token can not be revoked, a copied cookie is valid until it expires (CAS logout only removes it
+ * from the browser), keep the timeToLive short. Configure the properties, then call {@link #init()}.
+ */
+public class AlaAuthCookieCodec {
+
+    static final String VERSION = "1";
+
+    static final String ALGORITHM = "HmacSHA256";
+
+    /** The min key length (bytes), the HMAC-SHA256 output length. */
+    static final int MIN_KEY_LENGTH = 32;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final Pattern KEY_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,16}");
+
+    /** The tokens longer than this are rejected without the HMAC. */
+    private static final int MAX_TOKEN_LENGTH = 4096;
+
+    /**
+     * A key and the per thread Mac instances of it, (Mac is not thread safe).
+     */
+    private static final class Key {
+	private final SecretKeySpec spec;
+	private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+
+	Key(final byte[] secret) {
+	    this.spec = new SecretKeySpec(secret, ALGORITHM);
+	}
+
+	byte[] mac(final String data) {
+	    Mac mac = this.macs.get();
+	    if (mac == null) {
+		try {
+		    mac = Mac.getInstance(ALGORITHM);
+		    mac.init(this.spec);
+		} catch (GeneralSecurityException e) {
+		    throw new IllegalStateException(ALGORITHM + " not available", e);
+		}
+		this.macs.set(mac);
+	    }
+	    return mac.doFinal(data.getBytes(US_ASCII));
+	}
+    }
+
+    /** The id of the signing key, part of the token. */
+    private String keyId = "1";
+
+    /** The signing key, (empty: the tokens are not signed). */
+    private String key;
+
+    /** The previous/next keys by key id, accepted by the verification (key rotation). */
+    private Map<String, String> verificationKeys = Collections.emptyMap();
+
+    /** Time (s) the tokens are valid, (short: a token can not be revoked). */
+    private long timeToLive = 600;
+
+    /** Max difference (s) between the clocks of CAS and the webapps. */
+    private long maxClockSkew = 60;
+
+    private Key signingKey;
+
+    private Map<String, Key> keys;
+
+    /**
+     * Checks the configuration and prepares the keys; called by spring (init-method).
+     */
+    public void init() {
+	final Map<String, Key> keys = new HashMap<String, Key>();
+	for (final Map.Entry<String, String> entry : this.verificationKeys.entrySet()) {
+	    // NOTE: an empty key is no key, (e.g. an unset placeholder)
+	    if (entry.getValue() != null && !entry.getValue().isEmpty()) {
+		keys.put(checkKeyId(entry.getKey()), new Key(checkKey(entry.getValue())));
+	    }
+	}
+
+	if (this.isEnabled()) {
+	    this.signingKey = new Key(checkKey(this.key));
+	    keys.put(checkKeyId(this.keyId), this.signingKey);
+	}
+	this.keys = keys;
+    }
+
+    /**
+     * @return true if the signing key is set
+     */
+    public boolean isEnabled() {
+	return this.key != null && !this.key.isEmpty();
+    }
+
+    /**
+     * Signs a token issued now, valid for timeToLive seconds.
+     *
+     * @return the signed token, (cookie safe)
+     */
+    public String sign(final String principalId, final String userid) {
+	final long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+	return this.sign(new AlaAuthToken(principalId, userid, now, now + this.timeToLive));
+    }
+
+    /**
+     * @return the signed token, (cookie safe)
+     * @throws IllegalArgumentException if the principal id or the userid is not set or contains a new line
+     */
+    public String sign(final AlaAuthToken token) {
+	if (this.signingKey == null) {
+	    throw new IllegalStateException("no signing key (not initialized?)");
+	}
+	checkField(token.getPrincipalId(), "principalId");
+	checkField(token.getUserid(), "userid");
+
+	final String payload = token.getIssuedAt() + "\n" + token.getExpiresAt() + "\n" + token.getUserid() + "\n" + token.getPrincipalId();
+	final String signed = VERSION + '.' + this.keyId + '.' + Base64Url.encode(payload.getBytes(UTF_8));
+	return signed + '.' + Base64Url.encode(this.signingKey.mac(signed));
+    }
+
+    /**
+     * @return the token if the signature is valid and the token has not expired (now), or null
+     */
+    public AlaAuthToken verify(final String value) {
+	return this.verify(value, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+    }
+
+    /**
+     * @param value the cookie value
+     * @param now the current time (s)
+     * @return the token if the signature is valid and the token has not expired, or null
+     */
+    public AlaAuthToken verify(final String value, final long now) {
+	if (this.keys == null) {
+	    throw new IllegalStateException("not initialized");
+	}
+	if (value == null || value.length() > MAX_TOKEN_LENGTH || !value.startsWith(VERSION + '.')) {
+	    return null;
+	}
+
+	// version.keyId.payload.mac
+	final int keyIdStart = VERSION.length() + 1;
+	final int payloadStart = value.indexOf('.', keyIdStart) + 1;
+	final int macStart = (payloadStart > 0) ? value.indexOf('.', payloadStart) + 1 : 0;
+	if (macStart <= 0 || value.indexOf('.', macStart) != -1) {
+	    return null;
+	}
+
+	final Key key = this.keys.get(value.substring(keyIdStart, payloadStart - 1));
+	if (key == null) {
+	    return null;
+	}
+
+	final byte[] mac = Base64Url.decode(value, macStart, value.length());
+	if (mac == null || !MessageDigest.isEqual(mac, key.mac(value.substring(0, macStart - 1)))) {
+	    return null;
+	}
+
+	final byte[] payload = Base64Url.decode(value, payloadStart, macStart - 1);
+	if (payload == null) {
+	    return null;
+	}
+
+	// issuedAt, expiresAt, userid, principalId
+	final String[] fields = new String(payload, UTF_8).split("\n", -1);
+	if (fields.length != 4) {
+	    return null;
+	}
+
+	try {
+	    final AlaAuthToken token = new AlaAuthToken(fields[3], fields[2], Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+	    if (token.getExpiresAt() + this.maxClockSkew <= now || token.getIssuedAt() - this.maxClockSkew > now) {
+		return null;
+	    }
+	    return token;
+
+	} catch (NumberFormatException e) {
+	    return null;
+	}
+    }
+
+    private static String checkKeyId(final String keyId) {
+	if (keyId == null || !KEY_ID_PATTERN.matcher(keyId).matches()) {
+	    throw new IllegalArgumentException("invalid key id: " + keyId + " (1-16 characters A-Z, a-z, 0-9, _ or -)");
+	}
+	return keyId;
+    }
+
+    private static byte[] checkKey(final String key) {
+	final byte[] secret = (key != null) ? key.getBytes(UTF_8) : new byte[0];
+	if (secret.length < MIN_KEY_LENGTH) {
+	    throw new IllegalArgumentException("the key must be at least " + MIN_KEY_LENGTH + " bytes (random)");
+	}
+	return secret;
+    }
+
+    private static void checkField(final String value, final String name) {
+	if (value == null || value.isEmpty() || value.indexOf('\n') != -1) {
+	    throw new IllegalArgumentException("invalid " + name + ": " + value);
+	}
+    }
+
+    public void setKeyId(final String keyId) {
+	this.keyId = keyId;
+    }
+
+    /**
+     * @param key The signing key (shared secret, at least 32 random bytes), empty: no signing.
+     */
+    public void setKey(final String key) {
+	this.key = key;
+    }
+
+    /**
+     * @param verificationKeys The other keys by key id, accepted by the verification (key rotation); the empty keys are ignored.
+     */
+    public void setVerificationKeys(final Map<String, String> verificationKeys) {
+	this.verificationKeys = (verificationKeys != null) ? verificationKeys : Collections.<String, String>emptyMap();
+    }
+
+    /**
+     * @param timeToLive The time (s) the tokens are valid.
+     */
+    public void setTimeToLive(final long timeToLive) {
+	this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @param maxClockSkew The max difference (s) between the clocks of CAS and the webapps.
+     */
+    public void setMaxClockSkew(final long maxClockSkew) {
+	this.maxClockSkew = maxClockSkew;
+    }
+}
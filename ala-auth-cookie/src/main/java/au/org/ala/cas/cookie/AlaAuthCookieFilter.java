@@ -0,0 +1,116 @@
+package au.org.ala.cas.cookie;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Validates the signed ALA-Auth cookie of the request locally (no call to CAS) and sets the token as the
+ * {@link #TOKEN_ATTRIBUTE} request attribute; the attribute is not set if there is no cookie, or it is not
+ * valid (e.g. expired), the webapp then redirects to CAS as before.
+ *
+ * Configured either with a codec (e.g. a spring bean, see {@link #AlaAuthCookieFilter(AlaAuthCookieCodec)}),
+ * or with the web.xml init-params: key, keyId (default 1), verificationKeys (keyId:key,keyId:key),
+ * maxClockSkew (s, default 60) and cookieName (default ALA-Auth).
+ */
+public class AlaAuthCookieFilter implements Filter {
+
+    /** The request attribute of the valid {@link AlaAuthToken}. */
+    public static final String TOKEN_ATTRIBUTE = AlaAuthToken.class.getName();
+
+    private AlaAuthCookieCodec codec;
+
+    private String cookieName = "ALA-Auth";
+
+    public AlaAuthCookieFilter() {
+    }
+
+    /**
+     * @param codec the (initialized) codec
+     */
+    public AlaAuthCookieFilter(final AlaAuthCookieCodec codec) {
+	this.codec = codec;
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) throws ServletException {
+	if (filterConfig.getInitParameter("cookieName") != null) {
+	    this.cookieName = filterConfig.getInitParameter("cookieName");
+	}
+	if (this.codec != null) {
+	    return;
+	}
+
+	final AlaAuthCookieCodec codec = new AlaAuthCookieCodec();
+	if (filterConfig.getInitParameter("keyId") != null) {
+	    codec.setKeyId(filterConfig.getInitParameter("keyId"));
+	}
+	codec.setKey(filterConfig.getInitParameter("key"));
+	if (filterConfig.getInitParameter("maxClockSkew") != null) {
+	    codec.setMaxClockSkew(Long.parseLong(filterConfig.getInitParameter("maxClockSkew")));
+	}
+
+	final String verificationKeys = filterConfig.getInitParameter("verificationKeys");
+	if (verificationKeys != null) {
+	    final Map<String, String> keys = new HashMap<String, String>();
+	    for (final String keyIdKey : verificationKeys.split(",")) {
+		final int colon = keyIdKey.indexOf(':');
+		if (colon == -1) {
+		    throw new ServletException("invalid verificationKeys, expected keyId:key[,keyId:key]");
+		}
+		keys.put(keyIdKey.substring(0, colon).trim(), keyIdKey.substring(colon + 1).trim());
+	    }
+	    codec.setVerificationKeys(keys);
+	}
+
+	try {
+	    codec.init();
+	} catch (IllegalArgumentException e) {
+	    throw new ServletException(e.getMessage(), e);
+	}
+	this.codec = codec;
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+	throws IOException, ServletException {
+
+	final AlaAuthToken token = this.getToken((HttpServletRequest) request);
+	if (token != null) {
+	    request.setAttribute(TOKEN_ATTRIBUTE, token);
+	}
+	chain.doFilter(request, response);
+    }
+
+    /**
+     * @return the valid token of the request's cookie, or null
+     */
+    public AlaAuthToken getToken(final HttpServletRequest request) {
+	final Cookie[] cookies = request.getCookies();
+	if (cookies == null) {
+	    return null;
+	}
+
+	for (final Cookie cookie : cookies) {
+	    if (this.cookieName.equals(cookie.getName())) {
+		final AlaAuthToken token = this.codec.verify(cookie.getValue());
+		if (token != null) {
+		    return token;
+		}
+	    }
+	}
+	return null;
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,53 @@
+package au.org.ala.cas.cookie;
+
+/**
+ * The content of a signed ALA-Auth cookie: the CAS principal id (the user's email), the ALA userid,
+ * and the issue and expiry times (seconds since the epoch).
+ */
+public final class AlaAuthToken {
+
+    private final String principalId;
+
+    private final String userid;
+
+    private final long issuedAt;
+
+    private final long expiresAt;
+
+    public AlaAuthToken(final String principalId, final String userid, final long issuedAt, final long expiresAt) {
+	this.principalId = principalId;
+	this.userid = userid;
+	this.issuedAt = issuedAt;
+	this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return the CAS principal id, (the email of the ALA user)
+     */
+    public String getPrincipalId() {
+	return this.principalId;
+    }
+
+    public String getUserid() {
+	return this.userid;
+    }
+
+    /**
+     * @return the issue time (s)
+     */
+    public long getIssuedAt() {
+	return this.issuedAt;
+    }
+
+    /**
+     * @return the expiry time (s)
+     */
+    public long getExpiresAt() {
+	return this.expiresAt;
+    }
+
+    @Override
+    public String toString() {
+	return "AlaAuthToken: " + this.principalId + " (" + this.userid + "), issued " + this.issuedAt + ", expires " + this.expiresAt;
+    }
+}
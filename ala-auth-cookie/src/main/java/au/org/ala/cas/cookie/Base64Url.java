@@ -0,0 +1,86 @@
+package au.org.ala.cas.cookie;
+
+import java.util.Arrays;
+
+/**
+ * Unpadded base64url (RFC 4648 section 5), the cookie safe alphabet; no dependency on java.util.Base64
+ * (java 8) or javax.xml.bind (gone in java 11), the webapps validating the cookie run on both.
+ */
+final class Base64Url {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final int[] VALUES = new int[128];
+
+    static {
+	Arrays.fill(VALUES, -1);
+	for (int i = 0; i < ALPHABET.length; i++) {
+	    VALUES[ALPHABET[i]] = i;
+	}
+    }
+
+    private Base64Url() {
+    }
+
+    static String encode(final byte[] data) {
+	final StringBuilder sb = new StringBuilder((data.length * 4 + 2) / 3);
+	int i = 0;
+	for (; i + 2 < data.length; i += 3) {
+	    final int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+	    sb.append(ALPHABET[bits >>> 18]).append(ALPHABET[(bits >>> 12) & 0x3f])
+		.append(ALPHABET[(bits >>> 6) & 0x3f]).append(ALPHABET[bits & 0x3f]);
+	}
+
+	final int remaining = data.length - i;
+	if (remaining == 1) {
+	    final int bits = (data[i] & 0xff) << 16;
+	    sb.append(ALPHABET[bits >>> 18]).append(ALPHABET[(bits >>> 12) & 0x3f]);
+	} else if (remaining == 2) {
+	    final int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8;
+	    sb.append(ALPHABET[bits >>> 18]).append(ALPHABET[(bits >>> 12) & 0x3f]).append(ALPHABET[(bits >>> 6) & 0x3f]);
+	}
+	return sb.toString();
+    }
+
+    /**
+     * @return the decoded bytes of s[from, to), or null if it is not canonical (unpadded) base64url, (the unused
+     *         bits of the last character must be 0, i.e. every byte array has exactly one encoding)
+     */
+    static byte[] decode(final String s, final int from, final int to) {
+	final int length = to - from;
+	if (length % 4 == 1) {
+	    return null;
+	}
+
+	final byte[] data = new byte[length * 3 / 4];
+	int bits = 0;
+	int count = 0;
+	int j = 0;
+	for (int i = from; i < to; i++) {
+	    final char c = s.charAt(i);
+	    final int value = (c < 128) ? VALUES[c] : -1;
+	    if (value < 0) {
+		return null;
+	    }
+	    bits = bits << 6 | value;
+	    if (++count == 4) {
+		data[j++] = (byte) (bits >>> 16);
+		data[j++] = (byte) (bits >>> 8);
+		data[j++] = (byte) bits;
+		bits = 0;
+		count = 0;
+	    }
+	}
+
+	if ((count == 2 && (bits & 0xf) != 0) || (count == 3 && (bits & 0x3) != 0)) {
+	    return null;
+	}
+	if (count == 2) {
+	    data[j] = (byte) (bits >>> 4);
+	} else if (count == 3) {
+	    data[j++] = (byte) (bits >>> 10);
+	    data[j] = (byte) (bits >>> 2);
+	}
+	return data;
+    }
+}
@@ -0,0 +1,274 @@
+package au.org.ala.cas.cookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AlaAuthCookieCodecTest {
+
+    private static final String KEY = "0123456789abcdef0123456789abcdef-key-1";
+
+    private static final String OTHER_KEY = "0123456789abcdef0123456789abcdef-key-2";
+
+    /** The issue time (s) of the test tokens. */
+    private static final long ISSUED = 1500000000L;
+
+    private static final long EXPIRES = ISSUED + 600;
+
+    private AlaAuthCookieCodec codec;
+
+    @Before
+    public void setUp() {
+	this.codec = codec("k1", KEY);
+    }
+
+    private static AlaAuthCookieCodec codec(final String keyId, final String key) {
+	final AlaAuthCookieCodec codec = new AlaAuthCookieCodec();
+	codec.setKeyId(keyId);
+	codec.setKey(key);
+	codec.setMaxClockSkew(60);
+	codec.init();
+	return codec;
+    }
+
+    private String sign(final String principalId, final String userid) {
+	return this.codec.sign(new AlaAuthToken(principalId, userid, ISSUED, EXPIRES));
+    }
+
+    @Test
+    public void testRoundTrip() {
+	final String value = this.sign("jo.bloggs@example.org", "12345");
+	assertTrue(value.startsWith("1.k1."));
+
+	final AlaAuthToken token = this.codec.verify(value, ISSUED + 1);
+	assertNotNull(token);
+	assertEquals("jo.bloggs@example.org", token.getPrincipalId());
+	assertEquals("12345", token.getUserid());
+	assertEquals(ISSUED, token.getIssuedAt());
+	assertEquals(EXPIRES, token.getExpiresAt());
+    }
+
+    @Test
+    public void testRoundTripNow() {
+	final AlaAuthToken token = this.codec.verify(this.codec.sign("jo.bloggs@example.org", "12345"));
+	assertNotNull(token);
+	assertEquals(600, token.getExpiresAt() - token.getIssuedAt());
+    }
+
+    @Test
+    public void testNonAsciiPrincipal() {
+	final String value = this.sign("j\u00f6rg@example.org", "7");
+	assertEquals("j\u00f6rg@example.org", this.codec.verify(value, ISSUED).getPrincipalId());
+    }
+
+    @Test
+    public void testCookieSafe() {
+	final String value = this.sign("jo.bloggs+test@example.org", "12345");
+	assertTrue(value, value.matches("[A-Za-z0-9._-]+"));
+    }
+
+    @Test
+    public void testTamperedPayload() {
+	final String value = this.sign("jo.bloggs@example.org", "12345");
+	final String[] parts = value.split("\\.");
+	final String otherPayload = this.sign("admin@example.org", "1").split("\\.")[2];
+	assertNull(this.codec.verify(parts[0] + '.' + parts[1] + '.' + otherPayload + '.' + parts[3], ISSUED));
+	assertNull(this.codec.verify(flip(value, value.indexOf('.', 5) - 3), ISSUED));
+    }
+
+    @Test
+    public void testTamperedMac() {
+	final String value = this.sign("jo.bloggs@example.org", "12345");
+	assertNull(this.codec.verify(flip(value, value.length() - 5), ISSUED));
+	assertNull(this.codec.verify(value.substring(0, value.length() - 1), ISSUED));
+	assertNull(this.codec.verify(value + "A", ISSUED));
+	assertNull(this.codec.verify(value.substring(0, value.lastIndexOf('.') + 1), ISSUED));
+    }
+
+    @Test
+    public void testTamperedKeyId() {
+	// the key id is signed too: a token of k1 relabeled k2 does not verify with the (same) key of k2
+	final AlaAuthCookieCodec verifier = new AlaAuthCookieCodec();
+	final Map<String, String> keys = new HashMap<String, String>();
+	keys.put("k1", KEY);
+	keys.put("k2", KEY);
+	verifier.setVerificationKeys(keys);
+	verifier.init();
+
+	final String value = this.sign("jo.bloggs@example.org", "12345");
+	assertNotNull(verifier.verify(value, ISSUED));
+	assertNull(verifier.verify("1.k2." + value.substring(5), ISSUED));
+    }
+
+    @Test
+    public void testUnknownKey() {
+	final String value = this.sign("jo.bloggs@example.org", "12345");
+	assertNull(codec("k2", OTHER_KEY).verify(value, ISSUED));
+	assertNull(codec("k1", OTHER_KEY).verify(value, ISSUED));
+
+	final AlaAuthCookieCodec noKeys = new AlaAuthCookieCodec();
+	noKeys.init();
+	assertFalse(noKeys.isEnabled());
+	assertNull(noKeys.verify(value, ISSUED));
+    }
+
+    @Test
+    public void testExpiry() {
+	final String value = this.sign("jo.bloggs@example.org", "12345");
+	assertNotNull(this.codec.verify(value, EXPIRES - 1));
+	// within the clock skew
+	assertNotNull(this.codec.verify(value, EXPIRES + 59));
+	assertNull(this.codec.verify(value, EXPIRES + 60));
+	assertNull(this.codec.verify(value, EXPIRES + 86400));
+    }
+
+    @Test
+    public void testIssuedInTheFuture() {
+	final String value = this.sign("jo.bloggs@example.org", "12345");
+	assertNotNull(this.codec.verify(value, ISSUED - 60));
+	assertNull(this.codec.verify(value, ISSUED - 61));
+    }
+
+    @Test
+    public void testNoClockSkew() {
+	final AlaAuthCookieCodec strict = codec("k1", KEY);
+	strict.setMaxClockSkew(0);
+	final String value = this.sign("jo.bloggs@example.org", "12345");
+	assertNotNull(strict.verify(value, EXPIRES - 1));
+	assertNull(strict.verify(value, EXPIRES));
+	assertNull(strict.verify(value, ISSUED - 1));
+    }
+
+    @Test
+    public void testKeyRotation() {
+	final String oldValue = this.sign("jo.bloggs@example.org", "12345");
+
+	// CAS switched to k2, the webapps accept k1 (until the old tokens expire) and k2
+	final AlaAuthCookieCodec cas = codec("k2", OTHER_KEY);
+	final String newValue = cas.sign(new AlaAuthToken("jo.bloggs@example.org", "12345", ISSUED, EXPIRES));
+	assertTrue(newValue.startsWith("1.k2."));
+
+	final AlaAuthCookieCodec webapp = new AlaAuthCookieCodec();
+	final Map<String, String> keys = new HashMap<String, String>();
+	keys.put("k1", KEY);
+	keys.put("k2", OTHER_KEY);
+	keys.put("k0", "");
+	webapp.setVerificationKeys(keys);
+	webapp.init();
+	assertNotNull(webapp.verify(oldValue, ISSUED));
+	assertNotNull(webapp.verify(newValue, ISSUED));
+
+	// k1 retired
+	webapp.setVerificationKeys(Collections.singletonMap("k2", OTHER_KEY));
+	webapp.init();
+	assertNull(webapp.verify(oldValue, ISSUED));
+	assertNotNull(webapp.verify(newValue, ISSUED));
+    }
+
+    @Test
+    public void testMalformed() {
+	final String[] values = {
+	    null, "", "1", "1.", "1.k1", "1.k1.", "1.k1..", "1...", "2.k1.Zm9v.Zm9v", "1.k1.Zm9v.Zm9v.Zm9v",
+	    "1.k1.Zm9v", "1.k2.Zm9v.Zm9v", "1.k1.Zm9v=.Zm9v", "1.k1.@@@@.Zm9v", "jo.bloggs@example.org"
+	};
+	for (final String value : values) {
+	    assertNull(value, this.codec.verify(value, ISSUED));
+	}
+    }
+
+    @Test
+    public void testOversized() {
+	final StringBuilder sb = new StringBuilder();
+	for (int i = 0; i < 5000; i++) {
+	    sb.append('a');
+	}
+	final String value = this.sign(sb.append("@example.org").toString(), "12345");
+	assertTrue(value.length() > 4096);
+	assertNull(this.codec.verify(value, ISSUED));
+    }
+
+    @Test
+    public void testNonCanonicalMac() {
+	// the last character of the 32 byte mac (43 characters) carries 2 unused bits, setting them must not verify
+	final String value = this.sign("jo.bloggs@example.org", "12345");
+	final char last = value.charAt(value.length() - 1);
+	final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+	final int index = alphabet.indexOf(last);
+	for (int bits = 1; bits < 4; bits++) {
+	    final String other = value.substring(0, value.length() - 1) + alphabet.charAt(index ^ bits);
+	    assertNull(this.codec.verify(other, ISSUED));
+	}
+    }
+
+    @Test
+    public void testSignedPayloadWithBadFields() {
+	// a validly signed payload that is not 4 fields, or has no numbers, is rejected
+	assertNull(this.codec.verify(signRaw("1500000000\n1500000600\n12345"), ISSUED));
+	assertNull(this.codec.verify(signRaw("now\n1500000600\n12345\njo.bloggs@example.org"), ISSUED));
+	assertNotNull(this.codec.verify(signRaw("1500000000\n1500000600\n12345\njo.bloggs@example.org"), ISSUED));
+    }
+
+    /**
+     * @return the raw payload signed with KEY as k1
+     */
+    private static String signRaw(final String payload) {
+	final String signed = "1.k1." + Base64Url.encode(payload.getBytes(AlaAuthCookieCodec.UTF_8));
+	return signed + '.' + Base64Url.encode(hmac(signed));
+    }
+
+    private static byte[] hmac(final String data) {
+	try {
+	    final Mac mac = Mac.getInstance(AlaAuthCookieCodec.ALGORITHM);
+	    mac.init(new SecretKeySpec(KEY.getBytes(AlaAuthCookieCodec.UTF_8), AlaAuthCookieCodec.ALGORITHM));
+	    return mac.doFinal(data.getBytes(AlaAuthCookieCodec.US_ASCII));
+	} catch (GeneralSecurityException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNewLineRejected() {
+	this.sign("jo.bloggs@example.org\n99", "12345");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoUserid() {
+	this.sign("jo.bloggs@example.org", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShortKey() {
+	codec("k1", "too short");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidKeyId() {
+	codec("k.1", KEY);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSignWithoutKey() {
+	final AlaAuthCookieCodec noKey = new AlaAuthCookieCodec();
+	noKey.init();
+	noKey.sign("jo.bloggs@example.org", "12345");
+    }
+
+    /**
+     * @return the value with the character at index replaced by another base64url character
+     */
+    private static String flip(final String value, final int index) {
+	final char c = value.charAt(index);
+	return value.substring(0, index) + (c == 'A' ? 'B' : 'A') + value.substring(index + 1);
+    }
+}
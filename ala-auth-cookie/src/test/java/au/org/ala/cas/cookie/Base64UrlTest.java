@@ -0,0 +1,69 @@
+package au.org.ala.cas.cookie;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class Base64UrlTest {
+
+    /** RFC 4648 section 10 test vectors, (unpadded). */
+    @Test
+    public void testRfc4648Vectors() {
+	final String[][] vectors = {
+	    { "", "" }, { "f", "Zg" }, { "fo", "Zm8" }, { "foo", "Zm9v" },
+	    { "foob", "Zm9vYg" }, { "fooba", "Zm9vYmE" }, { "foobar", "Zm9vYmFy" }
+	};
+	for (final String[] vector : vectors) {
+	    final byte[] data = vector[0].getBytes(AlaAuthCookieCodec.US_ASCII);
+	    assertEquals(vector[1], Base64Url.encode(data));
+	    assertArrayEquals(data, decode(vector[1]));
+	}
+    }
+
+    @Test
+    public void testUrlSafeAlphabet() {
+	final byte[] data = { (byte) 0xfb, (byte) 0xff, (byte) 0xbf };
+	assertEquals("-_-_", Base64Url.encode(data));
+	assertArrayEquals(data, decode("-_-_"));
+    }
+
+    @Test
+    public void testRoundTrip() {
+	final Random random = new Random(42);
+	for (int i = 0; i < 1000; i++) {
+	    final byte[] data = new byte[random.nextInt(100)];
+	    random.nextBytes(data);
+	    assertArrayEquals(data, decode(Base64Url.encode(data)));
+	}
+    }
+
+    @Test
+    public void testDecodeRange() {
+	assertArrayEquals("foo".getBytes(AlaAuthCookieCodec.US_ASCII), Base64Url.decode("1.Zm9v.x", 2, 6));
+    }
+
+    @Test
+    public void testMalformed() {
+	// padding, the standard alphabet, non ASCII, an impossible length
+	assertNull(decode("Zg=="));
+	assertNull(decode("+/+/"));
+	assertNull(decode("Zm9\u00e9"));
+	assertNull(decode("Zm9vY"));
+	assertNull(decode("Zm 9"));
+    }
+
+    @Test
+    public void testNonCanonical() {
+	// "Zg" is "f", "Zh" has the unused (last 4) bits set; "Zm8" is "fo", "Zm9" has the unused (last 2) bits set
+	assertArrayEquals(new byte[] { 'f' }, decode("Zg"));
+	assertNull(decode("Zh"));
+	assertNull(decode("Zm9"));
+    }
+
+    private static byte[] decode(final String s) {
+	return Base64Url.decode(s, 0, s.length());
+    }
+}
@@ -0,0 +1,32 @@
+package au.org.ala.cas;
+
+import java.util.Map;
+
+/**
+ * {@link ProviderHttpClient} replaying a recorded response body, so the provider REST calls
+ * (e.g. the GitHub user/emails lookup) can be benchmarked without the network.
+ */
+public class RecordedProviderHttpClient extends ProviderHttpClient {
+
+    private final String body;
+
+    private final String etag;
+
+    public RecordedProviderHttpClient(final String body, final String etag) {
+	this.body = body;
+	this.etag = etag;
+    }
+
+    @Override
+    public void init() {
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public Response get(final String url, final Map<String, String> headers) {
+	return new Response(200, this.body, this.etag);
+    }
+}
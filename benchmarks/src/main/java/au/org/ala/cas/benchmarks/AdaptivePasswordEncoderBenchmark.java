@@ -0,0 +1,78 @@
+package au.org.ala.cas.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import au.org.ala.cas.encoding.AdaptivePasswordEncoder;
+import au.org.ala.cas.encoding.MyPasswordEncoder;
+
+/**
+ * The password verification of the primary authentication handler, (PBKDF2 and legacy hashes);
+ * the latency percentiles (SampleTime) and throughput at the given iteration counts, run with
+ * -t (threads) to see the login throughput under concurrent load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.SampleTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdaptivePasswordEncoderBenchmark {
+
+    @Param({"10000", "50000"})
+    private int iterations;
+
+    @Param({"correct horse battery staple"})
+    private String password;
+
+    private AdaptivePasswordEncoder passwordEncoder;
+
+    private String pbkdf2Hash;
+
+    private String legacyHash;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+	final MyPasswordEncoder legacyPasswordEncoder = new MyPasswordEncoder();
+	legacyPasswordEncoder.setAlgorithm("SHA-256");
+	legacyPasswordEncoder.setBase64Encoding(true);
+	legacyPasswordEncoder.setSalt("benchmark-salt");
+
+	this.passwordEncoder = new AdaptivePasswordEncoder();
+	this.passwordEncoder.setLegacyPasswordEncoder(legacyPasswordEncoder);
+	this.passwordEncoder.setIterations(this.iterations);
+	this.passwordEncoder.init();
+
+	this.pbkdf2Hash = this.passwordEncoder.hash(this.password);
+	this.legacyHash = legacyPasswordEncoder.encode(this.password);
+	if (!this.passwordEncoder.matches(this.password, this.pbkdf2Hash)
+	    || !this.passwordEncoder.matches(this.password, this.legacyHash)) {
+	    throw new IllegalStateException("password does not match");
+	}
+    }
+
+    @Benchmark
+    public boolean matchesPbkdf2() {
+	return this.passwordEncoder.matches(this.password, this.pbkdf2Hash);
+    }
+
+    @Benchmark
+    public boolean matchesLegacy() {
+	return this.passwordEncoder.matches(this.password, this.legacyHash);
+    }
+
+    @Benchmark
+    public String hash() {
+	return this.passwordEncoder.hash(this.password);
+    }
+}
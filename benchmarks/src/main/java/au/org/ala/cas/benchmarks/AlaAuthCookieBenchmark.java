@@ -0,0 +1,66 @@
+package au.org.ala.cas.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import au.org.ala.cas.cookie.AlaAuthCookieCodec;
+import au.org.ala.cas.cookie.AlaAuthToken;
+
+/**
+ * The signed ALA-Auth cookie: sign (CAS, every service login) and verify (the ALA webapps, every
+ * request); verifyTampered is the rejected (bad mac) cookie, it costs the same HMAC as a valid one.
+ * Run with -t (threads), the Mac instances are per thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class AlaAuthCookieBenchmark {
+
+    private AlaAuthCookieCodec codec;
+
+    private String value;
+
+    private String tampered;
+
+    @Setup
+    public void setup() {
+	this.codec = new AlaAuthCookieCodec();
+	this.codec.setKeyId("bench");
+	this.codec.setKey("benchmark-key-0123456789abcdef0123456789abcdef");
+	this.codec.setTimeToLive(TimeUnit.DAYS.toSeconds(1));
+	this.codec.init();
+
+	this.value = this.codec.sign("jo.bloggs@example.org", "12345");
+	final char last = this.value.charAt(this.value.length() - 2);
+	this.tampered = this.value.substring(0, this.value.length() - 2) + (last == 'A' ? 'B' : 'A') + this.value.charAt(this.value.length() - 1);
+	if (this.codec.verify(this.value) == null || this.codec.verify(this.tampered) != null) {
+	    throw new IllegalStateException("verify broken");
+	}
+    }
+
+    @Benchmark
+    public String sign() {
+	return this.codec.sign("jo.bloggs@example.org", "12345");
+    }
+
+    @Benchmark
+    public AlaAuthToken verify() {
+	return this.codec.verify(this.value);
+    }
+
+    @Benchmark
+    public AlaAuthToken verifyTampered() {
+	return this.codec.verify(this.tampered);
+    }
+}
@@ -0,0 +1,375 @@
+package au.org.ala.cas.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.deploy.FilterDef;
+import org.apache.catalina.deploy.FilterMap;
+import org.apache.catalina.startup.Tomcat;
+import org.jasig.cas.authentication.Credential;
+import org.jasig.cas.authentication.HandlerResult;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.PrincipalResolver;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.support.pac4j.authentication.handler.support.ALAClientAuthenticationHandler;
+import org.jasig.cas.support.pac4j.authentication.principal.ClientCredential;
+import org.pac4j.core.client.BaseClient;
+import org.pac4j.core.client.Clients;
+import org.pac4j.core.client.Mechanism;
+import org.pac4j.core.client.RedirectAction;
+import org.pac4j.core.context.J2EContext;
+import org.pac4j.core.context.WebContext;
+import org.pac4j.core.credentials.Credentials;
+import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.core.profile.UserProfile;
+import org.springframework.webflow.context.ExternalContextHolder;
+import org.springframework.webflow.context.servlet.ServletExternalContext;
+import au.org.ala.cas.AttributeParser;
+import au.org.ala.cas.ProviderHttpClient;
+import au.org.ala.cas.UserAttributes;
+import au.org.ala.cas.UserCreator;
+import au.org.ala.cas.async.AsyncCallbackFilter;
+
+/**
+ * Load test (not a JMH benchmark) of the OAuth callbacks, synchronous vs the {@link AsyncCallbackFilter}: an
+ * embedded Tomcat (NIO, maxThreads request threads) serves /cas/login, the callback of a stub client whose user
+ * profile call goes to a {@link ProviderStub} with injected latency; the /login servlet stands in for the webflow
+ * (it authenticates the callback with the ALAClientAuthenticationHandler, the same as the ClientAction). logins
+ * concurrent callbacks are driven at once and the wall time and the latency percentiles are printed per mode:
+ *
+ *   java -cp benchmarks/target/benchmarks.jar -Dlogins=200 -DmaxThreads=20 -Dlatency=2000 \
+ *        au.org.ala.cas.benchmarks.AsyncCallbackLoad
+ *
+ * (-DioThreads, -DqueueSize and -DasyncTimeout configure the filter, as cas.async.callback.*; -Dmode=sync|async
+ * runs one mode only.)
+ */
+public class AsyncCallbackLoad {
+
+    static final String CLIENT_NAME = "StubClient";
+
+    public static void main(final String[] args) throws Exception {
+	final int logins = Integer.getInteger("logins", 200);
+	final int maxThreads = Integer.getInteger("maxThreads", 20);
+	final long latency = Long.getLong("latency", 2000);
+	final String mode = System.getProperty("mode", "both");
+
+	final ProviderStub provider = new ProviderStub(latency);
+	provider.start();
+	try {
+	    if (!"async".equals(mode)) {
+		run(false, provider, logins, maxThreads);
+	    }
+	    if (!"sync".equals(mode)) {
+		run(true, provider, logins, maxThreads);
+	    }
+	} finally {
+	    provider.stop();
+	}
+    }
+
+    static void run(final boolean async, final ProviderStub provider, final int logins, final int maxThreads) throws Exception {
+	final ProviderHttpClient providerHttpClient = new ProviderHttpClient();
+	providerHttpClient.setMaxConnections(logins);
+	providerHttpClient.setMaxConnectionsPerRoute(logins);
+	providerHttpClient.setReadTimeout(60000);
+	providerHttpClient.setConnectionRequestTimeout(60000);
+	providerHttpClient.init();
+
+	final Clients clients = new Clients("http://localhost/cas/login", new StubClient(provider.getUrl(), providerHttpClient));
+	final UserStore userStore = new UserStore();
+	final ALAClientAuthenticationHandler handler =
+	    new ALAClientAuthenticationHandler(clients, userStore, userStore, new ProfileAttributeParser());
+
+	final AsyncCallbackFilter filter = new AsyncCallbackFilter();
+	filter.setClients(clients);
+	filter.setAuthenticationHandler(handler);
+	filter.setEnabled(async);
+	filter.setIoThreads(Integer.getInteger("ioThreads", 50));
+	filter.setQueueSize(Integer.getInteger("queueSize", 100));
+	filter.setAsyncTimeout(Long.getLong("asyncTimeout", 30000));
+	filter.init();
+
+	final Tomcat tomcat = new Tomcat();
+	final File baseDir = new File(System.getProperty("java.io.tmpdir"), "async-callback-load");
+	baseDir.mkdirs();
+	tomcat.setBaseDir(baseDir.getAbsolutePath());
+	final Connector connector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
+	connector.setPort(0);
+	connector.setAttribute("maxThreads", maxThreads);
+	connector.setAttribute("acceptCount", logins);
+	connector.setAttribute("maxConnections", logins * 2);
+	tomcat.getService().addConnector(connector);
+	tomcat.setConnector(connector);
+
+	final Context context = tomcat.addContext("/cas", baseDir.getAbsolutePath());
+	final Wrapper login = Tomcat.addServlet(context, "login", new LoginServlet(clients, handler));
+	login.setAsyncSupported(true);
+	context.addServletMapping("/login", "login");
+
+	final FilterDef filterDef = new FilterDef();
+	filterDef.setFilterName("asyncCallbackFilter");
+	filterDef.setFilter(filter);
+	filterDef.setAsyncSupported("true");
+	context.addFilterDef(filterDef);
+	final FilterMap filterMap = new FilterMap();
+	filterMap.setFilterName("asyncCallbackFilter");
+	filterMap.addURLPattern("/login");
+	context.addFilterMap(filterMap);
+
+	tomcat.start();
+	try {
+	    final String url = "http://127.0.0.1:" + connector.getLocalPort() + "/cas/login?client_name=" + CLIENT_NAME + "&code=";
+	    // warm up (class loading, the first connections), not measured
+	    for (int i = 0; i < 3; i++) {
+		callback(url + "warmup" + i);
+	    }
+	    drive(async ? "async" : "sync", url, logins, maxThreads, filter);
+	} finally {
+	    tomcat.stop();
+	    tomcat.destroy();
+	    filter.destroy();
+	    providerHttpClient.destroy();
+	}
+    }
+
+    /**
+     * Drives the logins callbacks at once and prints the figures.
+     */
+    static void drive(final String mode, final String url, final int logins, final int maxThreads, final AsyncCallbackFilter filter)
+	throws Exception {
+
+	final long asyncCallbacks = filter.getAsyncCallbacks();
+	final long timeouts = filter.getTimeouts();
+	final ExecutorService browsers = Executors.newFixedThreadPool(logins);
+	final CountDownLatch start = new CountDownLatch(1);
+	final AtomicLong failures = new AtomicLong();
+	final List<Future<Long>> results = new ArrayList<Future<Long>>(logins);
+	for (int i = 0; i < logins; i++) {
+	    final String callback = url + "user" + i;
+	    results.add(browsers.submit(new Callable<Long>() {
+		    public Long call() throws Exception {
+			start.await();
+			final long begin = System.nanoTime();
+			if (!callback(callback)) {
+			    failures.incrementAndGet();
+			}
+			return System.nanoTime() - begin;
+		    }
+		}));
+	}
+
+	final long begin = System.nanoTime();
+	start.countDown();
+	final long[] latencies = new long[logins];
+	for (int i = 0; i < logins; i++) {
+	    latencies[i] = results.get(i).get() / 1000000;
+	}
+	final long wall = (System.nanoTime() - begin) / 1000000;
+	browsers.shutdown();
+
+	Arrays.sort(latencies);
+	System.out.printf("%-5s logins: %d, maxThreads: %d, failed: %d, async: %d, timeouts: %d, wall: %d ms, "
+			  + "logins/s: %.1f, latency (ms) p50: %d, p90: %d, p99: %d, max: %d%n",
+			  mode, logins, maxThreads, failures.get(), filter.getAsyncCallbacks() - asyncCallbacks,
+			  filter.getTimeouts() - timeouts, wall,
+			  logins * 1000.0 / wall, percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+			  latencies[logins - 1]);
+    }
+
+    static long percentile(final long[] sorted, final int percentile) {
+	return sorted[Math.max(0, (int) Math.ceil(sorted.length * percentile / 100.0) - 1)];
+    }
+
+    /**
+     * @return true if the callback logged the user in, (200)
+     */
+    static boolean callback(final String url) throws IOException {
+	final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+	connection.setReadTimeout(300000);
+	try {
+	    final int status = connection.getResponseCode();
+	    final InputStream in = (status == 200) ? connection.getInputStream() : connection.getErrorStream();
+	    if (in != null) {
+		while (in.read() != -1) {
+		}
+		in.close();
+	    }
+	    return status == 200;
+	} finally {
+	    connection.disconnect();
+	}
+    }
+
+    /**
+     * The /login webflow stand-in: authenticates the callback (with the prefetched profile, if any) like the ClientAction.
+     */
+    static final class LoginServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient Clients clients;
+
+	private final transient ALAClientAuthenticationHandler handler;
+
+	LoginServlet(final Clients clients, final ALAClientAuthenticationHandler handler) {
+	    this.clients = clients;
+	    this.handler = handler;
+	}
+
+	@Override
+	protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+	    throws ServletException, IOException {
+
+	    ExternalContextHolder.setExternalContext(new ServletExternalContext(this.getServletContext(), request, response));
+	    try {
+		final Credentials credentials =
+		    this.clients.findClient(CLIENT_NAME).getCredentials(new J2EContext(request, response));
+		final HandlerResult result = this.handler.authenticate(new ClientCredential(credentials));
+		response.setContentType("text/plain");
+		response.getWriter().print(result.getPrincipal().getAttributes().get("userid"));
+
+	    } catch (GeneralSecurityException e) {
+		response.sendError(HttpServletResponse.SC_UNAUTHORIZED, e.getMessage());
+	    } catch (Exception e) {
+		throw new ServletException(e);
+	    } finally {
+		ExternalContextHolder.setExternalContext(null);
+	    }
+	}
+    }
+
+    static final class StubCredentials extends Credentials {
+
+	private static final long serialVersionUID = 1L;
+
+	final String code;
+
+	StubCredentials(final String code) {
+	    this.code = code;
+	    this.setClientName(CLIENT_NAME);
+	}
+    }
+
+    /**
+     * The OAuth client of the provider stub: the credentials are the code parameter, the user profile is one GET.
+     */
+    static final class StubClient extends BaseClient<StubCredentials, CommonProfile> {
+
+	private final String profileUrl;
+
+	private final ProviderHttpClient providerHttpClient;
+
+	StubClient(final String profileUrl, final ProviderHttpClient providerHttpClient) {
+	    this.profileUrl = profileUrl;
+	    this.providerHttpClient = providerHttpClient;
+	    this.setName(CLIENT_NAME);
+	}
+
+	@Override
+	protected BaseClient<StubCredentials, CommonProfile> newClient() {
+	    return new StubClient(this.profileUrl, this.providerHttpClient);
+	}
+
+	@Override
+	protected void internalInit() {
+	}
+
+	@Override
+	protected boolean isDirectRedirection() {
+	    return true;
+	}
+
+	@Override
+	protected RedirectAction retrieveRedirectAction(final WebContext context) {
+	    return RedirectAction.redirect(this.profileUrl);
+	}
+
+	@Override
+	protected StubCredentials retrieveCredentials(final WebContext context) {
+	    final String code = context.getRequestParameter("code");
+	    return (code != null) ? new StubCredentials(code) : null;
+	}
+
+	@Override
+	protected CommonProfile retrieveUserProfile(final StubCredentials credentials, final WebContext context) {
+	    if (this.providerHttpClient.get(this.profileUrl + "?" + credentials.code) == null) {
+		return null;
+	    }
+	    final CommonProfile profile = new CommonProfile();
+	    profile.setId(credentials.code);
+	    profile.addAttribute("email", credentials.code + "@example.org");
+	    return profile;
+	}
+
+	@Override
+	public Mechanism getMechanism() {
+	    return Mechanism.OAUTH_PROTOCOL;
+	}
+    }
+
+    static final class ProfileAttributeParser extends AttributeParser {
+
+	@Override
+	public UserAttributes parse(final UserProfile userProfile) {
+	    return new UserAttributes((String) userProfile.getAttribute("email"), "Jane", "Citizen");
+	}
+    }
+
+    /**
+     * The (in memory) userdetails DB.
+     */
+    static final class UserStore implements UserCreator, PrincipalResolver {
+
+	private final ConcurrentMap<String, String> userids = new ConcurrentHashMap<String, String>();
+
+	private final AtomicLong nextUserid = new AtomicLong();
+
+	public void createUser(final UserAttributes userAttributes) {
+	    this.userids.putIfAbsent(userAttributes.getEmail(), String.valueOf(this.nextUserid.incrementAndGet()));
+	}
+
+	public Map<String, Object> resolveOrCreateUser(final UserAttributes userAttributes) {
+	    return null;
+	}
+
+	public boolean isResolveOrCreateSupported() {
+	    return false;
+	}
+
+	public Principal resolve(final Credential credential) {
+	    final Map<String, Object> attributes = new HashMap<String, Object>();
+	    final String userid = this.userids.get(credential.getId());
+	    if (userid != null) {
+		attributes.put("userid", userid);
+	    }
+	    return new SimplePrincipal(credential.getId(), attributes);
+	}
+
+	public boolean supports(final Credential credential) {
+	    return true;
+	}
+    }
+}
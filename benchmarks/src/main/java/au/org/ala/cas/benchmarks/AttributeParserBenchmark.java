@@ -0,0 +1,93 @@
+package au.org.ala.cas.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pac4j.core.profile.UserProfile;
+import au.org.ala.cas.AttributeParser;
+import au.org.ala.cas.UserAttributes;
+
+/**
+ * The delegated login profile handling, per provider (recorded responses):
+ * <ul>
+ *   <li>extractProfile: the provider response to the pac4j profile, (the streaming extraction of the Twitter/WindowsLive clients)</li>
+ *   <li>parse: the ALA attributes of the profile, (GitHub includes the parsing of the recorded user/emails response)</li>
+ *   <li>extractProfileTree, parseTree: the baselines, the pre-streaming extraction of the whole JsonNode tree (Twitter,
+ *       Windows Live: all the attributes of the definition copied to the profile; GitHub: the user/emails array); the
+ *       same as extractProfile and parse for the other providers</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class AttributeParserBenchmark {
+
+    @Param({"facebook", "twitter", "github", "google2", "linkedin2", "windowslive"})
+    private String provider;
+
+    private RecordedProfiles.ProfileExtractor client;
+
+    private String body;
+
+    private UserProfile profile;
+
+    private AttributeParser attributeParser;
+
+    private RecordedProfiles.ProfileExtractor treeClient;
+
+    private AttributeParser treeAttributeParser;
+
+    @Setup
+    public void setup() {
+	final RecordedProfiles.Provider recorded = RecordedProfiles.Provider.of(this.provider);
+	this.client = recorded.newClient();
+	this.body = recorded.body();
+	this.profile = this.client.extract(this.body);
+	this.attributeParser = RecordedProfiles.newAttributeParser();
+
+	final UserAttributes userAttributes = this.attributeParser.parse(this.profile);
+	if (userAttributes.getEmail() == null) {
+	    throw new IllegalStateException("no email parsed from the recorded " + this.provider + " profile");
+	}
+
+	this.treeClient = recorded.newClient(true);
+	this.treeAttributeParser = RecordedProfiles.newTreeAttributeParser();
+	final UserAttributes treeAttributes = this.treeAttributeParser.parse(this.treeClient.extract(this.body));
+	if (!userAttributes.toString().equals(treeAttributes.toString())) {
+	    throw new IllegalStateException("the baseline parsed " + treeAttributes + " from the recorded " + this.provider
+					    + " profile, not " + userAttributes);
+	}
+    }
+
+    @Benchmark
+    public UserProfile extractProfile() {
+	return this.client.extract(this.body);
+    }
+
+    @Benchmark
+    public UserAttributes parse() {
+	return this.attributeParser.parse(this.profile);
+    }
+
+    @Benchmark
+    public UserProfile extractProfileTree() {
+	return this.treeClient.extract(this.body);
+    }
+
+    @Benchmark
+    public UserAttributes parseTree() {
+	return this.treeAttributeParser.parse(this.profile);
+    }
+}
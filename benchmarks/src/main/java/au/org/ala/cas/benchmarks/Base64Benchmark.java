@@ -0,0 +1,105 @@
+package au.org.ala.cas.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import au.org.ala.cas.encoding.Base64;
+
+/**
+ * The Base64 encode/decode, (16: salt, 32: digest/hash, 1024: bulk) for each dialect; the
+ * array methods allocate the result, the buffer methods reuse the destination buffer.
+ *
+ * Compare with the CodecBase64Benchmark (commons-codec) and the JdkBase64Benchmark (java 8+).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class Base64Benchmark {
+
+    @Param({"16", "32", "1024"})
+    private int size;
+
+    @Param({"STANDARD", "URL_SAFE", "ORDERED"})
+    private String dialect;
+
+    private int options;
+
+    private byte[] data;
+
+    private byte[] encoded;
+
+    private ByteBuffer dataBuffer;
+
+    private ByteBuffer encodedBuffer;
+
+    private ByteBuffer encodeDestination;
+
+    private ByteBuffer decodeDestination;
+
+    static int options(final String dialect) {
+	if ("URL_SAFE".equals(dialect)) {
+	    return Base64.URL_SAFE;
+	} else if ("ORDERED".equals(dialect)) {
+	    return Base64.ORDERED;
+	}
+	return Base64.NO_OPTIONS;
+    }
+
+    static byte[] data(final int size) {
+	final byte[] data = new byte[size];
+	new Random(size).nextBytes(data);
+	return data;
+    }
+
+    @Setup
+    public void setup() {
+	this.options = options(this.dialect);
+	this.data = data(this.size);
+	this.encoded = Base64.encode(this.data, this.options);
+
+	this.dataBuffer = ByteBuffer.wrap(this.data);
+	this.encodedBuffer = ByteBuffer.wrap(this.encoded);
+	this.encodeDestination = ByteBuffer.allocate(Base64.encodedLength(this.size, this.options));
+	this.decodeDestination = ByteBuffer.allocate(Base64.decodedMaxLength(this.encoded.length));
+    }
+
+    @Benchmark
+    public byte[] encode() {
+	return Base64.encode(this.data, this.options);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+	return Base64.decode(this.encoded, this.options);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBuffer() {
+	this.dataBuffer.clear();
+	this.encodeDestination.clear();
+	Base64.encode(this.dataBuffer, this.encodeDestination, this.options);
+	return this.encodeDestination;
+    }
+
+    @Benchmark
+    public ByteBuffer decodeBuffer() {
+	this.encodedBuffer.clear();
+	this.decodeDestination.clear();
+	Base64.decode(this.encodedBuffer, this.decodeDestination, this.options);
+	return this.decodeDestination;
+    }
+}
@@ -0,0 +1,57 @@
+package au.org.ala.cas.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The commons-codec Base64 baseline of the Base64Benchmark, (there is no ORDERED dialect;
+ * the URL_SAFE encode is not padded).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CodecBase64Benchmark {
+
+    @Param({"16", "32", "1024"})
+    private int size;
+
+    @Param({"STANDARD", "URL_SAFE"})
+    private String dialect;
+
+    private boolean urlSafe;
+
+    private byte[] data;
+
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+	this.urlSafe = "URL_SAFE".equals(this.dialect);
+	this.data = Base64Benchmark.data(this.size);
+	this.encoded = Base64.encodeBase64(this.data, false, this.urlSafe);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+	return Base64.encodeBase64(this.data, false, this.urlSafe);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+	return Base64.decodeBase64(this.encoded);
+    }
+}
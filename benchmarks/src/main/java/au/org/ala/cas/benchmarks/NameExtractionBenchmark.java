@@ -0,0 +1,39 @@
+package au.org.ala.cas.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import au.org.ala.cas.AttributeParser;
+
+/**
+ * The first/last name split of the full name (Twitter, GitHub profiles).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class NameExtractionBenchmark {
+
+    @Param({"janecitizen", "Jane Citizen", "Mary Jane van der Berg Citizen"})
+    private String name;
+
+    @Benchmark
+    public String extractFirstName() {
+	return AttributeParser.extractFirstName(this.name, "");
+    }
+
+    @Benchmark
+    public String extractLastName() {
+	return AttributeParser.extractLastName(this.name, "");
+    }
+}
@@ -0,0 +1,90 @@
+package au.org.ala.cas.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import au.org.ala.cas.encoding.Base64;
+import au.org.ala.cas.encoding.MyPasswordEncoder;
+
+/**
+ * The salted digest (legacy) password hash of every password login, see also the
+ * AdaptivePasswordEncoderBenchmark; run with -t (threads) to see the per core throughput.
+ *
+ * legacyEncode is the original (per call digest lookup and salted string) implementation,
+ * kept here as the baseline of the encode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class PasswordEncoderBenchmark {
+
+    @Param({"MD5", "SHA-256"})
+    private String algorithm;
+
+    @Param({"true", "false"})
+    private boolean base64Encoding;
+
+    @Param({"correct horse battery staple"})
+    private String password;
+
+    private final String salt = "benchmark-salt";
+
+    private MyPasswordEncoder passwordEncoder;
+
+    @Setup
+    public void setup() {
+	this.passwordEncoder = new MyPasswordEncoder();
+	this.passwordEncoder.setAlgorithm(this.algorithm);
+	this.passwordEncoder.setBase64Encoding(this.base64Encoding);
+	this.passwordEncoder.setSalt(this.salt);
+
+	if (!this.passwordEncoder.encode(this.password).equals(this.legacyEncode())) {
+	    throw new IllegalStateException("encode differs from the legacy encode");
+	}
+    }
+
+    @Benchmark
+    public String encode() {
+	return this.passwordEncoder.encode(this.password);
+    }
+
+    @Benchmark
+    public String legacyEncode() {
+	final String salted = this.password + "{" + this.salt + "}";
+
+	final MessageDigest messageDigest;
+	try {
+	    messageDigest = MessageDigest.getInstance(this.algorithm);
+	} catch (NoSuchAlgorithmException e) {
+	    throw new IllegalArgumentException(e);
+	}
+
+	final byte[] digest;
+	try {
+	    digest = messageDigest.digest(salted.getBytes("UTF-8"));
+	} catch (UnsupportedEncodingException e) {
+	    throw new IllegalStateException("UTF-8 not supported!");
+	}
+
+	if (this.base64Encoding) {
+	    return new String(Base64.encode(digest));
+	} else {
+	    return new String(digest);
+	}
+    }
+}
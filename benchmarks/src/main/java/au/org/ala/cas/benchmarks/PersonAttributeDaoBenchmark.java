@@ -0,0 +1,120 @@
+package au.org.ala.cas.benchmarks;
+
+import java.beans.PropertyVetoException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.support.jdbc.MyMultiRowJdbcPersonAttributeDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import au.org.ala.cas.cache.ExpiringCache;
+
+/**
+ * The attribute lookup (attributeRepository, of every login) against an embedded (H2, in memory)
+ * user store with the key/value rows of the userStore.attribute.sql.query, pooled (c3p0) as
+ * the userStoreDataSource; so the figures are the DAO/JDBC overhead, not the database latency.
+ * attributeCacheSize 0: no attributeCache, every lookup queries the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class PersonAttributeDaoBenchmark {
+
+    static final String SQL =
+	"select attr_key as \"key\", attr_value as \"value\" from user_attributes where email = ?";
+
+    @Param({"10000"})
+    private int users;
+
+    @Param({"12"})
+    private int attributesPerUser;
+
+    @Param({"0", "10000"})
+    private int attributeCacheSize;
+
+    private ComboPooledDataSource dataSource;
+
+    private MyMultiRowJdbcPersonAttributeDao attributeRepository;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws PropertyVetoException {
+	this.dataSource = new ComboPooledDataSource();
+	this.dataSource.setDriverClass("org.h2.Driver");
+	this.dataSource.setJdbcUrl("jdbc:h2:mem:userstore;DB_CLOSE_DELAY=-1");
+	this.dataSource.setUser("sa");
+	this.dataSource.setPassword("");
+	this.dataSource.setMinPoolSize(1);
+	this.dataSource.setMaxPoolSize(10);
+
+	final JdbcTemplate jdbcTemplate = new JdbcTemplate(this.dataSource);
+	jdbcTemplate.execute("drop table if exists user_attributes");
+	jdbcTemplate.execute("create table user_attributes (email varchar(255) not null, attr_key varchar(255) not null, attr_value varchar(255))");
+	jdbcTemplate.execute("create index user_attributes_email on user_attributes (email)");
+	final List<Object[]> rows = new ArrayList<Object[]>(this.users * this.attributesPerUser);
+	for (int u = 0; u < this.users; u++) {
+	    final String email = email(u);
+	    rows.add(new Object[] {email, "userid", String.valueOf(u)});
+	    rows.add(new Object[] {email, "firstname", "Jane"});
+	    rows.add(new Object[] {email, "lastname", "Citizen"});
+	    rows.add(new Object[] {email, "authority", "ROLE_USER"});
+	    for (int a = 4; a < this.attributesPerUser; a++) {
+		rows.add(new Object[] {email, "attribute" + a, "value" + a});
+	    }
+	}
+	jdbcTemplate.batchUpdate("insert into user_attributes values (?, ?, ?)", rows);
+
+	this.attributeRepository = new MyMultiRowJdbcPersonAttributeDao(this.dataSource, SQL);
+	this.attributeRepository.setNameValueColumnMappings(Collections.singletonMap("key", "value"));
+	if (this.attributeCacheSize > 0) {
+	    final ExpiringCache<String, List<IPersonAttributes>> attributeCache = new ExpiringCache<String, List<IPersonAttributes>>();
+	    attributeCache.setMaxSize(this.attributeCacheSize);
+	    this.attributeRepository.setAttributeCache(attributeCache);
+	}
+
+	if (this.attributeRepository.getPerson(email(0)) == null) {
+	    throw new IllegalStateException("no attributes of " + email(0));
+	}
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+	new JdbcTemplate(this.dataSource).execute("drop table user_attributes");
+	this.dataSource.close();
+    }
+
+    static String email(final int user) {
+	return "user" + user + "@example.org";
+    }
+
+    @Benchmark
+    public IPersonAttributes getPerson() {
+	// NOTE: a different user per call (the cached plan, not the same rows)
+	this.next = (this.next + 7919) % this.users;
+	return this.attributeRepository.getPerson(email(this.next));
+    }
+
+    @Benchmark
+    public IPersonAttributes getPersonUnknown() {
+	return this.attributeRepository.getPerson("unknown@example.org");
+    }
+}
@@ -0,0 +1,125 @@
+package au.org.ala.cas.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import au.org.ala.cas.ProviderHttpClient;
+
+/**
+ * A provider REST call (the {@link ProviderStub}, no latency, on the loopback, HTTP or HTTPS):
+ * <ul>
+ *   <li>pooled: the {@link ProviderHttpClient}, (pooled keep-alive connections)</li>
+ *   <li>httpUrlConnection: the baseline, the pre-pool AttributeParser.HTTP_GET, (no timeouts; the
+ *       connection is reused through the JDK keep-alive cache, the response is read to the end before
+ *       the disconnect)</li>
+ * </ul>
+ * NOTE: i.e. the latency of a call is about the same, the pool is about the bounds (timeouts, number
+ * of connections, response size), not the speed; it has to stay on par with the baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class ProviderHttpClientBenchmark {
+
+    @Param({"http", "https"})
+    private String scheme;
+
+    private ProviderStub provider;
+
+    private ProviderHttpClient httpClient;
+
+    private String url;
+
+    @Setup
+    public void setup() throws IOException {
+	this.provider = new ProviderStub(0, "https".equals(this.scheme));
+	this.provider.start();
+	this.url = this.provider.getUrl() + "?jo";
+
+	this.httpClient = new ProviderHttpClient();
+	this.httpClient.init();
+
+	final String pooled = this.httpClient.get(this.url);
+	if (pooled == null || !pooled.equals(httpGet(this.url))) {
+	    throw new IllegalStateException("different responses: " + pooled + ", " + httpGet(this.url));
+	}
+    }
+
+    @TearDown
+    public void tearDown() {
+	this.httpClient.destroy();
+	this.provider.stop();
+    }
+
+    @Benchmark
+    public String pooled() {
+	return this.httpClient.get(this.url);
+    }
+
+    @Benchmark
+    public String httpUrlConnection() {
+	return httpGet(this.url);
+    }
+
+    /**
+     * The pre-pool AttributeParser.HTTP_GET, (no timeouts).
+     */
+    static String httpGet(final String urlStr) {
+	HttpURLConnection conn = null;
+	BufferedReader reader = null;
+
+	try {
+	    final URL url = new URL(urlStr);
+	    conn = (HttpURLConnection)url.openConnection();
+	    conn.setRequestMethod("GET");
+
+	    reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+	    final StringBuffer result = new StringBuffer();
+
+	    for (;;) {
+		final String line = reader.readLine();
+		if (line == null) {
+		    break;
+		}
+
+		result.append(line);
+	    }
+
+	    return result.toString();
+
+	} catch (Exception e) {
+	    return null;
+
+	} finally {
+	    try {
+		if (reader != null) {
+		    reader.close();
+		}
+		if (conn != null) {
+		    conn.disconnect();
+		}
+
+	    } catch (IOException ioe) {
+		ioe.printStackTrace();
+	    }
+	}
+    }
+}
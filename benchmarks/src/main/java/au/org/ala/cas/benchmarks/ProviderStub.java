@@ -0,0 +1,147 @@
+package au.org.ala.cas.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * An identity provider (the user profile endpoint) with injected latency: every GET answers a small JSON profile
+ * after latency ms, (a thread per request, i.e. any number of calls wait at once, like a slow provider would).
+ *
+ * With tls the stub is HTTPS, its (self-signed, 127.0.0.1) certificate is in provider-stub.jks, which is
+ * made the trust store of the JVM, (i.e. start it before the first TLS client is created).
+ */
+public class ProviderStub {
+
+    static final String KEY_STORE = "provider-stub.jks";
+
+    static final char[] KEY_STORE_PASSWORD = "changeit".toCharArray();
+
+    private final long latency;
+
+    private final boolean tls;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /**
+     * @param latency the delay (ms) of every response
+     */
+    public ProviderStub(final long latency) {
+	this(latency, false);
+    }
+
+    /**
+     * @param latency the delay (ms) of every response
+     * @param tls HTTPS if true
+     */
+    public ProviderStub(final long latency, final boolean tls) {
+	this.latency = latency;
+	this.tls = tls;
+    }
+
+    public void start() throws IOException {
+	// NOTE: the headers and the body are separate writes, without TCP_NODELAY every response waits for
+	//       the delayed ACK of the client (~40 ms)
+	System.setProperty("sun.net.httpserver.nodelay", "true");
+	if (this.tls) {
+	    final HttpsServer server = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 1000);
+	    server.setHttpsConfigurator(new HttpsConfigurator(sslContext()));
+	    this.server = server;
+	} else {
+	    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1000);
+	}
+	this.server.createContext("/", new HttpHandler() {
+		public void handle(final HttpExchange exchange) throws IOException {
+		    try {
+			Thread.sleep(latency);
+		    } catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		    }
+
+		    final String query = exchange.getRequestURI().getQuery();
+		    final byte[] body = ("{\"id\":\"" + query + "\",\"email\":\"" + query + "@example.org\"}").getBytes("UTF-8");
+		    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		    exchange.sendResponseHeaders(200, body.length);
+		    final OutputStream out = exchange.getResponseBody();
+		    try {
+			out.write(body);
+		    } finally {
+			out.close();
+		    }
+		}
+	    });
+	this.executor = Executors.newCachedThreadPool();
+	this.server.setExecutor(this.executor);
+	this.server.start();
+    }
+
+    public void stop() {
+	this.server.stop(0);
+	this.executor.shutdownNow();
+    }
+
+    /**
+     * @return the url of the profile endpoint
+     */
+    public String getUrl() {
+	return (this.tls ? "https" : "http") + "://127.0.0.1:" + this.server.getAddress().getPort() + "/user";
+    }
+
+    /**
+     * @return the server SSLContext of the stub certificate, also made the trust store of the JVM
+     */
+    private static SSLContext sslContext() throws IOException {
+	final File keyStoreFile = File.createTempFile("provider-stub", ".jks");
+	keyStoreFile.deleteOnExit();
+	final InputStream in = ProviderStub.class.getClassLoader().getResourceAsStream(KEY_STORE);
+	try {
+	    final OutputStream out = new FileOutputStream(keyStoreFile);
+	    try {
+		final byte[] buffer = new byte[4096];
+		for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+		    out.write(buffer, 0, n);
+		}
+	    } finally {
+		out.close();
+	    }
+	} finally {
+	    in.close();
+	}
+	System.setProperty("javax.net.ssl.trustStore", keyStoreFile.getPath());
+	System.setProperty("javax.net.ssl.trustStorePassword", new String(KEY_STORE_PASSWORD));
+
+	try {
+	    final KeyStore keyStore = KeyStore.getInstance("JKS");
+	    final InputStream keyStoreIn = ProviderStub.class.getClassLoader().getResourceAsStream(KEY_STORE);
+	    try {
+		keyStore.load(keyStoreIn, KEY_STORE_PASSWORD);
+	    } finally {
+		keyStoreIn.close();
+	    }
+	    final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+	    keyManagerFactory.init(keyStore, KEY_STORE_PASSWORD);
+	    final SSLContext sslContext = SSLContext.getInstance("TLS");
+	    sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+	    return sslContext;
+
+	} catch (GeneralSecurityException e) {
+	    throw new IOException("can not load " + KEY_STORE, e);
+	}
+    }
+}
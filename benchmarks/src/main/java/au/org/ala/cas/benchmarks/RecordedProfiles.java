@@ -0,0 +1,289 @@
+package au.org.ala.cas.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import org.pac4j.core.profile.UserProfile;
+import org.pac4j.oauth.client.BaseOAuthClient;
+import org.pac4j.oauth.client.FacebookClient;
+import org.pac4j.oauth.client.GitHubClient;
+import org.pac4j.oauth.client.Google2Client;
+import org.pac4j.oauth.client.LinkedIn2Client;
+import org.pac4j.oauth.client.TwitterClient;
+import org.pac4j.oauth.client.WindowsLiveClient;
+import org.pac4j.oauth.profile.JsonHelper;
+import org.pac4j.oauth.profile.OAuth20Profile;
+import org.pac4j.oauth.profile.OAuthAttributesDefinitions;
+import org.pac4j.oauth.profile.facebook.FacebookProfile;
+import org.pac4j.oauth.profile.linkedin2.LinkedIn2Profile;
+import org.pac4j.oauth.profile.twitter.TwitterProfile;
+import org.pac4j.oauth.profile.windowslive.WindowsLiveProfile;
+import au.org.ala.cas.AttributeParser;
+import au.org.ala.cas.RecordedProviderHttpClient;
+import au.org.ala.cas.extractor.AttributeExtractor;
+import au.org.ala.cas.extractor.FullNameAttributeExtractor;
+import au.org.ala.cas.extractor.GitHubAttributeExtractor;
+import au.org.ala.cas.extractor.Google2AttributeExtractor;
+import au.org.ala.cas.extractor.MappedAttributeExtractor;
+import au.org.ala.cas.extractor.TreeGitHubAttributeExtractor;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The recorded (anonymised) provider responses (src/main/resources/profiles) and the clients and
+ * the AttributeParser configured as in applicationContext.xml.
+ */
+final class RecordedProfiles {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Exposes the (protected) profile extraction of a client.
+     */
+    interface ProfileExtractor {
+	UserProfile extract(String body);
+    }
+
+    static final class Facebook extends FacebookClient implements ProfileExtractor {
+	public UserProfile extract(final String body) {
+	    return extractUserProfile(body);
+	}
+    }
+
+    static final class Twitter extends TwitterClient implements ProfileExtractor {
+	public UserProfile extract(final String body) {
+	    return extractUserProfile(body);
+	}
+    }
+
+    static final class GitHub extends GitHubClient implements ProfileExtractor {
+	public UserProfile extract(final String body) {
+	    final OAuth20Profile profile = extractUserProfile(body);
+	    // NOTE: added by the client after the login, needed by the GitHub user/emails lookup
+	    profile.setAccessToken("0123456789abcdef0123456789abcdef01234567");
+	    return profile;
+	}
+    }
+
+    static final class Google2 extends Google2Client implements ProfileExtractor {
+	public UserProfile extract(final String body) {
+	    return extractUserProfile(body);
+	}
+    }
+
+    static final class LinkedIn2 extends LinkedIn2Client implements ProfileExtractor {
+	public UserProfile extract(final String body) {
+	    return extractUserProfile(body);
+	}
+    }
+
+    static final class WindowsLive extends WindowsLiveClient implements ProfileExtractor {
+	public UserProfile extract(final String body) {
+	    return extractUserProfile(body);
+	}
+    }
+
+    /**
+     * The baseline Twitter extraction: the whole JsonNode tree, all the attributes of the definition copied.
+     */
+    static final class TwitterTree extends TwitterClient implements ProfileExtractor {
+	public UserProfile extract(final String body) {
+	    final TwitterProfile profile = new TwitterProfile();
+	    final JsonNode json = JsonHelper.getFirstNode(body);
+	    if (json != null) {
+		profile.setId(JsonHelper.get(json, "id"));
+		for (final String attribute : OAuthAttributesDefinitions.twitterDefinition.getAllAttributes()) {
+		    profile.addAttribute(attribute, JsonHelper.get(json, attribute));
+		}
+	    }
+	    return profile;
+	}
+    }
+
+    /**
+     * The baseline Windows Live extraction: the whole JsonNode tree, all the attributes of the definition copied,
+     * the email from the emails section.
+     */
+    static final class WindowsLiveTree extends WindowsLiveClient implements ProfileExtractor {
+	public UserProfile extract(final String body) {
+	    final WindowsLiveProfile profile = new WindowsLiveProfile();
+	    final JsonNode json = JsonHelper.getFirstNode(body);
+	    if (json != null) {
+		profile.setId(JsonHelper.get(json, "id"));
+		for (final String attribute : OAuthAttributesDefinitions.windowsLiveDefinition.getAllAttributes()) {
+		    if (!attribute.equals("email")) {
+			profile.addAttribute(attribute, JsonHelper.get(json, attribute));
+		    }
+		}
+
+		final JsonNode emails = (JsonNode) JsonHelper.get(json, "emails");
+		if (emails != null) {
+		    profile.addAttribute("email", JsonHelper.get(emails, "account"));
+		}
+	    }
+	    return profile;
+	}
+    }
+
+    /**
+     * The recorded providers, (the benchmark @Param values are the lower case names).
+     */
+    enum Provider {
+	FACEBOOK("facebook.json"),
+	TWITTER("twitter.json"),
+	GITHUB("github.json"),
+	GOOGLE2("google2.json"),
+	LINKEDIN2("linkedin2.xml"),
+	WINDOWSLIVE("windowslive.json");
+
+	final String resource;
+
+	Provider(final String resource) {
+	    this.resource = resource;
+	}
+
+	static Provider of(final String name) {
+	    return valueOf(name.toUpperCase(Locale.ENGLISH));
+	}
+
+	String body() {
+	    return read("profiles/" + this.resource);
+	}
+
+	ProfileExtractor newClient() {
+	    return this.newClient(false);
+	}
+
+	/**
+	 * @param tree true: the baseline (JsonNode tree) extraction of Twitter and Windows Live, (the other clients
+	 *        are the same)
+	 */
+	ProfileExtractor newClient(final boolean tree) {
+	    final BaseOAuthClient<?> client;
+	    switch (this) {
+	    case FACEBOOK:
+		client = new Facebook();
+		break;
+	    case TWITTER:
+		if (tree) {
+		    client = new TwitterTree();
+		    break;
+		}
+		final Twitter twitter = new Twitter();
+		twitter.setAttributes("name,screen_name,email");
+		client = twitter;
+		break;
+	    case GITHUB:
+		client = new GitHub();
+		break;
+	    case GOOGLE2:
+		client = new Google2();
+		break;
+	    case LINKEDIN2:
+		client = new LinkedIn2();
+		break;
+	    default:
+		if (tree) {
+		    client = new WindowsLiveTree();
+		    break;
+		}
+		final WindowsLive windowsLive = new WindowsLive();
+		windowsLive.setAttributes("name,first_name,last_name,email");
+		client = windowsLive;
+		break;
+	    }
+
+	    client.setKey("benchmark");
+	    client.setSecret("benchmark");
+	    client.setCallbackUrl("https://auth.example.org/cas/login");
+	    client.init();
+	    return (ProfileExtractor) client;
+	}
+
+	UserProfile profile() {
+	    return this.newClient().extract(this.body());
+	}
+    }
+
+    private RecordedProfiles() {
+    }
+
+    /**
+     * @return the AttributeParser with the extractors of applicationContext.xml; the GitHub
+     *         user/emails lookup replays the recorded response (and is not cached)
+     */
+    static AttributeParser newAttributeParser() {
+	return newAttributeParser(new GitHubAttributeExtractor());
+    }
+
+    /**
+     * @return the AttributeParser of {@link #newAttributeParser()}, with the baseline (JsonNode tree) parsing of the
+     *         GitHub user/emails response
+     */
+    static AttributeParser newTreeAttributeParser() {
+	return newAttributeParser(new TreeGitHubAttributeExtractor());
+    }
+
+    private static AttributeParser newAttributeParser(final GitHubAttributeExtractor github) {
+	final MappedAttributeExtractor facebook = new MappedAttributeExtractor();
+	facebook.setProfileClass(FacebookProfile.class);
+	facebook.setEmailAttribute("email");
+	facebook.setFirstNameAttribute("first_name");
+	facebook.setLastNameAttribute("last_name");
+
+	final FullNameAttributeExtractor twitter = new FullNameAttributeExtractor();
+	twitter.setProfileClass(TwitterProfile.class);
+	twitter.setEmailAttribute("email");
+	twitter.setNameAttribute("name");
+	twitter.setDefaultNameAttribute("screen_name");
+
+	github.setHttpClient(new RecordedProviderHttpClient(read("profiles/github-emails.json"), "\"b0d7c3e1\""));
+
+	final MappedAttributeExtractor linkedIn2 = new MappedAttributeExtractor();
+	linkedIn2.setProfileClass(LinkedIn2Profile.class);
+	linkedIn2.setEmailAttribute("email-address");
+	linkedIn2.setFirstNameAttribute("first-name");
+	linkedIn2.setLastNameAttribute("last-name");
+
+	final MappedAttributeExtractor windowsLive = new MappedAttributeExtractor();
+	windowsLive.setProfileClass(WindowsLiveProfile.class);
+	windowsLive.setEmailAttribute("email");
+	windowsLive.setFirstNameAttribute("first_name");
+	windowsLive.setLastNameAttribute("last_name");
+
+	final AttributeParser attributeParser = new AttributeParser();
+	attributeParser.setExtractors(Arrays.<AttributeExtractor>asList(facebook, twitter, github,
+									 new Google2AttributeExtractor(),
+									 linkedIn2, windowsLive));
+	return attributeParser;
+    }
+
+    /**
+     * @return the classpath resource as (UTF-8) string
+     */
+    static String read(final String resource) {
+	final InputStream in = RecordedProfiles.class.getClassLoader().getResourceAsStream(resource);
+	if (in == null) {
+	    throw new IllegalArgumentException("resource not found: " + resource);
+	}
+
+	try {
+	    try {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+		    out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), UTF_8);
+
+	    } finally {
+		in.close();
+	    }
+
+	} catch (IOException e) {
+	    throw new IllegalStateException("error reading resource: " + resource, e);
+	}
+    }
+}
@@ -0,0 +1,81 @@
+package au.org.ala.cas.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.jasig.cas.authentication.principal.AbstractWebApplicationService;
+import org.jasig.cas.authentication.principal.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The service url cleanup (of every service request) and the service match (of every ticket
+ * validation) of the overlay AbstractWebApplicationService.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class WebApplicationServiceBenchmark {
+
+    /**
+     * Exposes the (protected) cleanupUrl.
+     */
+    static final class BenchmarkService extends AbstractWebApplicationService {
+	private static final long serialVersionUID = 1L;
+
+	BenchmarkService(final String url) {
+	    super(cleanupUrl(url), url, null);
+	}
+
+	static String cleanup(final String url) {
+	    return cleanupUrl(url);
+	}
+
+	public Response getResponse(final String ticketId) {
+	    return null;
+	}
+    }
+
+    @Param({"https://biocache.example.org/occurrences/search?q=taxa%3A%22Malurus%20cyaneus%22",
+	    "https://biocache.example.org/occurrences/search;jsessionid=A1B2C3D4E5F6A7B8C9D0E1F2A3B4C5D6?q=taxa%3A%22Malurus%20cyaneus%22",
+	    "https://biocache.example.org/occurrences/search;jsessionid=A1B2C3D4E5F6A7B8C9D0E1F2A3B4C5D6"})
+    private String url;
+
+    private BenchmarkService service;
+
+    private BenchmarkService sameService;
+
+    private BenchmarkService otherService;
+
+    @Setup
+    public void setup() {
+	this.service = new BenchmarkService(this.url);
+	this.sameService = new BenchmarkService(new String(this.url));
+	this.otherService = new BenchmarkService(this.url.replace("search", "searches"));
+    }
+
+    @Benchmark
+    public String cleanupUrl() {
+	return BenchmarkService.cleanup(this.url);
+    }
+
+    @Benchmark
+    public boolean matchesSame() {
+	return this.service.matches(this.sameService);
+    }
+
+    @Benchmark
+    public boolean matchesOther() {
+	return this.service.matches(this.otherService);
+    }
+}
@@ -0,0 +1,32 @@
+package au.org.ala.cas.extractor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.pac4j.oauth.profile.JsonHelper;
+
+/**
+ * {@link GitHubAttributeExtractor} parsing the user/emails JSON array as a whole JsonNode tree, the
+ * way it was parsed before the streaming extraction; the baseline of the AttributeParserBenchmark.
+ */
+public class TreeGitHubAttributeExtractor extends GitHubAttributeExtractor {
+
+    @Override
+    String parsePrimaryEmail(final String result) {
+	try {
+	    final JsonNode emails = JsonHelper.getFirstNode(result);
+	    if (emails == null || !emails.isArray()) {
+		return null;
+	    }
+
+	    for (final JsonNode emailRecord : emails) {
+		if (emailRecord.path("primary").asBoolean() && emailRecord.path("verified").asBoolean()) {
+		    final JsonNode email = emailRecord.get("email");
+		    return (email != null) ? email.asText() : null;
+		}
+	    }
+
+	} catch (Throwable e) {
+	    return null;
+	}
+	return null;
+    }
+}
@@ -0,0 +1,77 @@
+package au.org.ala.cas.benchmarks;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The java.util.Base64 (java 8+) baseline of the Base64Benchmark, (there is no ORDERED dialect);
+ * encodeInto/decodeInto reuse the destination array.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class JdkBase64Benchmark {
+
+    @Param({"16", "32", "1024"})
+    private int size;
+
+    @Param({"STANDARD", "URL_SAFE"})
+    private String dialect;
+
+    private Base64.Encoder encoder;
+
+    private Base64.Decoder decoder;
+
+    private byte[] data;
+
+    private byte[] encoded;
+
+    private byte[] encodeDestination;
+
+    private byte[] decodeDestination;
+
+    @Setup
+    public void setup() {
+	final boolean urlSafe = "URL_SAFE".equals(this.dialect);
+	this.encoder = urlSafe ? Base64.getUrlEncoder() : Base64.getEncoder();
+	this.decoder = urlSafe ? Base64.getUrlDecoder() : Base64.getDecoder();
+	this.data = Base64Benchmark.data(this.size);
+	this.encoded = this.encoder.encode(this.data);
+	this.encodeDestination = new byte[this.encoded.length];
+	this.decodeDestination = new byte[this.size];
+    }
+
+    @Benchmark
+    public byte[] encode() {
+	return this.encoder.encode(this.data);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+	return this.decoder.decode(this.encoded);
+    }
+
+    @Benchmark
+    public int encodeInto() {
+	return this.encoder.encode(this.data, this.encodeDestination);
+    }
+
+    @Benchmark
+    public int decodeInto() {
+	return this.decoder.decode(this.encoded, this.decodeDestination);
+    }
+}
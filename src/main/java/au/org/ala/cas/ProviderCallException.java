@@ -0,0 +1,19 @@
+package au.org.ala.cas;
+
+/**
+ * A REST call to an identity provider failed because of the provider (connection error, timeout,
+ * 5xx status), i.e. not because of the user; it fails the login and counts as a failure of the
+ * provider's circuit breaker (see ALAClientAuthenticationHandler).
+ */
+public class ProviderCallException extends RuntimeException {
+
+    private static final long serialVersionUID = 2316874470162357125L;
+
+    public ProviderCallException(final String message) {
+	super(message);
+    }
+
+    public ProviderCallException(final String message, final Throwable cause) {
+	super(message, cause);
+    }
+}
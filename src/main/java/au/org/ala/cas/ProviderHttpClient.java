@@ -0,0 +1,340 @@
+package au.org.ala.cas;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * Shared HTTP client for the REST calls made (from the login request thread) to the
+ * identity providers, e.g. the GitHub user/emails lookup done by the AttributeParser.
+ *
+ * The connections are pooled (bounded, keep-alive; the pooled TLS connections are
+ * reused and new ones resume the cached TLS session), every call has a hard connect,
+ * pool checkout and read timeout, and the size of the response body is capped, so a
+ * slow or misbehaving provider can not park the Tomcat request threads forever.
+ *
+ * NOTE: the read timeout bounds every single read, not the whole response (a provider
+ * dripping a byte every few seconds never hits it), so every call also has a total
+ * requestTimeout: the request is aborted (its connection closed) when it is not done in time.
+ *
+ * NOTE: no stale connection check before every call (a 1 ms blocking read, it cost ~2 ms a call,
+ * see the ProviderHttpClientBenchmark); the connections idle for more than idleTimeout are closed
+ * in the background instead, and a GET on a connection the provider closed meanwhile is retried
+ * (NoHttpResponseException) by the default retry handler.
+ *
+ * A call failed by the provider (connection error, timeout, 5xx status) throws a
+ * {@link ProviderCallException}, so it counts against the provider's circuit breaker; any
+ * other unusable response (e.g. 401, too big) is null.
+ */
+public class ProviderHttpClient {
+
+    /** Log instance. */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Max number of pooled connections (all providers). */
+    private int maxConnections = 50;
+
+    /** Max number of pooled connections per provider (route). */
+    private int maxConnectionsPerRoute = 20;
+
+    /** Timeout (ms) to establish the connection. */
+    private int connectTimeout = 3000;
+
+    /** Timeout (ms) waiting for data (socket SO_TIMEOUT). */
+    private int readTimeout = 5000;
+
+    /** Timeout (ms) waiting for a free connection from the pool. */
+    private int connectionRequestTimeout = 1000;
+
+    /** Timeout (ms) of the whole call (connect, request, response body), 0: none. */
+    private int requestTimeout = 10000;
+
+    /** Time (ms) a pooled connection is kept idle. */
+    private int idleTimeout = 30000;
+
+    /** Max accepted size (bytes) of the response body. */
+    private int maxResponseSize = 64 * 1024;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    private CloseableHttpClient httpClient;
+
+    /** Aborts the calls over the requestTimeout and closes the idle connections. */
+    private ScheduledExecutorService timer;
+
+    /**
+     * Creates the connection pool and the client; called by spring (init-method).
+     */
+    public void init() {
+	this.connectionManager = new PoolingHttpClientConnectionManager();
+	this.connectionManager.setMaxTotal(this.maxConnections);
+	this.connectionManager.setDefaultMaxPerRoute(this.maxConnectionsPerRoute);
+
+	final RequestConfig requestConfig = RequestConfig.custom()
+	    .setConnectTimeout(this.connectTimeout)
+	    .setSocketTimeout(this.readTimeout)
+	    .setConnectionRequestTimeout(this.connectionRequestTimeout)
+	    .setStaleConnectionCheckEnabled(false)
+	    .build();
+
+	// NOTE: connection state is disabled, otherwise the pooled TLS connections would be
+	//       tagged with the (TLS) user token and not reused for the next request
+	this.httpClient = HttpClients.custom()
+	    .setConnectionManager(this.connectionManager)
+	    .setDefaultRequestConfig(requestConfig)
+	    .disableConnectionState()
+	    .disableCookieManagement()
+	    .build();
+
+	this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(final Runnable runnable) {
+		    final Thread thread = new Thread(runnable, "ProviderHttpClient-timer");
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    });
+	final long evictionPeriod = Math.max(1000, this.idleTimeout / 2);
+	this.timer.scheduleWithFixedDelay(new Runnable() {
+		public void run() {
+		    connectionManager.closeExpiredConnections();
+		    connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+		}
+	    }, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+
+	logger.debug("initialised: maxConnections: {}, maxConnectionsPerRoute: {}, connectTimeout: {}, readTimeout: {}, requestTimeout: {}",
+		     new Object[] { this.maxConnections, this.maxConnectionsPerRoute, this.connectTimeout, this.readTimeout,
+				    this.requestTimeout });
+    }
+
+    /**
+     * Closes the client and all the pooled connections; called by spring (destroy-method).
+     */
+    public void destroy() {
+	if (this.timer != null) {
+	    this.timer.shutdownNow();
+	}
+
+	try {
+	    if (this.httpClient != null) {
+		this.httpClient.close();
+	    }
+
+	} catch (IOException ioe) {
+	    logger.debug("error closing the http client: {}", ioe.getMessage());
+	}
+    }
+
+    /**
+     * The status, body and ETag of a successful (200 or 304) response.
+     */
+    public static final class Response {
+	private final int status;
+	private final String body;
+	private final String etag;
+
+	Response(final int status, final String body, final String etag) {
+	    this.status = status;
+	    this.body = body;
+	    this.etag = etag;
+	}
+
+	public int getStatus() {
+	    return this.status;
+	}
+
+	/**
+	 * @return true if the resource was not modified (304), i.e. the If-None-Match ETag still matches
+	 */
+	public boolean isNotModified() {
+	    return this.status == HttpStatus.SC_NOT_MODIFIED;
+	}
+
+	public String getBody() {
+	    return this.body;
+	}
+
+	public String getEtag() {
+	    return this.etag;
+	}
+    }
+
+    /**
+     * HTTP GET the url.
+     *
+     * @param url the url to GET
+     * @return the response body, or null if it is not usable (other status than 200, response too big, etc.)
+     * @throws ProviderCallException if the provider failed the call (connection error, timeout, 5xx status)
+     */
+    public String get(final String url) {
+	final Response response = this.get(url, null);
+	return (response != null && !response.isNotModified()) ? response.getBody() : null;
+    }
+
+    /**
+     * HTTP GET the url with the extra request headers, (e.g. Authorization, If-None-Match).
+     *
+     * @param url the url to GET
+     * @param headers the request headers, can be null
+     * @return the 200 or 304 (not modified) response, or null if it is not usable (other status, response too big, etc.)
+     * @throws ProviderCallException if the provider failed the call (connection error, timeout, 5xx status)
+     */
+    public Response get(final String url, final Map<String, String> headers) {
+	final HttpGet request = new HttpGet(url);
+	request.setHeader("Accept", "application/json");
+	if (headers != null) {
+	    for (final Map.Entry<String, String> header : headers.entrySet()) {
+		request.setHeader(header.getKey(), header.getValue());
+	    }
+	}
+
+	final ScheduledFuture<?> deadline = (this.requestTimeout > 0) ? this.timer.schedule(new Runnable() {
+		public void run() {
+		    request.abort();
+		}
+	    }, this.requestTimeout, TimeUnit.MILLISECONDS) : null;
+
+	CloseableHttpResponse response = null;
+	try {
+	    response = this.httpClient.execute(request);
+
+	    final int status = response.getStatusLine().getStatusCode();
+	    if (status == HttpStatus.SC_NOT_MODIFIED) {
+		return new Response(status, null, getEtag(response));
+	    }
+
+	    if (status >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+		throw new ProviderCallException("HTTP GET " + request.getURI().getPath() + " failed, status: " + status);
+	    }
+	    if (status != HttpStatus.SC_OK) {
+		logger.debug("HTTP GET {} failed, status: {}", request.getURI().getPath(), status);
+		return null;
+	    }
+
+	    final String body = this.readBody(response.getEntity());
+	    if (body == null) {
+		return null;
+	    }
+	    return new Response(status, body, getEtag(response));
+
+	} catch (IOException e) {
+	    if (request.isAborted()) {
+		logger.debug("HTTP GET {} not done in {} ms, aborted", request.getURI().getPath(), this.requestTimeout);
+		throw new ProviderCallException("HTTP GET " + request.getURI().getPath() + " timed out after "
+						+ this.requestTimeout + " ms", e);
+	    }
+	    logger.debug("HTTP GET {} error: {}", request.getURI().getPath(), e.getMessage());
+	    throw new ProviderCallException("HTTP GET " + request.getURI().getPath() + " error: " + e.getMessage(), e);
+
+	} finally {
+	    if (deadline != null) {
+		deadline.cancel(false);
+	    }
+	    if (response != null) {
+		try {
+		    response.close();
+		} catch (IOException ioe) {
+		    logger.debug("error closing the response: {}", ioe.getMessage());
+		}
+	    }
+	}
+    }
+
+    static String getEtag(final CloseableHttpResponse response) {
+	final Header etag = response.getFirstHeader("ETag");
+	return (etag != null) ? etag.getValue() : null;
+    }
+
+    /**
+     * Reads the entity body, up to maxResponseSize bytes.
+     *
+     * @return the body or null if there is no body or it is bigger than maxResponseSize
+     */
+    String readBody(final HttpEntity entity) throws IOException {
+	if (entity == null) {
+	    return null;
+	}
+
+	final long contentLength = entity.getContentLength();
+	if (contentLength > this.maxResponseSize) {
+	    logger.debug("response too big: {} bytes (max: {})", contentLength, this.maxResponseSize);
+	    return null;
+	}
+
+	// NOTE: the stream is not closed here; reading it up to EOF releases the connection back
+	//       into the pool, otherwise response.close() discards (aborts) the connection
+	final InputStream in = entity.getContent();
+	final ByteArrayOutputStream out =
+	    new ByteArrayOutputStream(contentLength > 0 ? (int)contentLength : 4096);
+	final byte[] buffer = new byte[4096];
+
+	for (;;) {
+	    final int n = in.read(buffer);
+	    if (n == -1) {
+		break;
+	    }
+
+	    if (out.size() + n > this.maxResponseSize) {
+		logger.debug("response too big, more than {} bytes", this.maxResponseSize);
+		return null;
+	    }
+	    out.write(buffer, 0, n);
+	}
+
+	final ContentType contentType = ContentType.getOrDefault(entity);
+	final Charset charset = (contentType.getCharset() != null) ? contentType.getCharset() : UTF_8;
+	return new String(out.toByteArray(), charset);
+    }
+
+    public void setMaxConnections(final int maxConnections) {
+	this.maxConnections = maxConnections;
+    }
+
+    public void setMaxConnectionsPerRoute(final int maxConnectionsPerRoute) {
+	this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public void setConnectTimeout(final int connectTimeout) {
+	this.connectTimeout = connectTimeout;
+    }
+
+    public void setReadTimeout(final int readTimeout) {
+	this.readTimeout = readTimeout;
+    }
+
+    public void setConnectionRequestTimeout(final int connectionRequestTimeout) {
+	this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    public void setRequestTimeout(final int requestTimeout) {
+	this.requestTimeout = requestTimeout;
+    }
+
+    public void setIdleTimeout(final int idleTimeout) {
+	this.idleTimeout = idleTimeout;
+    }
+
+    public void setMaxResponseSize(final int maxResponseSize) {
+	this.maxResponseSize = maxResponseSize;
+    }
+}
@@ -0,0 +1,54 @@
+package au.org.ala.cas;
+
+import org.pac4j.core.profile.UserProfile;
+import au.org.ala.cas.identity.ProviderIdentityIndex;
+
+/**
+ * The result of the provider calls of a delegated login: the user profile and either the ALA
+ * attributes extracted from it, or the indexed ALA user of the provider identity (returning user).
+ */
+public final class ProviderProfile {
+
+    private final String clientName;
+
+    private final UserProfile userProfile;
+
+    private final UserAttributes userAttributes;
+
+    private final ProviderIdentityIndex.Identity identity;
+
+    public ProviderProfile(final String clientName,
+			   final UserProfile userProfile,
+			   final UserAttributes userAttributes,
+			   final ProviderIdentityIndex.Identity identity) {
+	this.clientName = clientName;
+	this.userProfile = userProfile;
+	this.userAttributes = userAttributes;
+	this.identity = identity;
+    }
+
+    public String getClientName() {
+	return this.clientName;
+    }
+
+    /**
+     * @return the user profile, or null if the provider did not produce one
+     */
+    public UserProfile getUserProfile() {
+	return this.userProfile;
+    }
+
+    /**
+     * @return the ALA attributes, or null if the identity is indexed (or there is no profile)
+     */
+    public UserAttributes getUserAttributes() {
+	return this.userAttributes;
+    }
+
+    /**
+     * @return the indexed ALA user of the provider identity, or null
+     */
+    public ProviderIdentityIndex.Identity getIdentity() {
+	return this.identity;
+    }
+}
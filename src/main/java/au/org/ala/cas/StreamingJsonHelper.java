@@ -0,0 +1,147 @@
+package au.org.ala.cas;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
+/**
+ * Streaming, field selective alternative of the pac4j JsonHelper (getFirstNode + get):
+ * instead of building the whole JsonNode tree of a provider response and then picking
+ * the attributes from it, only the requested fields are read from the token stream, the
+ * rest is skipped, and the parsing stops as soon as all the requested fields were found.
+ *
+ * The field paths are the same as in JsonHelper.get, i.e. a field name or a dotted path
+ * into nested objects (e.g. "emails.account"); the values are the same too: String,
+ * Number, Boolean, or a JsonNode for an object/array value.
+ */
+public final class StreamingJsonHelper {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingJsonHelper.class);
+
+    /** Thread safe, shared; the mapping factory can read the object/array values as trees. */
+    static final JsonFactory JSON_FACTORY = new MappingJsonFactory();
+
+    private StreamingJsonHelper() {
+    }
+
+    /**
+     * @param json the JSON text
+     * @return a (streaming) parser of the text, the caller has to close it
+     */
+    public static JsonParser createParser(final String json) throws IOException {
+	return JSON_FACTORY.createParser(json);
+    }
+
+    /**
+     * A set of the field paths to extract, (precomputed once per client configuration).
+     */
+    public static final class Fields {
+	private final Set<String> paths;
+	private final Set<String> parents = new HashSet<String>();
+
+	public Fields(final Collection<String> paths) {
+	    this.paths = new HashSet<String>(paths);
+	    for (final String path : this.paths) {
+		for (int i = path.indexOf('.'); i > 0; i = path.indexOf('.', i + 1)) {
+		    this.parents.add(path.substring(0, i));
+		}
+	    }
+	}
+
+	public Set<String> getPaths() {
+	    return this.paths;
+	}
+    }
+
+    /**
+     * @param json the JSON object text
+     * @param fields the field paths to extract
+     * @return the values of the found (non null) fields by field path, or null if the text is not a JSON object
+     */
+    public static Map<String, Object> extract(final String json, final Fields fields) {
+	if (json == null) {
+	    return null;
+	}
+
+	try {
+	    final JsonParser parser = createParser(json);
+	    try {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+		    logger.debug("not a JSON object: {}", json);
+		    return null;
+		}
+
+		final Map<String, Object> values = new HashMap<String, Object>();
+		readObject(parser, "", fields, values);
+		return values;
+
+	    } finally {
+		parser.close();
+	    }
+
+	} catch (IOException e) {
+	    logger.error("Cannot parse JSON: " + json, e);
+	    return null;
+	}
+    }
+
+    /**
+     * Reads the fields of the current object.
+     *
+     * @return true if all the requested fields were found (stop parsing)
+     */
+    private static boolean readObject(final JsonParser parser, final String prefix,
+				      final Fields fields, final Map<String, Object> values) throws IOException {
+	while (parser.nextToken() == JsonToken.FIELD_NAME) {
+	    final String path = prefix + parser.getCurrentName();
+	    final JsonToken token = parser.nextToken();
+
+	    if (fields.paths.contains(path)) {
+		final Object value = readValue(parser, token);
+		if (value != null) {
+		    values.put(path, value);
+		}
+		if (values.size() == fields.paths.size()) {
+		    return true;
+		}
+
+	    } else if (token == JsonToken.START_OBJECT && fields.parents.contains(path)) {
+		if (readObject(parser, path + ".", fields, values)) {
+		    return true;
+		}
+
+	    } else {
+		parser.skipChildren();
+	    }
+	}
+	return false;
+    }
+
+    private static Object readValue(final JsonParser parser, final JsonToken token) throws IOException {
+	switch (token) {
+	case VALUE_STRING:
+	    return parser.getText();
+	case VALUE_NUMBER_INT:
+	case VALUE_NUMBER_FLOAT:
+	    return parser.getNumberValue();
+	case VALUE_TRUE:
+	    return Boolean.TRUE;
+	case VALUE_FALSE:
+	    return Boolean.FALSE;
+	case START_OBJECT:
+	case START_ARRAY:
+	    return parser.readValueAsTree();
+	default:
+	    return null;
+	}
+    }
+}
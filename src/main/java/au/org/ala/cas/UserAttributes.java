@@ -0,0 +1,44 @@
+package au.org.ala.cas;
+
+import java.io.Serializable;
+
+/**
+ * Immutable ALA view (email, firstname, lastname) of a user profile received
+ * from Facebook/Google/GitHub/etc. It is resolved once per login by
+ * {@link AttributeParser#parse(org.pac4j.core.profile.UserProfile)} and then
+ * passed around, so the (possibly remote) attribute lookup is never repeated
+ * for the same login.
+ */
+public final class UserAttributes implements Serializable {
+
+    private static final long serialVersionUID = 3829474930176551812L;
+
+    private final String email;
+
+    private final String firstName;
+
+    private final String lastName;
+
+    public UserAttributes(final String email, final String firstName, final String lastName) {
+	this.email = email;
+	this.firstName = firstName;
+	this.lastName = lastName;
+    }
+
+    public String getEmail() {
+	return this.email;
+    }
+
+    public String getFirstName() {
+	return this.firstName;
+    }
+
+    public String getLastName() {
+	return this.lastName;
+    }
+
+    @Override
+    public String toString() {
+	return this.email + " (" + this.firstName + " " + this.lastName + ")";
+    }
+}
@@ -1,6 +1,6 @@
 package au.org.ala.cas;
 
-import org.pac4j.core.profile.UserProfile;
+import java.util.Map;
 
 /**
  * User creation interface. UserCreator takes user attributes received from
@@ -12,5 +12,22 @@ import org.pac4j.core.profile.UserProfile;
  * @since 4.0.1
  */
 public interface UserCreator {
-    public void createUser(final UserProfile userProfile);
+    public void createUser(final UserAttributes userAttributes);
+
+    /**
+     * Looks up the user, or creates it if it does not exist yet, and returns the user
+     * attributes, all in one (atomic) operation; i.e. a single backend round trip
+     * replacing the lookup, create and lookup again of a first-time login.
+     *
+     * @param userAttributes the attributes received from Facebook/Google/GitHub/etc.
+     * @return the user attributes (e.g. "userid", "firstname", "lastname", "authority"),
+     * or null if the operation is not supported (configured) by this UserCreator
+     */
+    public Map<String, Object> resolveOrCreateUser(final UserAttributes userAttributes);
+
+    /**
+     * @return true if resolveOrCreateUser is supported (configured), i.e. the logins do not
+     * look the users up in the attributeRepository
+     */
+    public boolean isResolveOrCreateSupported();
 }
@@ -1,5 +1,6 @@
 package au.org.ala.cas;
 
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import org.slf4j.Logger;
@@ -7,13 +8,20 @@ import org.slf4j.LoggerFactory;
 
 import javax.validation.constraints.NotNull;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
 import javax.sql.DataSource;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.jasig.cas.authentication.handler.PasswordEncoder;
 import org.jasig.cas.authentication.handler.PlainTextPasswordEncoder;
-
-import au.org.ala.cas.AttributeParser;
-import org.pac4j.core.profile.UserProfile;
+import au.org.ala.cas.cache.ExpiringCache;
+import au.org.ala.cas.jdbc.AttributeRows;
+import au.org.ala.cas.writebehind.ProfileUpdateQueue;
 
 /**
  * UserCreatorALA takes user attributes received from Facebook/Google/etc.
@@ -43,30 +51,62 @@ public class UserCreatorALA implements UserCreator {
     @NotNull
     private String userCreatePassword;
 
-    /* TODO: add util userAttributes parser later; the parser will encapsulate and hide
-     *       all the differences among the attribute formats received from Facebook,
-     *       Google, GitHub, LinkedIn, etc.
+    /** The encoded userCreatePassword, it is constant, encoded once. */
+    private volatile String encodedUserCreatePassword;
+
+    /**
+     * The statement (stored procedure) looking up or creating the user and returning its attributes
+     * as key/value rows, (optional); it takes the same parameters as the create sql.
      */
+    private String resolveOrCreateSql;
+
+    /**
+     * The minimal insert (email, firstname, lastname, password) reserving the user, (optional); with the
+     * profileUpdateQueue it replaces the create sql, the rest of the profile is written behind.
+     */
+    private String reserveSql;
+
+    /** The write-behind queue of the profile updates (city, organisation, ..., userid), (optional). */
+    private ProfileUpdateQueue profileUpdateQueue;
+
+    /** The attributeRepository cache, the entry of a created user is invalidated, (optional). */
+    private ExpiringCache<String, ?> attributeCache;
+
+    /** The key (attribute name) column of the resolveOrCreateSql rows. */
+    @NotNull
+    private String keyColumn = "key";
+
+    /** The value (attribute value) column of the resolveOrCreateSql rows. */
+    @NotNull
+    private String valueColumn = "value";
+
     @Override
-    public void createUser(final UserProfile userProfile) {
-	logger.debug("createUser: {}", userProfile);
+    public void createUser(final UserAttributes userAttributes) {
+	logger.debug("createUser: {}", userAttributes);
 
-	final String email     = AttributeParser.lookup("email",     userProfile);
+	final String email     = userAttributes.getEmail();
 	if (email == null) {
 	    return;
 	}
 
-	final String firstname = AttributeParser.lookup("firstname", userProfile);
+	final String firstname = userAttributes.getFirstName();
 	if (firstname == null) {
 	    return;
 	}
 
-	final String lastname  = AttributeParser.lookup("lastname",  userProfile);
+	final String lastname  = userAttributes.getLastName();
 	if (lastname == null) {
 	    return;
 	}
 
-	final String password = this.passwordEncoder.encode(this.userCreatePassword);
+	final String password = this.getEncodedUserCreatePassword();
+
+	if (this.reserveSql != null && !this.reserveSql.isEmpty() && this.profileUpdateQueue != null) {
+	    // invalidated now (a miss read before the user existed) and again once the profile update is written
+	    this.reserveUser(email, firstname, lastname, password);
+	    this.invalidateAttributes(email);
+	    return;
+	}
 
 	final int rows_affected =
 	    this.jdbcTemplate.update(this.sql,
@@ -82,6 +122,103 @@ public class UserCreatorALA implements UserCreator {
 				     "");                              //telephone
 
 	logger.debug("createUser rows_affected: {}", rows_affected);
+	this.invalidateAttributes(email);
+    }
+
+    /**
+     * Drops the cached attributes of the (just created) user, so the next lookup reads the new user.
+     */
+    void invalidateAttributes(final String email) {
+	if (this.attributeCache != null) {
+	    this.attributeCache.invalidate(email);
+	}
+    }
+
+    /**
+     * @return the encoded userCreatePassword, (encoded on the first use, after the properties are set)
+     */
+    String getEncodedUserCreatePassword() {
+	String encoded = this.encodedUserCreatePassword;
+	if (encoded == null) {
+	    encoded = this.passwordEncoder.encode(this.userCreatePassword);
+	    this.encodedUserCreatePassword = encoded;
+	}
+	return encoded;
+    }
+
+    /**
+     * Inserts the user with the minimal (login) columns and queues the update of the rest of the profile.
+     */
+    void reserveUser(final String email, final String firstname, final String lastname, final String password) {
+	final KeyHolder keyHolder = new GeneratedKeyHolder();
+	final int rows_affected = this.jdbcTemplate.update(new PreparedStatementCreator() {
+		public PreparedStatement createPreparedStatement(final Connection connection) throws SQLException {
+		    final PreparedStatement ps = connection.prepareStatement(reserveSql, Statement.RETURN_GENERATED_KEYS);
+		    ps.setString(1, email);
+		    ps.setString(2, firstname);
+		    ps.setString(3, lastname);
+		    ps.setString(4, password);
+		    return ps;
+		}
+	    }, keyHolder);
+
+	final Number userid = keyHolder.getKey();
+	logger.debug("reserveUser rows_affected: {}, userid: {}", rows_affected, userid);
+	if (userid == null) {
+	    logger.warn("no userid generated for {}, the profile defaults are not written", email);
+	    return;
+	}
+
+	this.profileUpdateQueue.enqueue(email, new Object[] {
+		"",                               //city
+		"",                               //organisation
+		"",                               //primaryUserType
+		"",                               //secondaryUserType
+		"N/A",                            //(AUS) state
+		"",                               //telephone
+		userid                            //userid
+	    });
+    }
+
+    @Override
+    public boolean isResolveOrCreateSupported() {
+	return this.resolveOrCreateSql != null && !this.resolveOrCreateSql.isEmpty();
+    }
+
+    @Override
+    public Map<String, Object> resolveOrCreateUser(final UserAttributes userAttributes) {
+	if (!this.isResolveOrCreateSupported()) {
+	    return null;
+	}
+
+	logger.debug("resolveOrCreateUser: {}", userAttributes);
+
+	final String email     = userAttributes.getEmail();
+	final String firstname = userAttributes.getFirstName();
+	final String lastname  = userAttributes.getLastName();
+	if (email == null || firstname == null || lastname == null) {
+	    // the user could not be created (see createUser), leave it to the lookup
+	    return null;
+	}
+
+	final String password = this.getEncodedUserCreatePassword();
+
+	final List<Map<String, Object>> rows =
+	    this.jdbcTemplate.queryForList(this.resolveOrCreateSql,
+					   email,                            //email
+					   firstname,                        //firstname
+					   lastname,                         //lastname
+					   password,                         //password
+					   "",                               //city
+					   "",                               //organisation
+					   "",                               //primaryUserType
+					   "",                               //secondaryUserType
+					   "N/A",                            //(AUS) state
+					   "");                              //telephone
+
+	final Map<String, Object> attributes = AttributeRows.toAttributes(rows, this.keyColumn, this.valueColumn);
+	logger.debug("resolveOrCreateUser attributes: {}", attributes);
+	return attributes;
     }
 
     /**
@@ -91,6 +228,48 @@ public class UserCreatorALA implements UserCreator {
 	this.sql = sql;
     }
 
+    /**
+     * @param resolveOrCreateSql The statement looking up or creating the user and returning its attributes (key/value rows).
+     */
+    public void setResolveOrCreateSql(final String resolveOrCreateSql) {
+	this.resolveOrCreateSql = resolveOrCreateSql;
+    }
+
+    /**
+     * @param reserveSql The minimal insert (email, firstname, lastname, password) reserving the user.
+     */
+    public void setReserveSql(final String reserveSql) {
+	this.reserveSql = reserveSql;
+    }
+
+    /**
+     * @param profileUpdateQueue The write-behind queue of the profile updates of the reserved users.
+     */
+    public void setProfileUpdateQueue(final ProfileUpdateQueue profileUpdateQueue) {
+	this.profileUpdateQueue = profileUpdateQueue;
+    }
+
+    /**
+     * @param attributeCache The attributeRepository cache, (the entry of a created user is invalidated).
+     */
+    public void setAttributeCache(final ExpiringCache<String, ?> attributeCache) {
+	this.attributeCache = attributeCache;
+    }
+
+    /**
+     * @param keyColumn The attribute name column of the resolveOrCreateSql rows.
+     */
+    public void setKeyColumn(final String keyColumn) {
+	this.keyColumn = keyColumn;
+    }
+
+    /**
+     * @param valueColumn The attribute value column of the resolveOrCreateSql rows.
+     */
+    public void setValueColumn(final String valueColumn) {
+	this.valueColumn = valueColumn;
+    }
+
     /**
      * Method to set the datasource and generate a JdbcTemplate.
      *
@@ -110,6 +289,7 @@ public class UserCreatorALA implements UserCreator {
      */
     public final void setPasswordEncoder(final PasswordEncoder passwordEncoder) {
 	this.passwordEncoder = passwordEncoder;
+	this.encodedUserCreatePassword = null;
     }
 
     /**
@@ -118,5 +298,6 @@ public class UserCreatorALA implements UserCreator {
      */
     public void setUserCreatePassword(final String userCreatePassword) {
 	this.userCreatePassword = userCreatePassword;
+	this.encodedUserCreatePassword = null;
     }
 }
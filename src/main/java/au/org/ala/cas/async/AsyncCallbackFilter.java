@@ -0,0 +1,226 @@
+package au.org.ala.cas.async;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.constraints.NotNull;
+import org.jasig.cas.support.pac4j.authentication.handler.support.ALAClientAuthenticationHandler;
+import org.pac4j.core.client.Client;
+import org.pac4j.core.client.Clients;
+import org.pac4j.core.context.J2EContext;
+import org.pac4j.core.context.WebContext;
+import org.pac4j.core.credentials.Credentials;
+import org.pac4j.core.profile.UserProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.org.ala.cas.ProviderProfile;
+
+/**
+ * Servlet 3.0 async processing of the pac4j (OAuth) callbacks: the provider calls of the login
+ * (the token exchange and the user profile, the attribute lookups e.g. the GitHub email) are made
+ * by a bounded executor while the container (Tomcat) thread is released; when the profile arrives
+ * the request is dispatched (ASYNC) back to /login, the webflow resumes and the
+ * {@link ALAClientAuthenticationHandler} takes the prefetched profile from the request attribute.
+ *
+ * When all the ioThreads are busy and the queue is full the profile is fetched by the container
+ * thread (the same as without the filter); a provider not responding within asyncTimeout ms fails
+ * the login. The filter and the cas servlet (and the filters in front of it) have to be
+ * async-supported, see web.xml.
+ *
+ * NOTE: the timeout fails the login but it does not free the ioThread: the cancel interrupts it,
+ * and a blocking socket read (the pac4j/scribe HttpURLConnection, the {@link au.org.ala.cas.ProviderHttpClient})
+ * ignores the interrupt, so the thread stays busy until the provider call returns or hits its own
+ * timeout (the requestTimeout of the ProviderHttpClient, the connect/read timeouts of the pac4j
+ * clients). A hung provider therefore holds up to ioThreads threads (the further callbacks
+ * queue, then run on the request threads); keep the provider timeouts below asyncTimeout.
+ */
+public class AsyncCallbackFilter implements Filter {
+
+    /** The request attribute of the prefetched profile (Future of {@link ProviderProfile}). */
+    public static final String PROFILE_ATTRIBUTE = AsyncCallbackFilter.class.getName() + ".profile";
+
+    /** Log instance. */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @NotNull
+    private Clients clients;
+
+    @NotNull
+    private ALAClientAuthenticationHandler authenticationHandler;
+
+    /** false: the callbacks are processed by the container thread. */
+    private boolean enabled = false;
+
+    /** Max number of the concurrent provider calls. */
+    private int ioThreads = 50;
+
+    /** Max number of the callbacks waiting for an ioThread. */
+    private int queueSize = 100;
+
+    /** Timeout (ms) of the async callback processing. */
+    private long asyncTimeout = 30000;
+
+    private ThreadPoolExecutor executor;
+
+    private final AtomicLong asyncCallbacks = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * Creates the executor; called by spring (init-method).
+     */
+    public void init() {
+	this.executor = new ThreadPoolExecutor(this.ioThreads, this.ioThreads, 60, TimeUnit.SECONDS,
+					       new ArrayBlockingQueue<Runnable>(this.queueSize),
+					       new ThreadPoolExecutor.CallerRunsPolicy());
+	this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stops the executor; called by spring (destroy-method).
+     */
+    public void destroy() {
+	if (this.executor != null) {
+	    this.executor.shutdownNow();
+	}
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) {
+	// NOTE: configured by spring (DelegatingFilterProxy)
+    }
+
+    @Override
+    public void doFilter(final ServletRequest req, final ServletResponse res, final FilterChain chain)
+	throws IOException, ServletException {
+
+	final HttpServletRequest request = (HttpServletRequest) req;
+	final HttpServletResponse response = (HttpServletResponse) res;
+	final Credentials credentials =
+	    (this.enabled && request.getDispatcherType() == DispatcherType.REQUEST && request.isAsyncSupported()
+	     && request.getAttribute(PROFILE_ATTRIBUTE) == null) ? this.getCredentials(request, response) : null;
+	if (credentials == null) {
+	    chain.doFilter(request, response);
+	    return;
+	}
+
+	final WebContext webContext = new J2EContext(request, response);
+	final AsyncContext asyncContext = request.startAsync(request, response);
+	asyncContext.setTimeout(this.asyncTimeout);
+
+	final AtomicBoolean dispatched = new AtomicBoolean();
+	final FutureTask<ProviderProfile> prefetch = new FutureTask<ProviderProfile>(new Callable<ProviderProfile>() {
+		public ProviderProfile call() throws Exception {
+		    return authenticationHandler.fetchProfile(credentials, webContext);
+		}
+	    }) {
+		@Override
+		protected void done() {
+		    // resume the webflow, (once: the timeout cancels the prefetch)
+		    if (dispatched.compareAndSet(false, true)) {
+			try {
+			    asyncContext.dispatch();
+			} catch (IllegalStateException e) {
+			    // the request is gone already (e.g. the client disconnected)
+			    logger.debug("{} callback not resumed: {}", credentials.getClientName(), e.getMessage());
+			}
+		    }
+		}
+	    };
+
+	asyncContext.addListener(new AsyncListener() {
+		public void onTimeout(final AsyncEvent event) {
+		    timeouts.incrementAndGet();
+		    logger.warn("{} callback timed out after {} ms", credentials.getClientName(), asyncTimeout);
+		    // NOTE: a queued prefetch never runs; a running one is interrupted, which does not stop
+		    //       its socket I/O, its ioThread is busy until the provider call times out itself
+		    prefetch.cancel(true);
+		}
+
+		public void onComplete(final AsyncEvent event) {
+		}
+
+		public void onError(final AsyncEvent event) {
+		    prefetch.cancel(true);
+		}
+
+		public void onStartAsync(final AsyncEvent event) {
+		}
+	    });
+
+	request.setAttribute(PROFILE_ATTRIBUTE, prefetch);
+	this.asyncCallbacks.incrementAndGet();
+	this.executor.execute(prefetch);
+    }
+
+    /**
+     * @return the pac4j credentials of the callback request, or null if it is not a (valid) callback
+     */
+    private Credentials getCredentials(final HttpServletRequest request, final HttpServletResponse response) {
+	final String clientName = request.getParameter(this.clients.getClientNameParameter());
+	if (clientName == null || clientName.isEmpty()) {
+	    return null;
+	}
+
+	try {
+	    // NOTE: no provider call, the credentials are read from the request (e.g. the OAuth code)
+	    @SuppressWarnings("unchecked")
+	    final Client<Credentials, UserProfile> client = this.clients.findClient(clientName);
+	    return client.getCredentials(new J2EContext(request, response));
+
+	} catch (Exception e) {
+	    // left to the webflow (ClientAction)
+	    logger.debug("no {} credentials: {}", clientName, e.getMessage());
+	    return null;
+	}
+    }
+
+    public long getAsyncCallbacks() {
+	return this.asyncCallbacks.get();
+    }
+
+    public long getTimeouts() {
+	return this.timeouts.get();
+    }
+
+    public void setClients(final Clients clients) {
+	this.clients = clients;
+    }
+
+    public void setAuthenticationHandler(final ALAClientAuthenticationHandler authenticationHandler) {
+	this.authenticationHandler = authenticationHandler;
+    }
+
+    public void setEnabled(final boolean enabled) {
+	this.enabled = enabled;
+    }
+
+    public void setIoThreads(final int ioThreads) {
+	this.ioThreads = ioThreads;
+    }
+
+    public void setQueueSize(final int queueSize) {
+	this.queueSize = queueSize;
+    }
+
+    public void setAsyncTimeout(final long asyncTimeout) {
+	this.asyncTimeout = asyncTimeout;
+    }
+}
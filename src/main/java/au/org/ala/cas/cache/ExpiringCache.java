@@ -0,0 +1,189 @@
+package au.org.ala.cas.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simple, bounded (LRU) in-memory cache with per entry expiry (time to live).
+ *
+ * The expired entries are not removed on lookup, they are kept (until evicted by a newer
+ * entry) so the caller can still {@link #peek} them, e.g. to revalidate the stale value
+ * with a conditional (If-None-Match) request. The hits, misses, evictions and the loads
+ * (the time the caller spent loading the missing values, see {@link #recordLoad}) are
+ * counted and reported by the {@link ExpiringCacheMonitor}, as are the expired values the
+ * caller served instead of a fresh one (see {@link #recordStaleServe}).
+ */
+public class ExpiringCache<K, V> {
+
+    private static final class Entry<V> {
+	final V value;
+	final long expires;
+
+	Entry(final V value, final long expires) {
+	    this.value = value;
+	    this.expires = expires;
+	}
+    }
+
+    /** Max number of entries. */
+    private int maxSize = 10000;
+
+    /** Time to live (ms) of an entry. */
+    private long timeToLive = 60 * 60 * 1000;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong loads = new AtomicLong();
+
+    private final AtomicLong loadTime = new AtomicLong();
+
+    private final AtomicLong staleServes = new AtomicLong();
+
+    /** NOTE: access ordered, guarded by this. */
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>(256, 0.75f, true) {
+	    private static final long serialVersionUID = 1L;
+
+	    @Override
+	    protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+		if (size() > ExpiringCache.this.maxSize) {
+		    ExpiringCache.this.evictions.incrementAndGet();
+		    return true;
+		}
+		return false;
+	    }
+	};
+
+    /**
+     * @return the cached value, or null if there is no (unexpired) value for the key
+     */
+    public V get(final K key) {
+	final Entry<V> entry;
+	synchronized (this) {
+	    entry = this.entries.get(key);
+	}
+
+	if (entry == null || entry.expires < System.currentTimeMillis()) {
+	    this.misses.incrementAndGet();
+	    return null;
+	}
+
+	this.hits.incrementAndGet();
+	return entry.value;
+    }
+
+    /**
+     * @return the cached value (expired or not), or null if there is no value for the key; not counted as hit/miss
+     */
+    public V peek(final K key) {
+	final Entry<V> entry;
+	synchronized (this) {
+	    entry = this.entries.get(key);
+	}
+	return (entry != null) ? entry.value : null;
+    }
+
+    /**
+     * @param maxStaleness how long (ms) past its expiry the value is acceptable
+     * @return the cached value (expired at most maxStaleness ago), or null; not counted as hit/miss
+     */
+    public V peek(final K key, final long maxStaleness) {
+	final Entry<V> entry;
+	synchronized (this) {
+	    entry = this.entries.get(key);
+	}
+	return (entry != null && entry.expires + maxStaleness >= System.currentTimeMillis()) ? entry.value : null;
+    }
+
+    /**
+     * Caches the value, replacing the previous (if any) value and restarting the expiry.
+     */
+    public void put(final K key, final V value) {
+	final Entry<V> entry = new Entry<V>(value, System.currentTimeMillis() + this.timeToLive);
+	synchronized (this) {
+	    this.entries.put(key, entry);
+	}
+    }
+
+    /**
+     * Counts a load of a missing value (e.g. the database query), for the load time statistics.
+     *
+     * @param nanos the load time (ns)
+     */
+    public void recordLoad(final long nanos) {
+	this.loads.incrementAndGet();
+	this.loadTime.addAndGet(nanos);
+    }
+
+    /**
+     * Counts an expired value served (e.g. the database is down) instead of a fresh one.
+     */
+    public void recordStaleServe() {
+	this.staleServes.incrementAndGet();
+    }
+
+    public void invalidate(final K key) {
+	synchronized (this) {
+	    this.entries.remove(key);
+	}
+    }
+
+    public void invalidateAll() {
+	synchronized (this) {
+	    this.entries.clear();
+	}
+    }
+
+    public synchronized int size() {
+	return this.entries.size();
+    }
+
+    public int getMaxSize() {
+	return this.maxSize;
+    }
+
+    public long getHits() {
+	return this.hits.get();
+    }
+
+    public long getMisses() {
+	return this.misses.get();
+    }
+
+    public long getEvictions() {
+	return this.evictions.get();
+    }
+
+    public long getStaleServes() {
+	return this.staleServes.get();
+    }
+
+    public long getLoads() {
+	return this.loads.get();
+    }
+
+    /**
+     * @return the total time (ns) of the recorded loads
+     */
+    public long getLoadTime() {
+	return this.loadTime.get();
+    }
+
+    /**
+     * @param maxSize The max number of entries, the least recently used entries are evicted first.
+     */
+    public void setMaxSize(final int maxSize) {
+	this.maxSize = maxSize;
+    }
+
+    /**
+     * @param timeToLive The time to live (seconds) of an entry.
+     */
+    public void setTimeToLive(final long timeToLive) {
+	this.timeToLive = timeToLive * 1000;
+    }
+}
@@ -0,0 +1,41 @@
+package au.org.ala.cas.cache;
+
+import java.util.Map;
+import javax.validation.constraints.NotNull;
+import org.jasig.cas.monitor.AbstractCacheMonitor;
+import org.jasig.cas.monitor.CacheStatistics;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Reports the statistics (size, evictions, hits, misses) of the {@link ExpiringCache}s
+ * on the CAS health (/status) page.
+ *
+ * NOTE: the caches are LRU, i.e. a full cache and evictions are the normal steady state,
+ * so the statistics are informative only; they never turn the CAS node status to WARN
+ * (the /status HTTP response code is the status code).
+ */
+public class ExpiringCacheMonitor extends AbstractCacheMonitor {
+
+    /** The monitored caches by name. */
+    @NotNull
+    private Map<String, ExpiringCache<?, ?>> caches;
+
+    @Override
+    protected CacheStatistics[] getStatistics() {
+	final CacheStatistics[] statistics = new CacheStatistics[this.caches.size()];
+	int i = 0;
+	for (final Map.Entry<String, ExpiringCache<?, ?>> cache : this.caches.entrySet()) {
+	    statistics[i++] = new ExpiringCacheStatistics(cache.getKey(), cache.getValue());
+	}
+	return statistics;
+    }
+
+    @Override
+    protected StatusCode status(final CacheStatistics statistics) {
+	return StatusCode.OK;
+    }
+
+    public void setCaches(final Map<String, ExpiringCache<?, ?>> caches) {
+	this.caches = caches;
+    }
+}
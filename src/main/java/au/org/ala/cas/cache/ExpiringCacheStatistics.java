@@ -0,0 +1,120 @@
+package au.org.ala.cas.cache;
+
+import java.util.Locale;
+import org.jasig.cas.monitor.CacheStatistics;
+
+/**
+ * {@link CacheStatistics} snapshot of an {@link ExpiringCache}, (the size is a number of entries;
+ * the load and stale serve statistics are reported only if the cache user records them).
+ */
+public class ExpiringCacheStatistics implements CacheStatistics {
+
+    private final String name;
+
+    private final long size;
+
+    private final long capacity;
+
+    private final long evictions;
+
+    private final long hits;
+
+    private final long misses;
+
+    private final long loads;
+
+    private final long loadTime;
+
+    private final long staleServes;
+
+    public ExpiringCacheStatistics(final String name, final ExpiringCache<?, ?> cache) {
+	this.name = name;
+	this.size = cache.size();
+	this.capacity = cache.getMaxSize();
+	this.evictions = cache.getEvictions();
+	this.hits = cache.getHits();
+	this.misses = cache.getMisses();
+	this.loads = cache.getLoads();
+	this.loadTime = cache.getLoadTime();
+	this.staleServes = cache.getStaleServes();
+    }
+
+    @Override
+    public long getSize() {
+	return this.size;
+    }
+
+    @Override
+    public long getCapacity() {
+	return this.capacity;
+    }
+
+    @Override
+    public long getEvictions() {
+	return this.evictions;
+    }
+
+    public long getHits() {
+	return this.hits;
+    }
+
+    public long getMisses() {
+	return this.misses;
+    }
+
+    /**
+     * @return the hits in percent of the lookups
+     */
+    public int getHitRatio() {
+	final long lookups = this.hits + this.misses;
+	return (lookups == 0) ? 0 : (int)(this.hits * 100 / lookups);
+    }
+
+    public long getLoads() {
+	return this.loads;
+    }
+
+    public long getStaleServes() {
+	return this.staleServes;
+    }
+
+    /**
+     * @return the average load time (ms)
+     */
+    public double getAverageLoadTime() {
+	return (this.loads == 0) ? 0 : this.loadTime / 1000000.0 / this.loads;
+    }
+
+    @Override
+    public int getPercentFree() {
+	if (this.capacity == 0) {
+	    return 0;
+	}
+	return (int)((this.capacity - this.size) * 100 / this.capacity);
+    }
+
+    @Override
+    public String getName() {
+	return this.name;
+    }
+
+    @Override
+    public void toString(final StringBuilder builder) {
+	if (this.name != null) {
+	    builder.append(this.name).append(':');
+	}
+	builder.append(this.size).append(" entries, ")
+	    .append(getPercentFree()).append("% free, ")
+	    .append(this.evictions).append(" evictions, ")
+	    .append(this.hits).append(" hits, ")
+	    .append(this.misses).append(" misses, ")
+	    .append(getHitRatio()).append("% hit ratio");
+	if (this.loads > 0) {
+	    builder.append(", ").append(this.loads).append(" loads, ")
+		.append(String.format(Locale.ENGLISH, "%.2f", getAverageLoadTime())).append(" ms avg load");
+	}
+	if (this.staleServes > 0) {
+	    builder.append(", ").append(this.staleServes).append(" stale serves");
+	}
+    }
+}
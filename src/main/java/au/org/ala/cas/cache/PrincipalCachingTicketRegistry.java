@@ -0,0 +1,88 @@
+package au.org.ala.cas.cache;
+
+import java.util.Collection;
+import java.util.List;
+import javax.validation.constraints.NotNull;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.monitor.TicketRegistryState;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+
+/**
+ * TicketRegistry decorator filling the ticketPrincipalCache (principal by TGT id) when a (root)
+ * TGT is added, i.e. at the login, so the service logins of the TGT (generateServiceTicketAction,
+ * the ALA-Auth cookie) do not read the TGT back from the registry; the entry is dropped when the
+ * TGT is deleted.
+ *
+ * NOTE: with a distributed registry the TGTs created on the other nodes are not cached here,
+ * generateServiceTicketAction still reads those from the registry (and caches them).
+ */
+public class PrincipalCachingTicketRegistry implements TicketRegistry, TicketRegistryState {
+
+    /** The decorated registry. */
+    @NotNull
+    private TicketRegistry ticketRegistry;
+
+    @NotNull
+    private ExpiringCache<String, Principal> ticketPrincipalCache;
+
+    @Override
+    public void addTicket(final Ticket ticket) {
+	this.ticketRegistry.addTicket(ticket);
+
+	if (ticket instanceof TicketGrantingTicket && ((TicketGrantingTicket) ticket).isRoot()) {
+	    // the principal of the last chained authentication, as in generateServiceTicketAction
+	    final List<Authentication> authentications = ((TicketGrantingTicket) ticket).getChainedAuthentications();
+	    this.ticketPrincipalCache.put(ticket.getId(), authentications.get(authentications.size() - 1).getPrincipal());
+	}
+    }
+
+    @Override
+    public <T extends Ticket> T getTicket(final String ticketId, final Class<? extends Ticket> clazz) {
+	return this.ticketRegistry.getTicket(ticketId, clazz);
+    }
+
+    @Override
+    public Ticket getTicket(final String ticketId) {
+	return this.ticketRegistry.getTicket(ticketId);
+    }
+
+    @Override
+    public boolean deleteTicket(final String ticketId) {
+	this.ticketPrincipalCache.invalidate(ticketId);
+	return this.ticketRegistry.deleteTicket(ticketId);
+    }
+
+    @Override
+    public Collection<Ticket> getTickets() {
+	return this.ticketRegistry.getTickets();
+    }
+
+    @Override
+    public int sessionCount() {
+	return this.getTicketRegistryState().sessionCount();
+    }
+
+    @Override
+    public int serviceTicketCount() {
+	return this.getTicketRegistryState().serviceTicketCount();
+    }
+
+    private TicketRegistryState getTicketRegistryState() {
+	if (!(this.ticketRegistry instanceof TicketRegistryState)) {
+	    // see SessionMonitor
+	    throw new UnsupportedOperationException(this.ticketRegistry.getClass().getName() + " does not support the session counts");
+	}
+	return (TicketRegistryState) this.ticketRegistry;
+    }
+
+    public void setTicketRegistry(final TicketRegistry ticketRegistry) {
+	this.ticketRegistry = ticketRegistry;
+    }
+
+    public void setTicketPrincipalCache(final ExpiringCache<String, Principal> ticketPrincipalCache) {
+	this.ticketPrincipalCache = ticketPrincipalCache;
+    }
+}
@@ -0,0 +1,239 @@
+package au.org.ala.cas.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Micro-batching front end of a batch lookup: the concurrent single key lookups arriving
+ * within the batch window are coalesced into one batch lookup (of up to maxBatchSize keys),
+ * e.g. one IN list query instead of one query per key.
+ *
+ * The first lookup of a batch waits at most window ms for the others to join; the batches
+ * are loaded by a bounded pool (batchThreads), when all of them are busy the dispatcher
+ * loads the batch itself, i.e. the dispatching slows down to the load rate.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class MicroBatcher<K, V> implements Runnable {
+
+    /**
+     * The batch lookup.
+     */
+    public interface BatchLoader<K, V> {
+	/**
+	 * @return the values by key, (a key without a value is missing)
+	 */
+	Map<K, V> load(Collection<K> keys) throws Exception;
+    }
+
+    /**
+     * A pending single key lookup.
+     */
+    private static final class Request<K, V> {
+	final K key;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private V value;
+	private Throwable error;
+
+	Request(final K key) {
+	    this.key = key;
+	}
+
+	void complete(final V value, final Throwable error) {
+	    this.value = value;
+	    this.error = error;
+	    this.done.countDown();
+	}
+
+	V get() throws Exception {
+	    this.done.await();
+	    if (this.error instanceof Exception) {
+		throw (Exception) this.error;
+	    }
+	    if (this.error instanceof Error) {
+		throw (Error) this.error;
+	    }
+	    return this.value;
+	}
+    }
+
+    private final String name;
+
+    private final BatchLoader<K, V> loader;
+
+    /** The time (ns) the first lookup of a batch waits for the others. */
+    private final long window;
+
+    /** Max number of the keys of a batch. */
+    private final int maxBatchSize;
+
+    private final BlockingQueue<Request<K, V>> queue = new LinkedBlockingQueue<Request<K, V>>();
+
+    private final ThreadPoolExecutor executor;
+
+    private final Thread dispatcher;
+
+    private volatile boolean running;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * @param name the name (of the dispatcher thread)
+     * @param loader the batch lookup
+     * @param window the time (ms) the first lookup of a batch waits for the others
+     * @param maxBatchSize max number of the keys of a batch
+     * @param batchThreads max number of the concurrent batch lookups
+     */
+    public MicroBatcher(final String name, final BatchLoader<K, V> loader, final long window,
+			final int maxBatchSize, final int batchThreads) {
+	this.name = name;
+	this.loader = loader;
+	this.window = TimeUnit.MILLISECONDS.toNanos(window);
+	this.maxBatchSize = maxBatchSize;
+	this.executor = new ThreadPoolExecutor(batchThreads, batchThreads, 60, TimeUnit.SECONDS,
+					       new SynchronousQueue<Runnable>(),
+					       new ThreadPoolExecutor.CallerRunsPolicy());
+	this.executor.allowCoreThreadTimeOut(true);
+	this.dispatcher = new Thread(this, name);
+	this.dispatcher.setDaemon(true);
+    }
+
+    /**
+     * Starts the dispatcher thread.
+     */
+    public void start() {
+	this.running = true;
+	this.dispatcher.start();
+    }
+
+    /**
+     * Stops the dispatcher, the pending lookups are still loaded.
+     */
+    public void shutdown() throws InterruptedException {
+	this.running = false;
+	this.dispatcher.interrupt();
+	this.dispatcher.join(10000);
+	this.executor.shutdown();
+    }
+
+    /**
+     * Looks up the key as a part of the next batch.
+     *
+     * @param key the key
+     * @return the value, or null if the batch lookup did not return a value for the key
+     * @throws Exception the exception thrown by the batch lookup
+     */
+    public V get(final K key) throws Exception {
+	if (!this.running) {
+	    throw new IllegalStateException(this.name + " is not running");
+	}
+
+	final Request<K, V> request = new Request<K, V>(key);
+	this.requests.incrementAndGet();
+	this.queue.add(request);
+	if (!this.running && this.queue.remove(request)) {
+	    // NOTE: stopped in the meantime, (the dispatcher may be gone already)
+	    throw new IllegalStateException(this.name + " is not running");
+	}
+	return request.get();
+    }
+
+    @Override
+    public void run() {
+	while (this.running || !this.queue.isEmpty()) {
+	    final Request<K, V> first;
+	    try {
+		first = this.running ? this.queue.take() : this.queue.poll();
+	    } catch (InterruptedException e) {
+		// shutdown, the pending lookups are dispatched without waiting
+		continue;
+	    }
+	    if (first == null) {
+		continue;
+	    }
+
+	    final List<Request<K, V>> batch = new ArrayList<Request<K, V>>();
+	    batch.add(first);
+	    final long deadline = System.nanoTime() + this.window;
+	    try {
+		while (batch.size() < this.maxBatchSize) {
+		    final long remaining = deadline - System.nanoTime();
+		    final Request<K, V> next = (remaining > 0 && this.running)
+			? this.queue.poll(remaining, TimeUnit.NANOSECONDS) : this.queue.poll();
+		    if (next == null) {
+			break;
+		    }
+		    batch.add(next);
+		}
+	    } catch (InterruptedException e) {
+		// shutdown, the batch is dispatched as it is
+	    }
+
+	    this.dispatch(batch);
+	}
+    }
+
+    private void dispatch(final List<Request<K, V>> batch) {
+	this.batches.incrementAndGet();
+	final Runnable load = new Runnable() {
+		public void run() {
+		    load(batch);
+		}
+	    };
+
+	if (this.executor.isShutdown()) {
+	    load.run();
+	} else {
+	    this.executor.execute(load);
+	}
+    }
+
+    void load(final List<Request<K, V>> batch) {
+	final Set<K> keys = new LinkedHashSet<K>();
+	for (final Request<K, V> request : batch) {
+	    keys.add(request.key);
+	}
+
+	try {
+	    final Map<K, V> values = this.loader.load(keys);
+	    for (final Request<K, V> request : batch) {
+		request.complete(values.get(request.key), null);
+	    }
+
+	} catch (Throwable e) {
+	    for (final Request<K, V> request : batch) {
+		request.complete(null, e);
+	    }
+	}
+    }
+
+    public long getRequests() {
+	return this.requests.get();
+    }
+
+    public long getBatches() {
+	return this.batches.get();
+    }
+
+    @Override
+    public String toString() {
+	final long batches = this.batches.get();
+	return this.name + ": " + this.requests.get() + " lookups in " + batches + " batches"
+	    + ((batches > 0) ? String.format(Locale.ENGLISH, " (%.1f per batch)", (double) this.requests.get() / batches) : "");
+    }
+}
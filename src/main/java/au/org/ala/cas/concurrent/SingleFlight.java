@@ -0,0 +1,65 @@
+package au.org.ala.cas.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * In-process "single flight" de-duplication of concurrent calls: while a call for a key
+ * is in flight, the other callers with the same key do not make their own call, they
+ * wait for the in flight one and share its result (or its exception).
+ *
+ * The call is made by the first caller's thread; the key is removed once the call
+ * completes, i.e. nothing is cached, a later call for the key is a new call.
+ *
+ * @param <K> the key type
+ * @param <V> the result type
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> calls = new ConcurrentHashMap<K, FutureTask<V>>();
+
+    /**
+     * Makes the call, or joins the call for the key already in flight.
+     *
+     * @param key the key of the call
+     * @param callable the call
+     * @return the result of the (shared) call
+     * @throws Exception the exception thrown by the (shared) call
+     */
+    public V execute(final K key, final Callable<V> callable) throws Exception {
+	final FutureTask<V> call = new FutureTask<V>(callable);
+	FutureTask<V> inFlight = this.calls.putIfAbsent(key, call);
+	if (inFlight == null) {
+	    inFlight = call;
+	    try {
+		call.run();
+	    } finally {
+		this.calls.remove(key, call);
+	    }
+	}
+
+	try {
+	    return inFlight.get();
+
+	} catch (ExecutionException e) {
+	    final Throwable cause = e.getCause();
+	    if (cause instanceof Exception) {
+		throw (Exception) cause;
+	    }
+	    if (cause instanceof Error) {
+		throw (Error) cause;
+	    }
+	    throw e;
+	}
+    }
+
+    /**
+     * @return the number of the calls in flight
+     */
+    public int size() {
+	return this.calls.size();
+    }
+}
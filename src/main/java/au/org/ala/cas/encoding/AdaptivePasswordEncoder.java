@@ -0,0 +1,202 @@
+package au.org.ala.cas.encoding;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.validation.constraints.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.jasig.cas.authentication.handler.PasswordEncoder;
+
+/**
+ * Adaptive (PBKDF2) password hashing next to the legacy salted digest of {@link MyPasswordEncoder}.
+ *
+ * The PBKDF2 hashes are versioned and self describing: <code>{PBKDF2}iterations$salt$hash</code>
+ * (salt and hash base64 encoded, a random salt per password), so the iteration count can be
+ * raised at any time without breaking the stored hashes. Any other stored value is a legacy
+ * hash, verified with the legacy encoder, and reported by {@link #needsRehash(String)}.
+ *
+ * The iteration count is either fixed (iterations), or calibrated at startup (init-method) so
+ * that one hash takes targetTime ms (p99 of the calibration samples) on the current hardware,
+ * but never less than minIterations.
+ */
+public class AdaptivePasswordEncoder {
+
+    /** Log instance. */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    static final String PREFIX = "{PBKDF2}";
+
+    static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+
+    private static final int SALT_LENGTH = 16;
+
+    private static final int HASH_LENGTH = 32;
+
+    private static final int CALIBRATION_ITERATIONS = 5000;
+
+    private static final int CALIBRATION_SAMPLES = 50;
+
+    /** The calibration warm up time (ms). */
+    private static final long CALIBRATION_WARM_UP = 1000;
+
+    /** The encoder of the legacy hashes. */
+    @NotNull
+    private PasswordEncoder legacyPasswordEncoder;
+
+    /** The fixed iteration count, 0: calibrate. */
+    private int iterations;
+
+    /** The calibration target (ms) of one hash. */
+    private long targetTime = 100;
+
+    /** The lowest acceptable iteration count. */
+    private int minIterations = 10000;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Calibrates the iteration count (if not fixed); called by spring (init-method).
+     */
+    public void init() throws GeneralSecurityException {
+	SecretKeyFactory.getInstance(ALGORITHM);
+	if (this.iterations <= 0) {
+	    this.iterations = this.calibrate();
+	}
+	logger.info("{} iterations: {}", ALGORITHM, this.iterations);
+    }
+
+    /**
+     * @return the iteration count of targetTime ms (p99) per hash, at least minIterations
+     */
+    int calibrate() throws GeneralSecurityException {
+	final char[] password = "calibration".toCharArray();
+	final byte[] salt = new byte[SALT_LENGTH];
+
+	// warm up (until the JIT compiled the HMAC loop), then measure
+	final long warmUpEnd = System.nanoTime() + CALIBRATION_WARM_UP * 1000000L;
+	while (System.nanoTime() < warmUpEnd) {
+	    pbkdf2(password, salt, CALIBRATION_ITERATIONS);
+	}
+
+	final long[] samples = new long[CALIBRATION_SAMPLES];
+	for (int i = 0; i < CALIBRATION_SAMPLES; i++) {
+	    final long start = System.nanoTime();
+	    pbkdf2(password, salt, CALIBRATION_ITERATIONS);
+	    samples[i] = System.nanoTime() - start;
+	}
+	Arrays.sort(samples);
+	final long p99 = Math.max(1, samples[(int) Math.ceil(CALIBRATION_SAMPLES * 0.99) - 1]);
+
+	final long calibrated = CALIBRATION_ITERATIONS * this.targetTime * 1000000L / p99;
+	logger.debug("calibration: {} iterations p99: {} ns, target: {} ms -> {} iterations",
+		     CALIBRATION_ITERATIONS, p99, this.targetTime, calibrated);
+	return (int) Math.max(this.minIterations, Math.min(Integer.MAX_VALUE, calibrated));
+    }
+
+    /**
+     * @param password the clear text password
+     * @return the PBKDF2 hash (with a new random salt, the current iteration count)
+     */
+    public String hash(final String password) {
+	final byte[] salt = new byte[SALT_LENGTH];
+	this.random.nextBytes(salt);
+
+	final int iterations = this.iterations;
+	return PREFIX + iterations
+	    + "$" + new String(Base64.encode(salt), MyPasswordEncoder.US_ASCII)
+	    + "$" + new String(Base64.encode(pbkdf2(password.toCharArray(), salt, iterations)), MyPasswordEncoder.US_ASCII);
+    }
+
+    /**
+     * @param password the clear text password
+     * @param stored the stored (PBKDF2 or legacy) hash
+     * @return true if the password matches the stored hash
+     */
+    public boolean matches(final String password, final String stored) {
+	if (password == null || stored == null) {
+	    return false;
+	}
+
+	if (!stored.startsWith(PREFIX)) {
+	    final String legacy = this.legacyPasswordEncoder.encode(password);
+	    return MessageDigest.isEqual(legacy.getBytes(MyPasswordEncoder.UTF_8), stored.getBytes(MyPasswordEncoder.UTF_8));
+	}
+
+	final String[] parts = stored.substring(PREFIX.length()).split("\\$");
+	if (parts.length != 3) {
+	    logger.warn("malformed {} hash", ALGORITHM);
+	    return false;
+	}
+
+	try {
+	    final int iterations = Integer.parseInt(parts[0]);
+	    final byte[] salt = Base64.decode(parts[1].getBytes(MyPasswordEncoder.US_ASCII));
+	    final byte[] hash = Base64.decode(parts[2].getBytes(MyPasswordEncoder.US_ASCII));
+	    return MessageDigest.isEqual(hash, pbkdf2(password.toCharArray(), salt, iterations, hash.length * 8));
+
+	} catch (RuntimeException e) {
+	    logger.warn("malformed {} hash: {}", ALGORITHM, e.getMessage());
+	    return false;
+	}
+    }
+
+    /**
+     * NOTE: the calibrated iteration count varies a bit between the restarts, so only a hash with
+     *       less than half of the current iterations is upgraded, (no rehash churn).
+     *
+     * @param stored the stored hash of a matching password
+     * @return true if the stored hash is a legacy one or uses less than half of the current iterations
+     */
+    public boolean needsRehash(final String stored) {
+	if (stored == null || !stored.startsWith(PREFIX)) {
+	    return true;
+	}
+
+	final int end = stored.indexOf('$', PREFIX.length());
+	try {
+	    return end < 0 || Integer.parseInt(stored.substring(PREFIX.length(), end)) < this.iterations / 2;
+	} catch (NumberFormatException e) {
+	    return true;
+	}
+    }
+
+    static byte[] pbkdf2(final char[] password, final byte[] salt, final int iterations) {
+	return pbkdf2(password, salt, iterations, HASH_LENGTH * 8);
+    }
+
+    static byte[] pbkdf2(final char[] password, final byte[] salt, final int iterations, final int keyLength) {
+	final PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, keyLength);
+	try {
+	    return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+	} catch (GeneralSecurityException e) {
+	    throw new IllegalStateException(ALGORITHM + " not supported!", e);
+	} finally {
+	    spec.clearPassword();
+	}
+    }
+
+    public int getIterations() {
+	return this.iterations;
+    }
+
+    public void setIterations(final int iterations) {
+	this.iterations = iterations;
+    }
+
+    public void setTargetTime(final long targetTime) {
+	this.targetTime = targetTime;
+    }
+
+    public void setMinIterations(final int minIterations) {
+	this.minIterations = minIterations;
+    }
+
+    public void setLegacyPasswordEncoder(final PasswordEncoder legacyPasswordEncoder) {
+	this.legacyPasswordEncoder = legacyPasswordEncoder;
+    }
+}
@@ -1,5 +1,8 @@
 package au.org.ala.cas.encoding;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 
 /**
  * Base64 encoder which is a reduced version of Robert Harder's public domain implementation.
@@ -46,6 +49,9 @@ public final class Base64 {
     /** Maximum line length (76) of Base64 output. */
     private final static int MAX_LINE_LENGTH = 76;
 
+    /** The number of the 3 to 4 byte blocks per line (of MAX_LINE_LENGTH). */
+    private final static int BLOCKS_PER_LINE = MAX_LINE_LENGTH / 4;
+
 
     /** The equals sign (=) as a byte. */
     private final static byte EQUALS_SIGN = (byte)'=';
@@ -250,6 +256,143 @@ public final class Base64 {
         return encodeBytesToBytes(bytes, 0, bytes.length, NO_OPTIONS);
     }
 
+    /**
+     * @param bytes the data to encode
+     * @param options the dialect (URL_SAFE, ORDERED) and DO_BREAK_LINES options
+     * @return the Base64-encoded data
+     */
+    public static byte[] encode(byte[] bytes, int options) {
+        return encodeBytesToBytes(bytes, 0, bytes.length, options);
+    }
+
+    /**
+     * @param bytes the Base64-encoded data
+     * @param options the dialect (URL_SAFE, ORDERED) options
+     * @return the decoded data
+     */
+    public static byte[] decode(byte[] bytes, int options) {
+        return decode(bytes, 0, bytes.length, options);
+    }
+
+    /**
+     * @param len the length of the data to encode
+     * @param options the DO_BREAK_LINES option is taken into account
+     * @return the exact length of the Base64-encoded data
+     */
+    public static int encodedLength( int len, int options ) {
+        int blocks = len / 3;
+        int encLen = ( blocks + ( len % 3 > 0 ? 1 : 0 ) ) * 4;
+        if( ( options & DO_BREAK_LINES ) > 0 ){
+            encLen += blocks / BLOCKS_PER_LINE;   // a new line after every full line of blocks
+        }
+        return encLen;
+    }
+
+    /**
+     * @param len the length of the Base64-encoded data
+     * @return the upper limit of the decoded data length (the exact length depends on the padding and white space)
+     */
+    public static int decodedMaxLength( int len ) {
+        return ( len / 4 ) * 3 + ( len % 4 ) * 3 / 4;
+    }
+
+    /**
+     * Encodes into the caller supplied array, see {@link #encodedLength(int, int)}.
+     *
+     * @param source the data to encode
+     * @param off the offset of the data
+     * @param len the length of the data
+     * @param destination the array receiving the encoded data
+     * @param destOffset the offset in the destination
+     * @param options the dialect (URL_SAFE, ORDERED) and DO_BREAK_LINES options
+     * @return the number of bytes written to the destination
+     * @throws IllegalArgumentException if the destination is too small
+     */
+    public static int encode( byte[] source, int off, int len, byte[] destination, int destOffset, int options ) {
+        checkSource( source, off, len );
+        int encLen = encodedLength( len, options );
+        if( destOffset < 0 || destOffset + encLen > destination.length ){
+            throw new IllegalArgumentException( String.format(
+            "Destination array with length %d cannot have offset of %d and store %d bytes.", destination.length, destOffset, encLen ) );
+        }
+        return encodeInto( source, off, len, destination, destOffset, options );
+    }
+
+    /**
+     * Encodes the remaining bytes of the source into the destination, (the positions of both are advanced).
+     *
+     * @throws java.nio.BufferOverflowException if the destination has less than {@link #encodedLength(int, int)} bytes remaining
+     */
+    public static void encode( ByteBuffer source, ByteBuffer destination, int options ) {
+        int len = source.remaining();
+        int encLen = encodedLength( len, options );
+        if( destination.remaining() < encLen ){
+            throw new BufferOverflowException();
+        }
+
+        if( source.hasArray() && destination.hasArray() ){
+            int n = encodeInto( source.array(), source.arrayOffset() + source.position(), len,
+                                destination.array(), destination.arrayOffset() + destination.position(), options );
+            source.position( source.position() + len );
+            destination.position( destination.position() + n );
+        } else {
+            byte[] src = new byte[ len ];
+            source.get( src );
+            byte[] dest = new byte[ encLen ];
+            int n = encodeInto( src, 0, len, dest, 0, options );
+            destination.put( dest, 0, n );
+        }
+    }
+
+    /**
+     * Decodes into the caller supplied array, see {@link #decodedMaxLength(int)}.
+     *
+     * @param source the Base64-encoded data
+     * @param off the offset of the data
+     * @param len the length of the data
+     * @param destination the array receiving the decoded data
+     * @param destOffset the offset in the destination
+     * @param options the dialect (URL_SAFE, ORDERED) options
+     * @return the number of bytes written to the destination
+     * @throws IllegalArgumentException if the destination is too small or there are bogus characters in the source
+     */
+    public static int decode( byte[] source, int off, int len, byte[] destination, int destOffset, int options ) {
+        checkDecodeSource( source, off, len );
+        int maxLen = decodedMaxLength( len );
+        if( destOffset < 0 || destOffset + maxLen > destination.length ){
+            throw new IllegalArgumentException( String.format(
+            "Destination array with length %d cannot have offset of %d and store %d bytes.", destination.length, destOffset, maxLen ) );
+        }
+        return decodeInto( source, off, len, destination, destOffset, options );
+    }
+
+    /**
+     * Decodes the remaining bytes of the source into the destination, (the positions of both are advanced).
+     *
+     * @throws java.nio.BufferOverflowException if the destination has less than {@link #decodedMaxLength(int)} bytes remaining
+     */
+    public static void decode( ByteBuffer source, ByteBuffer destination, int options ) {
+        int len = source.remaining();
+        if( destination.remaining() < decodedMaxLength( len ) ){
+            throw new BufferOverflowException();
+        }
+
+        if( source.hasArray() && destination.hasArray() ){
+            checkDecodeSource( source.array(), source.arrayOffset() + source.position(), len );
+            int n = decodeInto( source.array(), source.arrayOffset() + source.position(), len,
+                                destination.array(), destination.arrayOffset() + destination.position(), options );
+            source.position( source.position() + len );
+            destination.position( destination.position() + n );
+        } else {
+            byte[] src = new byte[ len ];
+            source.get( src );
+            checkDecodeSource( src, 0, len );
+            byte[] dest = new byte[ decodedMaxLength( len ) ];
+            int n = decodeInto( src, 0, len, dest, 0, options );
+            destination.put( dest, 0, n );
+        }
+    }
+
     public static boolean isBase64(byte[] bytes) {
         try {
             decode(bytes);
@@ -381,13 +524,20 @@ public final class Base64 {
      * @param options Specified options
      * @return The Base64-encoded data as a String
      * @see Base64#DO_BREAK_LINES
-     * @throws java.io.IOException if there is an error
      * @throws NullPointerException if source array is null
      * @throws IllegalArgumentException if source array, offset, or length are invalid
      * @since 2.3.1
      */
     private static byte[] encodeBytesToBytes( byte[] source, int off, int len, int options ) {
+        checkSource( source, off, len );
+
+        // the exact output length is known up front, no resize (copy) of the output
+        byte[] outBuff = new byte[ encodedLength( len, options ) ];
+        encodeInto( source, off, len, outBuff, 0, options );
+        return outBuff;
+    }
 
+    private static void checkSource( byte[] source, int off, int len ) {
         if( source == null ){
             throw new NullPointerException( "Cannot serialize a null array." );
         }   // end if: null
@@ -404,55 +554,45 @@ public final class Base64 {
             throw new IllegalArgumentException(
             String.format( "Cannot have offset of %d and length of %d with array of length %d", off,len,source.length));
         }   // end if: off < 0
+    }
 
-        boolean breakLines = (options & DO_BREAK_LINES) > 0;
-
-        //int    len43   = len * 4 / 3;
-        //byte[] outBuff = new byte[   ( len43 )                      // Main 4:3
-        //                           + ( (len % 3) > 0 ? 4 : 0 )      // Account for padding
-        //                           + (breakLines ? ( len43 / MAX_LINE_LENGTH ) : 0) ]; // New lines
-        // Try to determine more precisely how big the array needs to be.
-        // If we get it right, we don't have to do an array copy, and
-        // we save a bunch of memory.
-        int encLen = ( len / 3 ) * 4 + ( len % 3 > 0 ? 4 : 0 ); // Bytes needed for actual encoding
-        if( breakLines ){
-            encLen += encLen / MAX_LINE_LENGTH; // Plus extra newline characters
-        }
-        byte[] outBuff = new byte[ encLen ];
-
-
-        int d = 0;
-        int e = 0;
-        int len2 = len - 2;
-        int lineLength = 0;
-        for( ; d < len2; d+=3, e+=4 ) {
-            encode3to4( source, d+off, 3, outBuff, e, options );
-
-            lineLength += 4;
-            if( breakLines && lineLength >= MAX_LINE_LENGTH )
-            {
-                outBuff[e+4] = NEW_LINE;
-                e++;
-                lineLength = 0;
+    /**
+     * Encodes the full 3 byte blocks in one branch free loop, (the alphabet is looked up once),
+     * then the padded tail block; the destination has to have {@link #encodedLength(int, int)} bytes.
+     *
+     * @return the number of bytes written
+     */
+    private static int encodeInto( byte[] source, int off, int len, byte[] destination, int destOffset, int options ) {
+        final byte[] ALPHABET = getAlphabet( options );
+        final boolean breakLines = (options & DO_BREAK_LINES) > 0;
+
+        int d = off;
+        int e = destOffset;
+        final int blocksEnd = off + ( len / 3 ) * 3;
+        int lineBlocks = 0;
+        while( d < blocksEnd ) {
+            final int inBuff = ( ( source[ d ] & 0xff ) << 16 )
+                             | ( ( source[ d + 1 ] & 0xff ) << 8 )
+                             | ( source[ d + 2 ] & 0xff );
+            destination[ e     ] = ALPHABET[ ( inBuff >>> 18 )        ];
+            destination[ e + 1 ] = ALPHABET[ ( inBuff >>> 12 ) & 0x3f ];
+            destination[ e + 2 ] = ALPHABET[ ( inBuff >>>  6 ) & 0x3f ];
+            destination[ e + 3 ] = ALPHABET[ ( inBuff        ) & 0x3f ];
+            d += 3;
+            e += 4;
+
+            if( breakLines && ++lineBlocks == BLOCKS_PER_LINE ) {
+                destination[ e++ ] = NEW_LINE;
+                lineBlocks = 0;
             }   // end if: end of line
-        }   // en dfor: each piece of array
+        }   // end while: each full block
 
-        if( d < len ) {
-            encode3to4( source, d+off, len - d, outBuff, e, options );
+        if( d < off + len ) {
+            encode3to4( source, d, off + len - d, destination, e, options );
             e += 4;
         }   // end if: some padding needed
 
-
-        // Only resize array if we didn't guess it right.
-        if( e < outBuff.length - 1 ){
-            byte[] finalOut = new byte[e];
-            System.arraycopy(outBuff,0, finalOut,0,e);
-            //System.err.println("Having to resize array from " + outBuff.length + " to " + e );
-            return finalOut;
-        } else {
-            //System.err.println("No need to resize array.");
-            return outBuff;
-        }
+        return e - destOffset;
     }
 
 
@@ -575,36 +715,78 @@ public final class Base64 {
      * @throws IllegalArgumentException If bogus characters exist in source data
      */
     private static byte[] decode( byte[] source, int off, int len, int options ) {
+        checkDecodeSource( source, off, len );
+        if( len == 0 ){
+            return new byte[0];
+        }
+
+        byte[] outBuff = new byte[ decodedMaxLength( len ) ]; // Upper limit on size of output
+        int outBuffPosn = decodeInto( source, off, len, outBuff, 0, options );
+        if( outBuffPosn == outBuff.length ){
+            return outBuff;
+        }
 
+        byte[] out = new byte[ outBuffPosn ];
+        System.arraycopy( outBuff, 0, out, 0, outBuffPosn );
+        return out;
+    }
+
+    private static void checkDecodeSource( byte[] source, int off, int len ) {
         // Lots of error checking and exception throwing
         if( source == null ){
             throw new NullPointerException( "Cannot decode null source array." );
         }   // end if
-        if( off < 0 || off + len > source.length ){
+        if( off < 0 || len < 0 || off + len > source.length ){
             throw new IllegalArgumentException( String.format(
             "Source array with length %d cannot have offset of %d and process %d bytes.", source.length, off, len ) );
         }   // end if
 
-        if( len == 0 ){
-            return new byte[0];
-        }else if( len < 4 ){
+        if( len > 0 && len < 4 ){
             throw new IllegalArgumentException(
             "Base64-encoded string must have at least four characters, but length specified was " + len );
         }   // end if
+    }
 
-        byte[] DECODABET = getDecodabet( options );
+    /**
+     * Decodes the source into the destination (of at least {@link #decodedMaxLength(int)} bytes).
+     *
+     * The fast path decodes whole 4 byte blocks of the alphabet characters with a single check per
+     * block: the DECODABET values of the white space, the equals sign and the bad characters are all
+     * negative, so the OR of the four values is negative if any of them is not an alphabet character.
+     * The first such block, (usually the padded last one), and the rest is decoded byte by byte.
+     *
+     * @return the number of bytes written
+     */
+    private static int decodeInto( byte[] source, int off, int len, byte[] destination, int destOffset, int options ) {
+        final byte[] DECODABET = getDecodabet( options );
+
+        int i = off;
+        int outBuffPosn = destOffset;
+        final int end = off + len;
+        final int blocksEnd = end - 3;
+        while( i < blocksEnd ) {
+            final int b0 = DECODABET[ source[ i     ] & 0x7f ];
+            final int b1 = DECODABET[ source[ i + 1 ] & 0x7f ];
+            final int b2 = DECODABET[ source[ i + 2 ] & 0x7f ];
+            final int b3 = DECODABET[ source[ i + 3 ] & 0x7f ];
+            if( ( b0 | b1 | b2 | b3 ) < 0 ){
+                break;
+            }
 
-        int    len34   = len * 3 / 4;       // Estimate on array size
-        byte[] outBuff = new byte[ len34 ]; // Upper limit on size of output
-        int    outBuffPosn = 0;             // Keep track of where we're writing
+            final int outBuff = ( b0 << 18 ) | ( b1 << 12 ) | ( b2 << 6 ) | b3;
+            destination[ outBuffPosn     ] = (byte)( outBuff >> 16 );
+            destination[ outBuffPosn + 1 ] = (byte)( outBuff >>  8 );
+            destination[ outBuffPosn + 2 ] = (byte)( outBuff       );
+            outBuffPosn += 3;
+            i += 4;
+        }   // end while: each full block
 
         byte[] b4        = new byte[4];     // Four byte buffer from source, eliminating white space
         int    b4Posn    = 0;               // Keep track of four byte input buffer
-        int    i         = 0;               // Source array counter
         byte   sbiCrop   = 0;               // Low seven bits (ASCII) of input
         byte   sbiDecode = 0;               // Special value from DECODABET
 
-        for( i = off; i < off+len; i++ ) {  // Loop through source
+        for( ; i < end; i++ ) {  // Loop through the rest of the source
 
             sbiCrop = (byte)(source[i] & 0x7f); // Only the low seven bits
             sbiDecode = DECODABET[ sbiCrop ];   // Special value
@@ -616,7 +798,7 @@ public final class Base64 {
                 if( sbiDecode >= EQUALS_SIGN_ENC ) {
                     b4[ b4Posn++ ] = sbiCrop;           // Save non-whitespace
                     if( b4Posn > 3 ) {                  // Time to decode?
-                        outBuffPosn += decode4to3( b4, 0, outBuff, outBuffPosn, options );
+                        outBuffPosn += decode4to3( b4, 0, destination, outBuffPosn, options );
                         b4Posn = 0;
 
                         // If that was the equals sign, break out of 'for' loop
@@ -633,9 +815,7 @@ public final class Base64 {
             }
         }
 
-        byte[] out = new byte[ outBuffPosn ];
-        System.arraycopy( outBuff, 0, out, 0, outBuffPosn );
-        return out;
+        return outBuffPosn - destOffset;
     }
 }
 
@@ -1,22 +1,69 @@
 package au.org.ala.cas.encoding;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import org.jasig.cas.authentication.handler.PasswordEncoder;
 
+/**
+ * Salted digest password encoder: digest(password + "{" + salt + "}"), optionally base64 encoded.
+ *
+ * The digest, the UTF-8 encoder and the byte buffers are reused per thread and the salt suffix
+ * is encoded once, so an encode does not look up the digest provider nor build the salted string.
+ */
 public class MyPasswordEncoder implements PasswordEncoder {
 
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	static final Charset US_ASCII = Charset.forName("US-ASCII");
+
 	private String salt;
 	private String algorithm;
 	private boolean base64Encoding;
-	
+
+	/** The UTF-8 bytes of "{" + salt + "}". */
+	private byte[] saltSuffix = saltSuffix(null);
+
+	/**
+	 * The per thread digest and password encoding buffer.
+	 */
+	static final class DigestState {
+		final MessageDigest digest;
+		final CharsetEncoder encoder;
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		byte[] base64 = new byte[0];
+
+		DigestState(final MessageDigest digest) {
+			this.digest = digest;
+			// NOTE: same as String.getBytes(), malformed input is replaced, not reported
+			this.encoder = UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+	}
+
+	private final ThreadLocal<DigestState> digestState = new ThreadLocal<DigestState>() {
+		@Override
+		protected DigestState initialValue() {
+			return new DigestState(newMessageDigest(algorithm));
+		}
+	};
+
 	public void setSalt(String salt) {
 		this.salt = salt;
+		this.saltSuffix = saltSuffix(salt);
 	}
 
 	public void setAlgorithm(String algorithm) {
+		// fail on an unknown algorithm at startup, not on the first login
+		newMessageDigest(algorithm);
 		this.algorithm = algorithm;
 	}
 
@@ -24,28 +71,66 @@ public class MyPasswordEncoder implements PasswordEncoder {
 		this.base64Encoding = base64Encoding;
 	}
 
-	public String encode(final String password) {
-		String salted = password + "{" + this.salt + "}";
-		
-		MessageDigest messageDigest;
+	static byte[] saltSuffix(final String salt) {
+		return ("{" + salt + "}").getBytes(UTF_8);
+	}
+
+	static MessageDigest newMessageDigest(final String algorithm) {
 		try {
-			messageDigest = MessageDigest.getInstance(this.algorithm);
+			return MessageDigest.getInstance(algorithm);
 		} catch (NoSuchAlgorithmException e) {
 			throw new IllegalArgumentException(e);
 		}
+	}
+
+	public String encode(final String password) {
+		final DigestState state = this.digestState.get();
+		final MessageDigest messageDigest = state.digest;
 
-		byte[] digest;
+		final ByteBuffer encoded = encodeUtf8(state, password);
+		messageDigest.update(encoded.array(), 0, encoded.limit());
+		messageDigest.update(this.saltSuffix);
+		final byte[] digest = messageDigest.digest();
 
-		try {
-			digest = messageDigest.digest(salted.getBytes("UTF-8"));
-		} catch (UnsupportedEncodingException e) {
-			throw new IllegalStateException("UTF-8 not supported!");
-		}
-		 
 		if (base64Encoding) {
-			return new String(Base64.encode(digest));
+			final int length = Base64.encodedLength(digest.length, Base64.NO_OPTIONS);
+			if (state.base64.length < length) {
+				state.base64 = new byte[length];
+			}
+			Base64.encode(digest, 0, digest.length, state.base64, 0, Base64.NO_OPTIONS);
+			return new String(state.base64, 0, length, US_ASCII);
 		} else {
 			return new String(digest);
 		}
 	}
+
+	/**
+	 * @return the per thread buffer holding the UTF-8 bytes of the password (from 0 to the limit)
+	 */
+	static ByteBuffer encodeUtf8(final DigestState state, final String password) {
+		final int maxLength = (int) (password.length() * state.encoder.maxBytesPerChar());
+		if (state.buffer.capacity() < maxLength) {
+			state.buffer = ByteBuffer.allocate(maxLength);
+		}
+
+		final ByteBuffer buffer = state.buffer;
+		buffer.clear();
+		state.encoder.reset();
+		final CharBuffer chars = CharBuffer.wrap(password);
+		try {
+			CoderResult result = state.encoder.encode(chars, buffer, true);
+			if (!result.isUnderflow()) {
+				result.throwException();
+			}
+			result = state.encoder.flush(buffer);
+			if (!result.isUnderflow()) {
+				result.throwException();
+			}
+		} catch (CharacterCodingException e) {
+			// can not happen: replaced, and the buffer is big enough
+			throw new IllegalStateException(e);
+		}
+		buffer.flip();
+		return buffer;
+	}
 }
@@ -0,0 +1,55 @@
+package au.org.ala.cas.extractor;
+
+import java.util.Map;
+import javax.validation.constraints.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.pac4j.core.profile.UserProfile;
+import au.org.ala.cas.UserAttributes;
+
+/**
+ * Base class of the attribute extractors, the subclasses implement the extraction
+ * of the individual attributes.
+ */
+public abstract class AbstractAttributeExtractor implements AttributeExtractor {
+
+    /** Log instance. */
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @NotNull
+    private Class<? extends UserProfile> profileClass;
+
+    @Override
+    public Class<? extends UserProfile> getProfileClass() {
+	return this.profileClass;
+    }
+
+    /**
+     * @param profileClass The (pac4j) profile class handled by this extractor.
+     */
+    public void setProfileClass(final Class<? extends UserProfile> profileClass) {
+	this.profileClass = profileClass;
+    }
+
+    @Override
+    public UserAttributes extract(final UserProfile userProfile) {
+	return new UserAttributes(this.extractEmail(userProfile),
+				  this.extractFirstName(userProfile),
+				  this.extractLastName(userProfile));
+    }
+
+    protected abstract String extractEmail(final UserProfile userProfile);
+
+    protected abstract String extractFirstName(final UserProfile userProfile);
+
+    protected abstract String extractLastName(final UserProfile userProfile);
+
+    /**
+     * @return the value of the profile attribute as String, or null if the attribute is not set
+     */
+    protected static String getAttribute(final UserProfile userProfile, final String name) {
+	final Map<String, Object> attributes = userProfile.getAttributes();
+	final Object value = attributes.get(name);
+	return (value != null) ? value.toString() : null;
+    }
+}
@@ -0,0 +1,24 @@
+package au.org.ala.cas.extractor;
+
+import org.pac4j.core.profile.UserProfile;
+import au.org.ala.cas.UserAttributes;
+
+/**
+ * Extracts the ALA attributes (email, firstname, lastname) from the user profile of
+ * one identity provider (Facebook, Google, GitHub, etc.). The extractors are registered
+ * with the {@link au.org.ala.cas.AttributeParser} (see applicationContext.xml), which
+ * picks the extractor once per profile class.
+ */
+public interface AttributeExtractor {
+
+    /**
+     * @return the (pac4j) profile class this extractor handles, e.g. GitHubProfile
+     */
+    public Class<? extends UserProfile> getProfileClass();
+
+    /**
+     * @param userProfile the user profile received from the provider
+     * @return the ALA attributes, the individual attributes are null if not found
+     */
+    public UserAttributes extract(final UserProfile userProfile);
+}
@@ -0,0 +1,58 @@
+package au.org.ala.cas.extractor;
+
+import javax.validation.constraints.NotNull;
+import org.pac4j.core.profile.UserProfile;
+import au.org.ala.cas.AttributeParser;
+
+/**
+ * Extractor for the providers that return only the full name (Twitter, GitHub); the
+ * first name and last name are split from the full name, the user's login/screen name
+ * is used if the full name is not set.
+ */
+public class FullNameAttributeExtractor extends AbstractAttributeExtractor {
+
+    @NotNull
+    private String emailAttribute = "email";
+
+    @NotNull
+    private String nameAttribute = "name";
+
+    @NotNull
+    private String defaultNameAttribute;
+
+    @Override
+    protected String extractEmail(final UserProfile userProfile) {
+	return getAttribute(userProfile, this.emailAttribute);
+    }
+
+    @Override
+    protected String extractFirstName(final UserProfile userProfile) {
+	return AttributeParser.extractFirstName(getAttribute(userProfile, this.nameAttribute),
+						getAttribute(userProfile, this.defaultNameAttribute));
+    }
+
+    @Override
+    protected String extractLastName(final UserProfile userProfile) {
+	return AttributeParser.extractLastName(getAttribute(userProfile, this.nameAttribute),
+					       getAttribute(userProfile, this.defaultNameAttribute));
+    }
+
+    protected String getEmailAttribute() {
+	return this.emailAttribute;
+    }
+
+    public void setEmailAttribute(final String emailAttribute) {
+	this.emailAttribute = emailAttribute;
+    }
+
+    public void setNameAttribute(final String nameAttribute) {
+	this.nameAttribute = nameAttribute;
+    }
+
+    /**
+     * @param defaultNameAttribute The attribute (login, screen_name, etc.) used when the full name is not set.
+     */
+    public void setDefaultNameAttribute(final String defaultNameAttribute) {
+	this.defaultNameAttribute = defaultNameAttribute;
+    }
+}
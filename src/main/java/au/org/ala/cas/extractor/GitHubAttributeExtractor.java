@@ -0,0 +1,346 @@
+package au.org.ala.cas.extractor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.validation.constraints.NotNull;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.pac4j.core.profile.UserProfile;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.pac4j.oauth.profile.github.GitHubProfile;
+import au.org.ala.cas.ProviderCallException;
+import au.org.ala.cas.ProviderHttpClient;
+import au.org.ala.cas.StreamingJsonHelper;
+import au.org.ala.cas.UserAttributes;
+import au.org.ala.cas.UserCreator;
+import au.org.ala.cas.cache.ExpiringCache;
+
+/**
+ * GitHub extractor, the names are split from the full name (or login), the email is
+ * fetched with the GitHub REST API (see the WARNING in {@link #extractEmail}).
+ *
+ * The fetched email is cached by the (stable) GitHub user id, so a returning GitHub user
+ * does not need the REST call; an expired email is revalidated with a conditional
+ * (If-None-Match) request, a 304 response does not count against the GitHub API quota.
+ * A failed user/emails call (ProviderCallException) is not a missing email: it is thrown,
+ * i.e. it fails the login as a GitHub failure (circuit breaker).
+ *
+ * With emailFetchThreads the user/emails call (it needs only the access_token of the profile)
+ * is made in the background while the names are parsed and the ALA attributes of the likely
+ * email (the previously fetched one, or the public profile email) are looked up, i.e. loaded
+ * into the attribute cache for the resolution of the verified email; the login waits for the
+ * slower of the two instead of both. When all the emailFetchThreads are busy the caller fetches
+ * the email itself, (no queueing behind the busy fetches), and a background fetch not done in
+ * emailFetchTimeout ms fails the login as a GitHub failure (ProviderCallException).
+ *
+ * NOTE: the likely email lookup only pays off when the login resolves the user through the
+ * attributeRepository; with the resolveOrCreateSql of the userCreator (one round trip, not
+ * cached) it is skipped.
+ */
+public class GitHubAttributeExtractor extends FullNameAttributeExtractor {
+
+    /**
+     * The cached GitHub email and the ETag of the user/emails response it came from.
+     */
+    public static final class GitHubEmail {
+	final String email;
+	final String etag;
+
+	GitHubEmail(final String email, final String etag) {
+	    this.email = email;
+	    this.etag = etag;
+	}
+    }
+
+    static final String ACCESS_TOKEN = "access_token";
+
+    @NotNull
+    private ProviderHttpClient httpClient;
+
+    @NotNull
+    private String emailsUrl = "https://api.github.com/user/emails";
+
+    /** The primary verified GitHub emails by GitHub user id, (optional). */
+    private ExpiringCache<String, GitHubEmail> emailCache;
+
+    /** The ALA user attributes looked up for the likely email during the email fetch, (optional). */
+    private IPersonAttributeDao attributeRepository;
+
+    /** The creator of the ALA users, the likely email is not looked up if it resolves the users itself, (optional). */
+    private UserCreator userCreator;
+
+    /** Max number of the concurrent background email fetches, 0: the email is fetched by the caller. */
+    private int emailFetchThreads = 0;
+
+    /** Time (ms) the login waits for the background email fetch. */
+    private long emailFetchTimeout = 10000;
+
+    private ThreadPoolExecutor executor;
+
+    public GitHubAttributeExtractor() {
+	this.setProfileClass(GitHubProfile.class);
+	this.setDefaultNameAttribute("login");
+    }
+
+    /**
+     * Creates the email fetch executor (if emailFetchThreads > 0); called by spring (init-method).
+     */
+    public void init() {
+	if (this.emailFetchThreads > 0) {
+	    this.executor = new ThreadPoolExecutor(this.emailFetchThreads, this.emailFetchThreads, 60, TimeUnit.SECONDS,
+						   new SynchronousQueue<Runnable>());
+	    this.executor.allowCoreThreadTimeOut(true);
+	}
+    }
+
+    /**
+     * Stops the email fetch executor; called by spring (destroy-method).
+     */
+    public void destroy() {
+	if (this.executor != null) {
+	    this.executor.shutdownNow();
+	}
+    }
+
+    @Override
+    public UserAttributes extract(final UserProfile userProfile) {
+	if (this.executor == null || getAttribute(userProfile, ACCESS_TOKEN) == null) {
+	    return super.extract(userProfile);
+	}
+
+	final Future<String> email;
+	try {
+	    email = this.executor.submit(new Callable<String>() {
+		    public String call() {
+			return extractEmail(userProfile);
+		    }
+		});
+	} catch (RejectedExecutionException e) {
+	    // all the threads busy (or shutting down), no overlap
+	    return super.extract(userProfile);
+	}
+
+	final String firstName = this.extractFirstName(userProfile);
+	final String lastName = this.extractLastName(userProfile);
+	this.lookUpLikelyEmail(userProfile);
+	return new UserAttributes(this.awaitEmail(email), firstName, lastName);
+    }
+
+    /**
+     * Looks up the ALA user attributes of the email the user most likely has, i.e. caches them for the
+     * resolution of the fetched email; only a lookup, the fetched (primary and verified) email is the one used.
+     */
+    private void lookUpLikelyEmail(final UserProfile userProfile) {
+	if (this.attributeRepository == null
+	    || (this.userCreator != null && this.userCreator.isResolveOrCreateSupported())) {
+	    return;
+	}
+
+	final GitHubEmail previousEmail = (this.emailCache != null) ? this.emailCache.peek(userProfile.getId()) : null;
+	final String likelyEmail = (previousEmail != null) ? previousEmail.email : getAttribute(userProfile, this.getEmailAttribute());
+	if (likelyEmail == null || likelyEmail.indexOf('@') == -1) {
+	    return;
+	}
+
+	try {
+	    this.attributeRepository.getPerson(likelyEmail);
+	} catch (RuntimeException e) {
+	    logger.debug("lookup of {} failed: {}", likelyEmail, e.getMessage());
+	}
+    }
+
+    private String awaitEmail(final Future<String> email) {
+	try {
+	    return email.get(this.emailFetchTimeout, TimeUnit.MILLISECONDS);
+
+	} catch (TimeoutException e) {
+	    email.cancel(true);
+	    throw new ProviderCallException("GitHub email fetch timed out after " + this.emailFetchTimeout + " ms");
+
+	} catch (ExecutionException e) {
+	    final Throwable cause = e.getCause();
+	    if (cause instanceof RuntimeException) {
+		throw (RuntimeException) cause;
+	    }
+	    if (cause instanceof Error) {
+		throw (Error) cause;
+	    }
+	    throw new IllegalStateException(cause);
+
+	} catch (InterruptedException e) {
+	    email.cancel(true);
+	    Thread.currentThread().interrupt();
+	    logger.debug("GitHub email fetch interrupted");
+	    return null;
+	}
+    }
+
+    @Override
+    protected String extractEmail(final UserProfile userProfile) {
+	//       WARNING: as of today (2015-06-10) GitHub is allowing to set/configure an UNVERIFIED email address in
+	//       the Public profile -> Public email; this seems to allow for (at least 2 problematic scenarios):
+	//       1. abuse ALA with unverified GitHub emails, BUT the next one is much scarier:
+	//       2. a GitHub user (attacker), say myself (mbohun/martin.bohun@gmail.com) can add to his GitHub profile Emails
+	//          victim's email address, then set the victim's email address in Public profile -> Public email. After this
+	//          the attacker can login into ALA via "Login with GitHub" and the attacker is logged into ALA as the victim.
+	//          The only limitation/restriction is if the (ALA) victim has an existing GitHub profile registered/using
+	//          the victim's email address (the same email address the victim uses for ALA); in such scenario GitHub won't
+	//          allow the attacker to use/add an email address that is alrady used by another GitHub user (the victim).
+	//          This leads to the conclusion that the safest solution is to ALWAYS ignore the GitHub profile email address,
+	//          use the access_token to REST HTTP GET https://api.github.com/user/emails (Authorization: token ${access_token})
+	//          the array/set of GitHub user's emails, and use the email address that is: primary AND verified.
+	//
+
+	final String githubAccessToken = getAttribute(userProfile, ACCESS_TOKEN);
+	if (githubAccessToken == null) {
+	    logger.debug("can't get a valid GitHub access_token!");
+	    return null;
+	}
+
+	final String githubId = userProfile.getId();
+	GitHubEmail staleEmail = null;
+	if (this.emailCache != null) {
+	    final GitHubEmail cachedEmail = this.emailCache.get(githubId);
+	    if (cachedEmail != null) {
+		logger.debug("using cached GitHub email: {}", cachedEmail.email);
+		return cachedEmail.email;
+	    }
+	    staleEmail = this.emailCache.peek(githubId);
+	}
+
+	final Map<String, String> headers = new HashMap<String, String>();
+	headers.put("Authorization", "token " + githubAccessToken);
+	if (staleEmail != null && staleEmail.etag != null) {
+	    headers.put("If-None-Match", staleEmail.etag);
+	}
+
+	final ProviderHttpClient.Response response = this.httpClient.get(this.emailsUrl, headers);
+	if (response == null) {
+	    return null;
+	}
+
+	if (response.isNotModified() && staleEmail != null) {
+	    logger.debug("GitHub emails not modified, using cached GitHub email: {}", staleEmail.email);
+	    this.emailCache.put(githubId, staleEmail);
+	    return staleEmail.email;
+	}
+
+	final String email = this.parsePrimaryEmail(response.getBody());
+	if (email != null && this.emailCache != null) {
+	    this.emailCache.put(githubId, new GitHubEmail(email, response.getEtag()));
+	}
+	return email;
+    }
+
+    /**
+     * Streams through the user/emails JSON array, (only the email, primary and verified
+     * fields of the records are read), and stops at the primary and verified email.
+     *
+     * @return the primary and verified email from the user/emails JSON array, or null
+     */
+    String parsePrimaryEmail(final String result) {
+	logger.debug("HTTP GET {}; result: {}", this.emailsUrl, result);
+
+	try {
+	    final JsonParser parser = StreamingJsonHelper.createParser(result);
+	    try {
+		if (parser.nextToken() != JsonToken.START_ARRAY) {
+		    logger.debug("GitHub emails is not a JSON array");
+		    return null;
+		}
+
+		while (parser.nextToken() == JsonToken.START_OBJECT) {
+		    String email = null;
+		    boolean primary = false;
+		    boolean verified = false;
+
+		    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			final JsonToken value = parser.nextToken();
+			if ("email".equals(field)) {
+			    email = parser.getValueAsString();
+			} else if ("primary".equals(field)) {
+			    primary = (value == JsonToken.VALUE_TRUE);
+			} else if ("verified".equals(field)) {
+			    verified = (value == JsonToken.VALUE_TRUE);
+			} else {
+			    parser.skipChildren();
+			}
+		    }
+
+		    if (primary && verified && email != null) {
+			logger.debug("using GitHub email: {}", email);
+			return email;
+		    }
+		}
+
+	    } finally {
+		parser.close();
+	    }
+
+	} catch (Throwable e) {
+	    logger.debug("error parsing github JSON response: {}", e.getMessage());
+	    return null;
+	}
+
+	// we did NOT find a primary AND verified email
+	return null;
+    }
+
+    /**
+     * @param httpClient The HTTP client used for the GitHub REST calls.
+     */
+    public void setHttpClient(final ProviderHttpClient httpClient) {
+	this.httpClient = httpClient;
+    }
+
+    /**
+     * @param emailCache The cache of the GitHub emails by GitHub user id.
+     */
+    public void setEmailCache(final ExpiringCache<String, GitHubEmail> emailCache) {
+	this.emailCache = emailCache;
+    }
+
+    /**
+     * @param emailsUrl The GitHub REST url returning the user's emails.
+     */
+    public void setEmailsUrl(final String emailsUrl) {
+	this.emailsUrl = emailsUrl;
+    }
+
+    /**
+     * @param attributeRepository The ALA user attributes, looked up for the likely email during the email fetch.
+     */
+    public void setAttributeRepository(final IPersonAttributeDao attributeRepository) {
+	this.attributeRepository = attributeRepository;
+    }
+
+    /**
+     * @param emailFetchThreads The max number of the concurrent background email fetches, 0: no background fetch.
+     */
+    public void setEmailFetchThreads(final int emailFetchThreads) {
+	this.emailFetchThreads = emailFetchThreads;
+    }
+
+    /**
+     * @param emailFetchTimeout The time (ms) the login waits for the background email fetch.
+     */
+    public void setEmailFetchTimeout(final long emailFetchTimeout) {
+	this.emailFetchTimeout = emailFetchTimeout;
+    }
+
+    /**
+     * @param userCreator The creator of the ALA users, no likely email lookup if it resolves the users itself.
+     */
+    public void setUserCreator(final UserCreator userCreator) {
+	this.userCreator = userCreator;
+    }
+}
@@ -0,0 +1,48 @@
+package au.org.ala.cas.extractor;
+
+import java.util.List;
+import org.pac4j.core.profile.UserProfile;
+import org.pac4j.oauth.profile.google2.Google2Email;
+import org.pac4j.oauth.profile.google2.Google2Profile;
+
+/**
+ * Google extractor, uses the typed getters of the Google2Profile.
+ */
+public class Google2AttributeExtractor extends AbstractAttributeExtractor {
+
+    public Google2AttributeExtractor() {
+	this.setProfileClass(Google2Profile.class);
+    }
+
+    @Override
+    protected String extractEmail(final UserProfile userProfile) {
+	// NOTE: in theory we could do here: return Google2Profile.getEmail() BUT that seems
+	//       to be grabbing and returning the first email from the list without checking
+	//       the email "type"; so just to be sure we do ENFORCE here returning the email
+	//       of type "account".
+	//
+	final List<Google2Email> googleEmails = ((Google2Profile)userProfile).getEmails();
+	if (googleEmails != null) {
+	    for (final Google2Email ge : googleEmails) {
+		if ("account".equals(ge.getType())) {
+		    return ge.getEmail();
+		}
+	    }
+	}
+
+	// Not sure if this can really happen; we should reach this point only after a successful authentication,
+	// and that should be possible ONLY with a valid "account" email.
+	logger.debug("error, can't find required Google2Profile email of type \"account\"!");
+	return null;
+    }
+
+    @Override
+    protected String extractFirstName(final UserProfile userProfile) {
+	return ((Google2Profile)userProfile).getFirstName();
+    }
+
+    @Override
+    protected String extractLastName(final UserProfile userProfile) {
+	return ((Google2Profile)userProfile).getFamilyName();
+    }
+}
@@ -0,0 +1,48 @@
+package au.org.ala.cas.extractor;
+
+import javax.validation.constraints.NotNull;
+import org.pac4j.core.profile.UserProfile;
+
+/**
+ * Extractor for the providers that return the email, first name and last name as
+ * separate profile attributes (Facebook, LinkedIn, Windows Live); the provider
+ * specific attribute names are configured per provider.
+ */
+public class MappedAttributeExtractor extends AbstractAttributeExtractor {
+
+    @NotNull
+    private String emailAttribute = "email";
+
+    @NotNull
+    private String firstNameAttribute = "first_name";
+
+    @NotNull
+    private String lastNameAttribute = "last_name";
+
+    @Override
+    protected String extractEmail(final UserProfile userProfile) {
+	return getAttribute(userProfile, this.emailAttribute);
+    }
+
+    @Override
+    protected String extractFirstName(final UserProfile userProfile) {
+	return getAttribute(userProfile, this.firstNameAttribute);
+    }
+
+    @Override
+    protected String extractLastName(final UserProfile userProfile) {
+	return getAttribute(userProfile, this.lastNameAttribute);
+    }
+
+    public void setEmailAttribute(final String emailAttribute) {
+	this.emailAttribute = emailAttribute;
+    }
+
+    public void setFirstNameAttribute(final String firstNameAttribute) {
+	this.firstNameAttribute = firstNameAttribute;
+    }
+
+    public void setLastNameAttribute(final String lastNameAttribute) {
+	this.lastNameAttribute = lastNameAttribute;
+    }
+}
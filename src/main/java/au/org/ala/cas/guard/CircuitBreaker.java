@@ -0,0 +1,273 @@
+package au.org.ala.cas.guard;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulkhead and circuit breaker of the calls made to one identity provider during the
+ * authentication (the user profile fetch and the attribute lookups, e.g. GitHub emails).
+ *
+ * The bulkhead limits the number of the request threads concurrently waiting for the
+ * provider; a call over the limit is rejected immediately (it does not queue).
+ *
+ * The circuit breaker records the outcome of the last windowSize calls; when at least
+ * minimumCalls are recorded and the failure rate reaches failureRateThreshold percent the
+ * circuit opens and all the calls are rejected for openDuration ms, then a single trial
+ * call is let through (half open): its success closes the circuit, a failure opens it again.
+ * Only the trial call decides: the outcome of a call acquired before the circuit opened is
+ * ignored (see {@link Permit}).
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * The permission to call the provider, returned by {@link CircuitBreaker#tryAcquire()}
+     * and passed back to {@link CircuitBreaker#release(Permit, boolean)}.
+     */
+    public static final class Permit {
+
+	private final boolean trial;
+
+	private Permit(final boolean trial) {
+	    this.trial = trial;
+	}
+
+	/**
+	 * @return true if this is the half open trial call
+	 */
+	public boolean isTrial() {
+	    return this.trial;
+	}
+    }
+
+    private static final Permit CALL = new Permit(false);
+
+    private static final Permit TRIAL = new Permit(true);
+
+    private final String name;
+
+    private final int maxConcurrentCalls;
+
+    private final int windowSize;
+
+    private final int minimumCalls;
+
+    private final int failureRateThreshold;
+
+    private final long openDuration;
+
+    private final Semaphore bulkhead;
+
+    /** The outcomes (true: failure) of the last windowSize calls, a ring buffer. */
+    private final boolean[] window;
+
+    private int windowIndex;
+
+    private int windowCount;
+
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    /** The half open trial call is in progress. */
+    private boolean trialCall;
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong bulkheadRejections = new AtomicLong();
+
+    private final AtomicLong circuitRejections = new AtomicLong();
+
+    /**
+     * @param name the name of the guarded provider (client)
+     * @param maxConcurrentCalls max number of the concurrent calls (bulkhead size)
+     * @param windowSize number of the last calls the failure rate is computed from
+     * @param minimumCalls min number of the recorded calls before the circuit can open
+     * @param failureRateThreshold failure rate (percent) opening the circuit
+     * @param openDuration time (ms) the circuit stays open before the trial call
+     */
+    public CircuitBreaker(final String name, final int maxConcurrentCalls, final int windowSize,
+			  final int minimumCalls, final int failureRateThreshold, final long openDuration) {
+	this.name = name;
+	this.maxConcurrentCalls = maxConcurrentCalls;
+	this.windowSize = windowSize;
+	this.minimumCalls = Math.min(minimumCalls, windowSize);
+	this.failureRateThreshold = failureRateThreshold;
+	this.openDuration = openDuration;
+	this.bulkhead = new Semaphore(maxConcurrentCalls);
+	this.window = new boolean[windowSize];
+    }
+
+    /**
+     * Acquires the permission to call the provider; every successful acquire must be
+     * followed by exactly one {@link #release(Permit, boolean)} of the returned permit.
+     *
+     * @return the permit, or null if the call is rejected (the circuit is open or the bulkhead is full)
+     */
+    public Permit tryAcquire() {
+	final Permit permit = this.allowCall();
+	if (permit == null) {
+	    this.circuitRejections.incrementAndGet();
+	    return null;
+	}
+
+	if (!this.bulkhead.tryAcquire()) {
+	    this.bulkheadRejections.incrementAndGet();
+	    if (permit.trial) {
+		this.cancelTrialCall();
+	    }
+	    return null;
+	}
+
+	this.calls.incrementAndGet();
+	return permit;
+    }
+
+    /**
+     * Releases the permission acquired by {@link #tryAcquire()} and records the outcome of the call.
+     *
+     * @param permit the permit returned by tryAcquire
+     * @param success false if the provider call failed (error, timeout, no profile)
+     */
+    public void release(final Permit permit, final boolean success) {
+	this.bulkhead.release();
+	if (!success) {
+	    this.failures.incrementAndGet();
+	}
+	this.record(permit.trial, !success);
+    }
+
+    private synchronized Permit allowCall() {
+	switch (this.state) {
+	case CLOSED:
+	    return CALL;
+
+	case OPEN:
+	    if (System.currentTimeMillis() - this.openedAt < this.openDuration) {
+		return null;
+	    }
+	    this.state = State.HALF_OPEN;
+	    this.trialCall = true;
+	    return TRIAL;
+
+	default: // HALF_OPEN, only one trial call at a time
+	    if (this.trialCall) {
+		return null;
+	    }
+	    this.trialCall = true;
+	    return TRIAL;
+	}
+    }
+
+    private synchronized void cancelTrialCall() {
+	if (this.state == State.HALF_OPEN) {
+	    this.trialCall = false;
+	}
+    }
+
+    private synchronized void record(final boolean trial, final boolean failure) {
+	if (this.state == State.HALF_OPEN) {
+	    // only the trial call decides, (not a call acquired before the circuit opened)
+	    if (trial) {
+		if (failure) {
+		    this.open();
+		} else {
+		    this.close();
+		}
+	    }
+	    return;
+	}
+
+	if (this.state == State.OPEN) {
+	    // a call acquired before the circuit opened, nothing to decide anymore
+	    return;
+	}
+
+	if (this.windowCount == this.windowSize) {
+	    if (this.window[this.windowIndex]) {
+		this.windowFailures--;
+	    }
+	} else {
+	    this.windowCount++;
+	}
+	this.window[this.windowIndex] = failure;
+	if (failure) {
+	    this.windowFailures++;
+	}
+	this.windowIndex = (this.windowIndex + 1) % this.windowSize;
+
+	if (this.windowCount >= this.minimumCalls
+	    && this.windowFailures * 100 >= this.failureRateThreshold * this.windowCount) {
+	    this.open();
+	}
+    }
+
+    private void open() {
+	this.state = State.OPEN;
+	this.openedAt = System.currentTimeMillis();
+	this.trialCall = false;
+    }
+
+    private void close() {
+	this.state = State.CLOSED;
+	this.trialCall = false;
+	this.windowIndex = 0;
+	this.windowCount = 0;
+	this.windowFailures = 0;
+    }
+
+    public String getName() {
+	return this.name;
+    }
+
+    public synchronized State getState() {
+	return this.state;
+    }
+
+    /**
+     * @return the failure rate (percent) of the recorded calls
+     */
+    public synchronized int getFailureRate() {
+	return (this.windowCount == 0) ? 0 : this.windowFailures * 100 / this.windowCount;
+    }
+
+    public int getActiveCalls() {
+	return this.maxConcurrentCalls - this.bulkhead.availablePermits();
+    }
+
+    public int getMaxConcurrentCalls() {
+	return this.maxConcurrentCalls;
+    }
+
+    public long getCalls() {
+	return this.calls.get();
+    }
+
+    public long getFailures() {
+	return this.failures.get();
+    }
+
+    public long getBulkheadRejections() {
+	return this.bulkheadRejections.get();
+    }
+
+    public long getCircuitRejections() {
+	return this.circuitRejections.get();
+    }
+
+    @Override
+    public String toString() {
+	return this.name + ": " + this.getState()
+	    + ", active: " + this.getActiveCalls() + "/" + this.maxConcurrentCalls
+	    + ", calls: " + this.getCalls()
+	    + ", failures: " + this.getFailures()
+	    + " (" + this.getFailureRate() + "% of last calls)"
+	    + ", rejected: " + this.getCircuitRejections() + " open circuit, "
+	    + this.getBulkheadRejections() + " bulkhead full";
+    }
+}
@@ -0,0 +1,71 @@
+package au.org.ala.cas.guard;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link CircuitBreaker}s of the identity providers, keyed by the pac4j client name
+ * (see org.pac4j.core.client.Clients); the circuit breakers are created on the first call
+ * with the settings below, so every provider gets its own bulkhead and failure window.
+ */
+public class ProviderCallGuard {
+
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /** Max number of the request threads concurrently calling one provider. */
+    private int maxConcurrentCalls = 20;
+
+    /** Number of the last calls the failure rate is computed from. */
+    private int windowSize = 50;
+
+    /** Min number of the recorded calls before the circuit can open. */
+    private int minimumCalls = 10;
+
+    /** Failure rate (percent) opening the circuit. */
+    private int failureRateThreshold = 50;
+
+    /** Time (ms) the circuit stays open before a trial call is let through. */
+    private long openDuration = 30000;
+
+    /**
+     * @param clientName the pac4j client name
+     * @return the circuit breaker of the client
+     */
+    public CircuitBreaker getCircuitBreaker(final String clientName) {
+	CircuitBreaker circuitBreaker = this.circuitBreakers.get(clientName);
+	if (circuitBreaker == null) {
+	    final CircuitBreaker created = new CircuitBreaker(clientName, this.maxConcurrentCalls, this.windowSize,
+							      this.minimumCalls, this.failureRateThreshold, this.openDuration);
+	    circuitBreaker = this.circuitBreakers.putIfAbsent(clientName, created);
+	    if (circuitBreaker == null) {
+		circuitBreaker = created;
+	    }
+	}
+	return circuitBreaker;
+    }
+
+    public Collection<CircuitBreaker> getCircuitBreakers() {
+	return this.circuitBreakers.values();
+    }
+
+    public void setMaxConcurrentCalls(final int maxConcurrentCalls) {
+	this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+
+    public void setWindowSize(final int windowSize) {
+	this.windowSize = windowSize;
+    }
+
+    public void setMinimumCalls(final int minimumCalls) {
+	this.minimumCalls = minimumCalls;
+    }
+
+    public void setFailureRateThreshold(final int failureRateThreshold) {
+	this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public void setOpenDuration(final long openDuration) {
+	this.openDuration = openDuration;
+    }
+}
@@ -0,0 +1,36 @@
+package au.org.ala.cas.guard;
+
+import javax.validation.constraints.NotNull;
+import org.jasig.cas.monitor.AbstractNamedMonitor;
+import org.jasig.cas.monitor.Status;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Reports the state, active calls, failures and rejections of the {@link CircuitBreaker}s
+ * of the identity providers on the CAS health (/status) page.
+ *
+ * NOTE: an open circuit only disables the logins through that one provider, the CAS node
+ * itself is healthy, so the status is always OK (the /status HTTP response code is the
+ * status code); the circuit breaker states are in the description.
+ */
+public class ProviderCallGuardMonitor extends AbstractNamedMonitor<Status> {
+
+    @NotNull
+    private ProviderCallGuard providerCallGuard;
+
+    @Override
+    public Status observe() {
+	final StringBuilder description = new StringBuilder();
+	for (final CircuitBreaker circuitBreaker : this.providerCallGuard.getCircuitBreakers()) {
+	    if (description.length() > 0) {
+		description.append("; ");
+	    }
+	    description.append(circuitBreaker);
+	}
+	return new Status(StatusCode.OK, (description.length() > 0) ? description.toString() : "no provider calls");
+    }
+
+    public void setProviderCallGuard(final ProviderCallGuard providerCallGuard) {
+	this.providerCallGuard = providerCallGuard;
+    }
+}
@@ -0,0 +1,286 @@
+package au.org.ala.cas.identity;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent local index of the provider identities (the pac4j typed id, e.g. GitHubProfile#12345,
+ * is stable) to the ALA user (email, userid) they logged in as; a returning user is resolved by
+ * the indexed email, i.e. without the attribute extraction (e.g. the GitHub email REST call).
+ *
+ * An identity is revalidated revalidateAfter seconds after it was indexed: the lookup misses and
+ * the next login does the full attribute extraction again, (re-indexing the identity). The index
+ * is kept in memory and written to the file (tab separated lines, replaced atomically) every
+ * writeInterval seconds if it changed, and on shutdown.
+ */
+public class ProviderIdentityIndex implements Runnable {
+
+    /** Log instance. */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The ALA user of a provider identity.
+     */
+    public static final class Identity {
+	private final String email;
+	private final String userid;
+	private final long indexed;
+
+	Identity(final String email, final String userid, final long indexed) {
+	    this.email = email;
+	    this.userid = userid;
+	    this.indexed = indexed;
+	}
+
+	public String getEmail() {
+	    return this.email;
+	}
+
+	public String getUserid() {
+	    return this.userid;
+	}
+
+	/**
+	 * @return the time (ms) the identity was indexed
+	 */
+	public long getIndexed() {
+	    return this.indexed;
+	}
+    }
+
+    /** The index file, (empty: the index is not persisted). */
+    private String file;
+
+    /** Time (ms) after which an identity is revalidated. */
+    private long revalidateAfter = TimeUnit.DAYS.toMillis(7);
+
+    /** Time (s) between the writes of the (changed) index to the file. */
+    private long writeInterval = 60;
+
+    /** Max number of the identities, the new ones are not indexed when full. */
+    private int maxSize = 1000000;
+
+    private final ConcurrentMap<String, Identity> identities = new ConcurrentHashMap<String, Identity>();
+
+    private volatile boolean changed;
+
+    private ScheduledExecutorService scheduler;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Loads the index file and schedules the writes; called by spring (init-method).
+     */
+    public void init() {
+	if (this.file == null || this.file.isEmpty()) {
+	    return;
+	}
+
+	this.load(new File(this.file));
+
+	this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(final Runnable runnable) {
+		    final Thread thread = new Thread(runnable, "ProviderIdentityIndex");
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    });
+	this.scheduler.scheduleWithFixedDelay(this, this.writeInterval, this.writeInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the scheduled writes and writes the index; called by spring (destroy-method).
+     */
+    public void destroy() throws InterruptedException {
+	if (this.scheduler != null) {
+	    this.scheduler.shutdown();
+	    this.scheduler.awaitTermination(10, TimeUnit.SECONDS);
+	    this.run();
+	}
+    }
+
+    /**
+     * @param typedId the provider identity
+     * @return the ALA user of the identity, or null if it is not indexed or it has to be revalidated
+     */
+    public Identity get(final String typedId) {
+	final Identity identity = this.identities.get(typedId);
+	if (identity == null || identity.indexed + this.revalidateAfter < System.currentTimeMillis()) {
+	    this.misses.incrementAndGet();
+	    return null;
+	}
+
+	this.hits.incrementAndGet();
+	return identity;
+    }
+
+    /**
+     * Indexes (revalidates) the provider identity.
+     */
+    public void put(final String typedId, final String email, final String userid) {
+	if (!isValid(typedId) || !isValid(email) || !isValid(userid)) {
+	    return;
+	}
+
+	if (this.identities.size() >= this.maxSize && !this.identities.containsKey(typedId)) {
+	    logger.debug("index full ({} identities), {} not indexed", this.maxSize, typedId);
+	    return;
+	}
+	this.identities.put(typedId, new Identity(email, userid, System.currentTimeMillis()));
+	this.changed = true;
+    }
+
+    /**
+     * Removes the provider identity, e.g. its ALA user does not exist any more.
+     */
+    public void invalidate(final String typedId) {
+	if (this.identities.remove(typedId) != null) {
+	    this.changed = true;
+	}
+    }
+
+    /**
+     * @return false for the values that do not fit the (tab separated lines) file
+     */
+    static boolean isValid(final String value) {
+	return value != null && !value.isEmpty() && value.indexOf('\t') == -1 && value.indexOf('\n') == -1 && value.indexOf('\r') == -1;
+    }
+
+    /**
+     * Removes the identities due for revalidation and writes the index if it changed.
+     */
+    @Override
+    public void run() {
+	final long expired = System.currentTimeMillis() - this.revalidateAfter;
+	for (final Iterator<Identity> i = this.identities.values().iterator(); i.hasNext();) {
+	    if (i.next().indexed < expired) {
+		i.remove();
+		this.changed = true;
+	    }
+	}
+
+	if (!this.changed || this.file == null || this.file.isEmpty()) {
+	    return;
+	}
+
+	this.changed = false;
+	try {
+	    this.write(new File(this.file));
+
+	} catch (IOException e) {
+	    this.changed = true;
+	    logger.warn("error writing {}: {}", this.file, e.getMessage());
+	}
+    }
+
+    private void load(final File file) {
+	if (!file.exists()) {
+	    return;
+	}
+
+	int lines = 0;
+	try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+	    for (String line = in.readLine(); line != null; line = in.readLine()) {
+		// typedId, email, userid, indexed
+		final String[] fields = line.split("\t");
+		if (fields.length != 4) {
+		    continue;
+		}
+
+		try {
+		    this.identities.put(fields[0], new Identity(fields[1], fields[2], Long.parseLong(fields[3])));
+		    lines++;
+		} catch (NumberFormatException e) {
+		    // skip the malformed line
+		}
+	    }
+	    logger.debug("{} identities loaded from {}", lines, file);
+
+	} catch (IOException e) {
+	    logger.warn("error reading {}: {}", file, e.getMessage());
+	}
+    }
+
+    private void write(final File file) throws IOException {
+	final File dir = file.getAbsoluteFile().getParentFile();
+	if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+	    throw new IOException("can not create " + dir);
+	}
+
+	final File tmp = new File(file.getPath() + ".tmp");
+	try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF_8))) {
+	    for (final Map.Entry<String, Identity> entry : this.identities.entrySet()) {
+		final Identity identity = entry.getValue();
+		out.write(entry.getKey());
+		out.write('\t');
+		out.write(identity.email);
+		out.write('\t');
+		out.write(identity.userid);
+		out.write('\t');
+		out.write(Long.toString(identity.indexed));
+		out.write('\n');
+	    }
+	}
+	Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int size() {
+	return this.identities.size();
+    }
+
+    public long getHits() {
+	return this.hits.get();
+    }
+
+    public long getMisses() {
+	return this.misses.get();
+    }
+
+    @Override
+    public String toString() {
+	return "ProviderIdentityIndex: " + this.identities.size() + " identities, " + this.hits.get() + " hits, " + this.misses.get() + " misses";
+    }
+
+    public void setFile(final String file) {
+	this.file = file;
+    }
+
+    /**
+     * @param revalidateAfter the time (s) after which an identity is revalidated
+     */
+    public void setRevalidateAfter(final long revalidateAfter) {
+	this.revalidateAfter = TimeUnit.SECONDS.toMillis(revalidateAfter);
+    }
+
+    public void setWriteInterval(final long writeInterval) {
+	this.writeInterval = writeInterval;
+    }
+
+    public void setMaxSize(final int maxSize) {
+	this.maxSize = maxSize;
+    }
+}
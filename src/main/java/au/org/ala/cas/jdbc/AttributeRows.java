@@ -0,0 +1,62 @@
+package au.org.ala.cas.jdbc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fold of the key/value attribute rows of the user store into the user attributes, shared by the
+ * attributeRepository (MyMultiRowJdbcPersonAttributeDao), the loginSql of the
+ * RehashingQueryDatabaseAuthenticationHandler and the resolveOrCreateSql of the UserCreatorALA, so a user has the
+ * same attributes whichever of them looked it up.
+ *
+ * The rows fold the same way as in the persondir MultiRowJdbcPersonAttributeDao: the values of the rows of a key
+ * are collected in order, and a row with a null key is the "null" attribute (e.g. the outer join row of a user
+ * without attributes).
+ */
+public final class AttributeRows {
+
+    private AttributeRows() {
+    }
+
+    /**
+     * @param attributes the attributes folded so far
+     * @param key the key of the row
+     * @return the values of the attribute of the key, (new and empty if it is the first row of the key)
+     */
+    public static List<Object> values(final Map<String, List<Object>> attributes, final Object key) {
+	final String name = String.valueOf(key);
+	List<Object> values = attributes.get(name);
+	if (values == null) {
+	    values = new ArrayList<Object>(1);
+	    attributes.put(name, values);
+	}
+	return values;
+    }
+
+    /**
+     * Folds the key/value rows into the principal attributes, (as the PersonDirectoryPrincipalResolver does with the
+     * attributes of the attributeRepository): a single value attribute is the value, a multi value one is the list.
+     *
+     * @param rows the rows, (e.g. JdbcTemplate.queryForList)
+     * @param keyColumn the attribute key column of the rows
+     * @param valueColumn the attribute value column of the rows
+     * @return the attributes
+     */
+    public static Map<String, Object> toAttributes(final List<Map<String, Object>> rows, final String keyColumn,
+						   final String valueColumn) {
+	final Map<String, List<Object>> values = new LinkedHashMap<String, List<Object>>();
+	for (final Map<String, Object> row : rows) {
+	    values(values, row.get(keyColumn)).add(row.get(valueColumn));
+	}
+
+	final Map<String, Object> attributes = new HashMap<String, Object>();
+	for (final Map.Entry<String, List<Object>> entry : values.entrySet()) {
+	    final List<Object> attributeValues = entry.getValue();
+	    attributes.put(entry.getKey(), (attributeValues.size() == 1) ? attributeValues.get(0) : attributeValues);
+	}
+	return attributes;
+    }
+}
@@ -0,0 +1,104 @@
+package au.org.ala.cas.jdbc;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.sql.DataSource;
+import javax.validation.constraints.NotNull;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+/**
+ * Routes the read-only lookups (password query, user attributes) to the replica pool and
+ * everything else to the primary pool, e.g. the user store reads are served by a read
+ * replica while the user creation writes go to the primary.
+ *
+ * The replica may lag behind the primary, so a read that has to see a write just made
+ * (e.g. the lookup of a user created a moment ago) forces the primary for the current
+ * thread, see {@link #forcePrimary(boolean)}:
+ * <pre>
+ * final boolean previous = ReadWriteRoutingDataSource.forcePrimary(true);
+ * try {
+ *     ...
+ * } finally {
+ *     ReadWriteRoutingDataSource.forcePrimary(previous);
+ * }
+ * </pre>
+ * NOTE: the routing is per connection checkout, the lookups made by other threads (e.g. a
+ *       background refresh) use the replica.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    static final String PRIMARY = "primary";
+
+    static final String REPLICA = "replica";
+
+    /** The threads forced to use the primary. */
+    private static final ThreadLocal<Boolean> PRIMARY_FORCED = new ThreadLocal<Boolean>();
+
+    @NotNull
+    private DataSource primaryDataSource;
+
+    /** The read replica, (optional). */
+    private DataSource replicaDataSource;
+
+    /** false: everything goes to the primary, (the replica pool is never used). */
+    private boolean replicaEnabled = true;
+
+    @Override
+    public void afterPropertiesSet() {
+	final Map<Object, Object> targetDataSources = new HashMap<Object, Object>();
+	targetDataSources.put(PRIMARY, this.primaryDataSource);
+	targetDataSources.put(REPLICA, (this.replicaDataSource != null) ? this.replicaDataSource : this.primaryDataSource);
+	this.setTargetDataSources(targetDataSources);
+	this.setDefaultTargetDataSource(this.primaryDataSource);
+	super.afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+	return (this.replicaEnabled && this.replicaDataSource != null && !isPrimaryForced()) ? REPLICA : PRIMARY;
+    }
+
+    /**
+     * Forces (or stops forcing) the connections of the current thread to the primary.
+     *
+     * @param primary true: the primary, false: the replica
+     * @return the previous setting, (to be restored)
+     */
+    public static boolean forcePrimary(final boolean primary) {
+	final boolean previous = isPrimaryForced();
+	if (primary) {
+	    PRIMARY_FORCED.set(Boolean.TRUE);
+	} else {
+	    PRIMARY_FORCED.remove();
+	}
+	return previous;
+    }
+
+    /**
+     * @return true if the connections of the current thread are forced to the primary
+     */
+    public static boolean isPrimaryForced() {
+	return PRIMARY_FORCED.get() != null;
+    }
+
+    /**
+     * @param primaryDataSource the primary (read/write) pool
+     */
+    public void setPrimaryDataSource(final DataSource primaryDataSource) {
+	this.primaryDataSource = primaryDataSource;
+    }
+
+    /**
+     * @param replicaDataSource the read replica pool
+     */
+    public void setReplicaDataSource(final DataSource replicaDataSource) {
+	this.replicaDataSource = replicaDataSource;
+    }
+
+    /**
+     * @param replicaEnabled false: the reads go to the primary too
+     */
+    public void setReplicaEnabled(final boolean replicaEnabled) {
+	this.replicaEnabled = replicaEnabled;
+    }
+}
@@ -0,0 +1,140 @@
+package au.org.ala.cas.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency histograms of the stages of the delegated (social) logins, one per provider
+ * client, stage (e.g. profile, attributes, resolve, create) and outcome (e.g. ok, error).
+ *
+ * The timings (us) are recorded into HdrHistogram {@link Recorder}s, i.e. the recording
+ * is wait-free and does not allocate (no locks on the login path; the timer lookup goes
+ * through the nested client, stage and outcome maps, no key is built); the readers take
+ * the interval histograms and add them to the totals.
+ *
+ * NOTE: there is one interval for all the readers, i.e. a snapshot resets the recent
+ * histograms of every reader; the recent values are only meaningful with a single reader
+ * (e.g. one monitoring scraper of /statistics/delegated).
+ */
+public class StageTimers {
+
+    /** The HdrHistogram precision, (2: 1% value resolution). */
+    private int significantDigits = 2;
+
+    /** The timers by client, stage and outcome. */
+    private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, Timer>>> timers =
+	new ConcurrentHashMap<String, ConcurrentMap<String, ConcurrentMap<String, Timer>>>();
+
+    /**
+     * The latency histogram of one client/stage/outcome.
+     */
+    public static final class Timer {
+	private final String client;
+	private final String stage;
+	private final String outcome;
+	private final Recorder recorder;
+	private final Histogram total;
+	private Histogram interval;
+
+	Timer(final String client, final String stage, final String outcome, final int significantDigits) {
+	    this.client = client;
+	    this.stage = stage;
+	    this.outcome = outcome;
+	    this.recorder = new Recorder(significantDigits);
+	    this.total = new Histogram(significantDigits);
+	}
+
+	void record(final long nanos) {
+	    this.recorder.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	/**
+	 * @return the copies of the total (since the start) and the recent (since the previous
+	 *         snapshot, of any reader) histograms, values in us
+	 */
+	public synchronized Histogram[] snapshot() {
+	    this.interval = this.recorder.getIntervalHistogram(this.interval);
+	    this.total.add(this.interval);
+	    return new Histogram[] { this.total.copy(), this.interval.copy() };
+	}
+
+	public String getClient() {
+	    return this.client;
+	}
+
+	public String getStage() {
+	    return this.stage;
+	}
+
+	public String getOutcome() {
+	    return this.outcome;
+	}
+    }
+
+    /**
+     * Records the duration of a stage.
+     *
+     * @param client the provider client name
+     * @param stage the stage
+     * @param outcome the outcome of the stage
+     * @param nanos the duration (ns)
+     */
+    public void record(final String client, final String stage, final String outcome, final long nanos) {
+	ConcurrentMap<String, ConcurrentMap<String, Timer>> stages = this.timers.get(client);
+	if (stages == null) {
+	    stages = putIfAbsent(this.timers, client, new ConcurrentHashMap<String, ConcurrentMap<String, Timer>>());
+	}
+
+	ConcurrentMap<String, Timer> outcomes = stages.get(stage);
+	if (outcomes == null) {
+	    outcomes = putIfAbsent(stages, stage, new ConcurrentHashMap<String, Timer>());
+	}
+
+	Timer timer = outcomes.get(outcome);
+	if (timer == null) {
+	    timer = putIfAbsent(outcomes, outcome, new Timer(client, stage, outcome, this.significantDigits));
+	}
+	timer.record(nanos);
+    }
+
+    /**
+     * @return the value of the key in the map, the given one if the key had none
+     */
+    private static <V> V putIfAbsent(final ConcurrentMap<String, V> map, final String key, final V value) {
+	final V previous = map.putIfAbsent(key, value);
+	return (previous != null) ? previous : value;
+    }
+
+    /**
+     * @return the timers sorted by client, stage and outcome
+     */
+    public List<Timer> getTimers() {
+	final List<Timer> timers = new ArrayList<Timer>();
+	for (final ConcurrentMap<String, ConcurrentMap<String, Timer>> stages : this.timers.values()) {
+	    for (final ConcurrentMap<String, Timer> outcomes : stages.values()) {
+		timers.addAll(outcomes.values());
+	    }
+	}
+	Collections.sort(timers, new Comparator<Timer>() {
+		public int compare(final Timer t1, final Timer t2) {
+		    int c = t1.client.compareTo(t2.client);
+		    if (c == 0) {
+			c = t1.stage.compareTo(t2.stage);
+		    }
+		    return (c != 0) ? c : t1.outcome.compareTo(t2.outcome);
+		}
+	    });
+	return timers;
+    }
+
+    public void setSignificantDigits(final int significantDigits) {
+	this.significantDigits = significantDigits;
+    }
+}
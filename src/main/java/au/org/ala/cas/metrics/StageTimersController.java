@@ -0,0 +1,78 @@
+package au.org.ala.cas.metrics;
+
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.constraints.NotNull;
+import org.HdrHistogram.Histogram;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes the delegated authentication {@link StageTimers} as JSON (next to the CAS
+ * /statistics page): per client, stage and outcome the count and the p50/p90/p99/max/mean
+ * (ms), both the total (since the start) and the recent ones (since the previous request).
+ *
+ * NOTE: the previous request of any caller, every GET resets the recent histograms; poll
+ * it from one place (e.g. the monitoring scraper) and use the totals elsewhere.
+ */
+public class StageTimersController extends AbstractController {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @NotNull
+    private StageTimers stageTimers;
+
+    @Override
+    protected ModelAndView handleRequestInternal(final HttpServletRequest request, final HttpServletResponse response)
+	throws IOException {
+
+	response.setContentType("application/json;charset=UTF-8");
+	response.setHeader("Cache-Control", "no-store");
+
+	final JsonGenerator json = JSON_FACTORY.createGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+	try {
+	    json.writeStartObject();
+	    json.writeArrayFieldStart("stages");
+	    for (final StageTimers.Timer timer : this.stageTimers.getTimers()) {
+		final Histogram[] snapshot = timer.snapshot();
+		json.writeStartObject();
+		json.writeStringField("client", timer.getClient());
+		json.writeStringField("stage", timer.getStage());
+		json.writeStringField("outcome", timer.getOutcome());
+		writeHistogram(json, "total", snapshot[0]);
+		writeHistogram(json, "recent", snapshot[1]);
+		json.writeEndObject();
+	    }
+	    json.writeEndArray();
+	    json.writeEndObject();
+
+	} finally {
+	    json.close();
+	}
+	return null;
+    }
+
+    /**
+     * Writes the count and the percentiles (ms) of the histogram (us).
+     */
+    static void writeHistogram(final JsonGenerator json, final String name, final Histogram histogram) throws IOException {
+	json.writeObjectFieldStart(name);
+	json.writeNumberField("count", histogram.getTotalCount());
+	if (histogram.getTotalCount() > 0) {
+	    json.writeNumberField("p50", histogram.getValueAtPercentile(50.0) / 1000.0);
+	    json.writeNumberField("p90", histogram.getValueAtPercentile(90.0) / 1000.0);
+	    json.writeNumberField("p99", histogram.getValueAtPercentile(99.0) / 1000.0);
+	    json.writeNumberField("max", histogram.getMaxValue() / 1000.0);
+	    json.writeNumberField("mean", histogram.getMean() / 1000.0);
+	}
+	json.writeEndObject();
+    }
+
+    public void setStageTimers(final StageTimers stageTimers) {
+	this.stageTimers = stageTimers;
+    }
+}
@@ -0,0 +1,346 @@
+package au.org.ala.cas.writebehind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import javax.validation.constraints.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import au.org.ala.cas.cache.ExpiringCache;
+
+/**
+ * Bounded write-behind queue of the (non essential) profile updates of the newly created
+ * users; a background thread takes the queued updates and writes them in JDBC batches
+ * (batchUpdate) of up to batchSize statements.
+ *
+ * Backpressure: when the queue stays full for more than offerTimeout ms the update is
+ * written synchronously by the caller, i.e. an update is never dropped for a lack of room
+ * and the queue never grows beyond its capacity. On shutdown the queued updates are
+ * drained (written) before the datasource is closed.
+ *
+ * A failed batch is retried row by row, so a bad update (e.g. a constraint violation) only
+ * loses itself, not the rest of its batch; the failed rows are dropped, logged and counted
+ * (failed), see ProfileUpdateQueueMonitor.
+ *
+ * NOTE: the attributeCache entry (key) of an update is invalidated once the update is
+ * written, so the cached attributes read before it (e.g. right after the user was
+ * reserved) do not outlive it.
+ */
+public class ProfileUpdateQueue implements Runnable {
+
+    /** Log instance. */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @NotNull
+    private JdbcTemplate jdbcTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    /** The attributeRepository cache, the entries of the written updates are invalidated, (optional). */
+    private ExpiringCache<String, ?> attributeCache;
+
+    /** The profile update statement, the queued arguments are its parameters. */
+    @NotNull
+    private String sql;
+
+    /** Max number of the queued updates. */
+    private int capacity = 10000;
+
+    /** Max number of the updates written in one batch. */
+    private int batchSize = 100;
+
+    /** Time (ms) a caller waits for a free slot before it writes its update itself. */
+    private long offerTimeout = 50;
+
+    /** Time (ms) the shutdown waits for the queue to drain. */
+    private long drainTimeout = 30000;
+
+    private BlockingQueue<ProfileUpdate> queue;
+
+    private Thread worker;
+
+    private volatile boolean running;
+
+    private final AtomicLong enqueued = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong batchFailures = new AtomicLong();
+
+    private final AtomicLong synchronousWrites = new AtomicLong();
+
+    private final AtomicLong flushes = new AtomicLong();
+
+    private final AtomicLong flushTime = new AtomicLong();
+
+    private volatile long maxFlushTime;
+
+    /**
+     * Creates the queue and starts the writer thread; called by spring (init-method).
+     */
+    public void init() {
+	this.queue = new ArrayBlockingQueue<ProfileUpdate>(this.capacity);
+	this.running = true;
+	this.worker = new Thread(this, "ProfileUpdateQueue");
+	this.worker.setDaemon(true);
+	this.worker.start();
+    }
+
+    /**
+     * Stops accepting updates and drains the queue; called by spring (destroy-method).
+     */
+    public void destroy() {
+	this.running = false;
+	try {
+	    this.worker.join(this.drainTimeout);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+
+	// the writer did not make it in time (or died), write the rest here
+	final List<ProfileUpdate> rest = new ArrayList<ProfileUpdate>();
+	this.queue.drainTo(rest);
+	if (!rest.isEmpty()) {
+	    logger.warn("writing the {} profile updates left in the queue", rest.size());
+	    this.flush(rest);
+	}
+    }
+
+    /**
+     * Queues the update, or writes it synchronously when the queue is full (or stopped).
+     *
+     * @param args the parameters of the profile update statement
+     */
+    public void enqueue(final Object[] args) {
+	this.enqueue(null, args);
+    }
+
+    /**
+     * Queues the update, or writes it synchronously when the queue is full (or stopped).
+     *
+     * @param key the attributeCache key (email) invalidated once the update is written, (optional)
+     * @param args the parameters of the profile update statement
+     */
+    public void enqueue(final String key, final Object[] args) {
+	final ProfileUpdate update = new ProfileUpdate(key, args);
+	try {
+	    if (this.running && this.queue.offer(update, this.offerTimeout, TimeUnit.MILLISECONDS)) {
+		this.enqueued.incrementAndGet();
+		return;
+	    }
+
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+
+	logger.debug("profile update queue full, writing synchronously");
+	this.synchronousWrites.incrementAndGet();
+	this.write(update);
+	this.invalidate(update);
+    }
+
+    private void write(final ProfileUpdate update) {
+	try {
+	    this.jdbcTemplate.update(this.sql, update.args);
+	    this.written.incrementAndGet();
+
+	} catch (DataAccessException e) {
+	    this.failed.incrementAndGet();
+	    logger.error("profile update " + Arrays.toString(update.args) + " failed: " + e.getMessage(), e);
+	}
+    }
+
+    private void invalidate(final ProfileUpdate update) {
+	if (this.attributeCache != null && update.key != null) {
+	    this.attributeCache.invalidate(update.key);
+	}
+    }
+
+    @Override
+    public void run() {
+	final List<ProfileUpdate> batch = new ArrayList<ProfileUpdate>(this.batchSize);
+	while (this.running || !this.queue.isEmpty()) {
+	    try {
+		final ProfileUpdate first = this.queue.poll(1, TimeUnit.SECONDS);
+		if (first == null) {
+		    continue;
+		}
+		batch.add(first);
+		this.queue.drainTo(batch, this.batchSize - 1);
+		this.flush(batch);
+
+	    } catch (InterruptedException e) {
+		// keep draining, the loop ends once stopped and empty
+		continue;
+
+	    } catch (RuntimeException e) {
+		logger.error("profile update writer error", e);
+
+	    } finally {
+		batch.clear();
+	    }
+	}
+    }
+
+    void flush(final List<ProfileUpdate> batch) {
+	final long start = System.nanoTime();
+	final List<Object[]> batchArgs = new ArrayList<Object[]>(batch.size());
+	for (final ProfileUpdate update : batch) {
+	    batchArgs.add(update.args);
+	}
+	try {
+	    // in one transaction, so a failed batch is rolled back as a whole, (the driver may have run
+	    // the rows before, or even after, the bad one)
+	    this.transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+		@Override
+		protected void doInTransactionWithoutResult(final TransactionStatus status) {
+		    ProfileUpdateQueue.this.jdbcTemplate.batchUpdate(ProfileUpdateQueue.this.sql, batchArgs);
+		}
+	    });
+	    this.written.addAndGet(batch.size());
+
+	} catch (DataAccessException e) {
+	    // one bad row fails the whole batch, retry the rows one by one so only the bad ones are lost
+	    this.batchFailures.incrementAndGet();
+	    logger.warn("profile update batch of " + batch.size() + " failed, retrying row by row: " + e.getMessage());
+	    for (final ProfileUpdate update : batch) {
+		this.write(update);
+	    }
+	}
+
+	// after the commit, (a failed row is invalidated as well, there is nothing more to wait for)
+	for (final ProfileUpdate update : batch) {
+	    this.invalidate(update);
+	}
+
+	final long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	this.flushes.incrementAndGet();
+	this.flushTime.addAndGet(time);
+	if (time > this.maxFlushTime) {
+	    this.maxFlushTime = time;
+	}
+	logger.debug("flushed {} profile updates in {} ms", batch.size(), time);
+    }
+
+    public int getQueueDepth() {
+	return (this.queue != null) ? this.queue.size() : 0;
+    }
+
+    public int getCapacity() {
+	return this.capacity;
+    }
+
+    public long getEnqueued() {
+	return this.enqueued.get();
+    }
+
+    public long getWritten() {
+	return this.written.get();
+    }
+
+    /**
+     * @return the number of the updates that failed, (i.e. lost)
+     */
+    public long getFailed() {
+	return this.failed.get();
+    }
+
+    /**
+     * @return the number of the batches that failed and were retried row by row
+     */
+    public long getBatchFailures() {
+	return this.batchFailures.get();
+    }
+
+    public long getSynchronousWrites() {
+	return this.synchronousWrites.get();
+    }
+
+    public long getFlushes() {
+	return this.flushes.get();
+    }
+
+    /**
+     * @return the average batch flush time (ms)
+     */
+    public long getAverageFlushTime() {
+	final long flushes = this.flushes.get();
+	return (flushes == 0) ? 0 : this.flushTime.get() / flushes;
+    }
+
+    public long getMaxFlushTime() {
+	return this.maxFlushTime;
+    }
+
+    @Override
+    public String toString() {
+	return "failed: " + this.getFailed()
+	    + ", queued: " + this.getQueueDepth() + "/" + this.capacity
+	    + ", enqueued: " + this.getEnqueued()
+	    + ", written: " + this.getWritten()
+	    + ", failed batches (retried row by row): " + this.getBatchFailures()
+	    + ", synchronous (queue full): " + this.getSynchronousWrites()
+	    + ", flushes: " + this.getFlushes()
+	    + ", flush time avg/max: " + this.getAverageFlushTime() + "/" + this.getMaxFlushTime() + " ms";
+    }
+
+    /**
+     * @param dataSource the datasource to use.
+     */
+    public void setDataSource(final DataSource dataSource) {
+	this.jdbcTemplate = new JdbcTemplate(dataSource);
+	this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    public void setAttributeCache(final ExpiringCache<String, ?> attributeCache) {
+	this.attributeCache = attributeCache;
+    }
+
+    public void setSql(final String sql) {
+	this.sql = sql;
+    }
+
+    public void setCapacity(final int capacity) {
+	this.capacity = capacity;
+    }
+
+    public void setBatchSize(final int batchSize) {
+	this.batchSize = batchSize;
+    }
+
+    public void setOfferTimeout(final long offerTimeout) {
+	this.offerTimeout = offerTimeout;
+    }
+
+    public void setDrainTimeout(final long drainTimeout) {
+	this.drainTimeout = drainTimeout;
+    }
+
+    /**
+     * A queued update: the statement parameters and the attributeCache key of the updated user.
+     */
+    static final class ProfileUpdate {
+
+	final String key;
+
+	final Object[] args;
+
+	ProfileUpdate(final String key, final Object[] args) {
+	    this.key = key;
+	    this.args = args;
+	}
+    }
+}
@@ -0,0 +1,30 @@
+package au.org.ala.cas.writebehind;
+
+import javax.validation.constraints.NotNull;
+import org.jasig.cas.monitor.AbstractNamedMonitor;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Reports the depth, writes, failures and flush latency of the {@link ProfileUpdateQueue}
+ * on the CAS health (/status) page.
+ *
+ * NOTE: a full queue only slows the new user logins down (synchronous writes) and a failed
+ * write only loses the profile defaults, the CAS node itself is healthy, so the status is
+ * always OK (the /status HTTP response code is the status code); the failed (lost) updates
+ * count leads the description and is the failedCount of the status.
+ */
+public class ProfileUpdateQueueMonitor extends AbstractNamedMonitor<ProfileUpdateQueueStatus> {
+
+    @NotNull
+    private ProfileUpdateQueue profileUpdateQueue;
+
+    @Override
+    public ProfileUpdateQueueStatus observe() {
+	return new ProfileUpdateQueueStatus(StatusCode.OK, this.profileUpdateQueue.toString(),
+					    this.profileUpdateQueue.getFailed(), this.profileUpdateQueue.getQueueDepth());
+    }
+
+    public void setProfileUpdateQueue(final ProfileUpdateQueue profileUpdateQueue) {
+	this.profileUpdateQueue = profileUpdateQueue;
+    }
+}
@@ -0,0 +1,33 @@
+package au.org.ala.cas.writebehind;
+
+import org.jasig.cas.monitor.Status;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Status of the {@link ProfileUpdateQueue}, (as the PoolStatus of the CAS pool monitors) with
+ * the counts of the failed (lost) updates and of the queued ones.
+ */
+public class ProfileUpdateQueueStatus extends Status {
+
+    private final long failedCount;
+
+    private final int queueDepth;
+
+    public ProfileUpdateQueueStatus(final StatusCode code, final String description, final long failedCount,
+				    final int queueDepth) {
+	super(code, description);
+	this.failedCount = failedCount;
+	this.queueDepth = queueDepth;
+    }
+
+    /**
+     * @return the number of the profile updates that failed (and were lost) since the start
+     */
+    public long getFailedCount() {
+	return this.failedCount;
+    }
+
+    public int getQueueDepth() {
+	return this.queueDepth;
+    }
+}
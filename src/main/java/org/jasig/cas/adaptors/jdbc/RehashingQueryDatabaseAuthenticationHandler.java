@@ -0,0 +1,254 @@
+package org.jasig.cas.adaptors.jdbc;
+
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.security.auth.login.AccountNotFoundException;
+import javax.security.auth.login.FailedLoginException;
+import javax.validation.constraints.NotNull;
+
+import org.jasig.cas.authentication.HandlerResult;
+import org.jasig.cas.authentication.PreventedException;
+import org.jasig.cas.authentication.UsernamePasswordCredential;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.PrincipalResolver;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import au.org.ala.cas.encoding.AdaptivePasswordEncoder;
+import au.org.ala.cas.jdbc.AttributeRows;
+import au.org.ala.cas.jdbc.ReadWriteRoutingDataSource;
+
+/**
+ * {@link QueryDatabaseAuthenticationHandler} verifying the stored password hash with the
+ * {@link AdaptivePasswordEncoder}, i.e. both the PBKDF2 and the legacy hashes are accepted.
+ *
+ * After a successful login a legacy (or under-iterated) hash is upgraded to the current
+ * PBKDF2 hash in the background, (if updateSql is configured); the update statement gets
+ * the new hash, the username and the old hash, so a password changed in the meantime is
+ * never overwritten, e.g. <code>update users set password=? where email=? and password=?</code>
+ *
+ * With a loginSql the password hash and the attributes of the user are fetched in one statement
+ * (key/value rows carrying the password hash) and the handler returns the fully populated principal,
+ * i.e. the handler is not mapped to a principal resolver; without it the password is checked by the
+ * sql query and the attributes are resolved by the principalResolver.
+ */
+public class RehashingQueryDatabaseAuthenticationHandler extends AbstractJdbcUsernamePasswordAuthenticationHandler {
+
+    @NotNull
+    private String sql;
+
+    @NotNull
+    private AdaptivePasswordEncoder adaptivePasswordEncoder;
+
+    /** The password hash upgrade statement, (optional). */
+    private String updateSql;
+
+    /**
+     * The query returning both the password hash and the attributes (key/value rows, every row has the
+     * password hash) of the username, (optional; the principalResolver resolves the attributes otherwise).
+     */
+    private String loginSql;
+
+    /** The password hash column of the loginSql rows. */
+    private String passwordColumn = "password";
+
+    /** The attribute key column of the loginSql rows. */
+    private String keyColumn = "key";
+
+    /** The attribute value column of the loginSql rows. */
+    private String valueColumn = "value";
+
+    /** The resolver of the principal attributes when there is no loginSql, (optional). */
+    private PrincipalResolver principalResolver;
+
+    /** Max number of the pending rehashes, the rest is dropped (rehashed on a later login). */
+    private int rehashQueueSize = 1000;
+
+    private volatile ThreadPoolExecutor executor;
+
+    @Override
+    protected final HandlerResult authenticateUsernamePasswordInternal(final UsernamePasswordCredential credential)
+        throws GeneralSecurityException, PreventedException {
+
+        final String username = credential.getUsername();
+        final String dbPassword;
+        Map<String, Object> attributes = null;
+        try {
+            if (this.loginSql != null && !this.loginSql.isEmpty()) {
+                // the password hash and the attributes in one round trip
+                final List<Map<String, Object>> rows = getJdbcTemplate().queryForList(this.loginSql, username);
+                dbPassword = this.getPassword(username, rows);
+                attributes = AttributeRows.toAttributes(rows, this.keyColumn, this.valueColumn);
+            } else {
+                dbPassword = getJdbcTemplate().queryForObject(this.sql, String.class, username);
+            }
+
+        } catch (final IncorrectResultSizeDataAccessException e) {
+            if (e.getActualSize() == 0) {
+                throw new AccountNotFoundException(username + " not found with SQL query");
+            } else {
+                throw new FailedLoginException("Multiple records found for " + username);
+            }
+        } catch (final DataAccessException e) {
+            throw new PreventedException("SQL exception while executing query for " + username, e);
+        }
+
+        if (!this.adaptivePasswordEncoder.matches(credential.getPassword(), dbPassword)) {
+            throw new FailedLoginException("Password does not match value on record.");
+        }
+
+        if (this.updateSql != null && !this.updateSql.isEmpty() && this.adaptivePasswordEncoder.needsRehash(dbPassword)) {
+            this.rehash(username, credential.getPassword(), dbPassword);
+        }
+
+        return createHandlerResult(credential, this.getPrincipal(credential, username, attributes), null);
+    }
+
+    /**
+     * @return the password hash of the loginSql rows, (every row has the same one)
+     */
+    private String getPassword(final String username, final List<Map<String, Object>> rows) {
+        if (rows.isEmpty()) {
+            throw new IncorrectResultSizeDataAccessException(1, 0);
+        }
+
+        final Object password = rows.get(0).get(this.passwordColumn);
+        for (final Map<String, Object> row : rows) {
+            final Object rowPassword = row.get(this.passwordColumn);
+            if ((password != null) ? !password.equals(rowPassword) : rowPassword != null) {
+                throw new IncorrectResultSizeDataAccessException("Multiple password records found for " + username, 1, 2);
+            }
+        }
+        return (password != null) ? password.toString() : null;
+    }
+
+    /**
+     * @return the principal with the loginSql attributes, or the one resolved by the principalResolver
+     */
+    private Principal getPrincipal(final UsernamePasswordCredential credential, final String username,
+                                   final Map<String, Object> attributes) {
+        if (attributes != null) {
+            return new SimplePrincipal(username, attributes);
+        }
+
+        final Principal principal = (this.principalResolver != null) ? this.principalResolver.resolve(credential) : null;
+        return (principal != null) ? principal : new SimplePrincipal(username);
+    }
+
+    /**
+     * Queues the upgrade of the password hash, (the PBKDF2 hashing is not done in the login request).
+     */
+    private void rehash(final String username, final String password, final String oldHash) {
+        this.getExecutor().execute(new Runnable() {
+                public void run() {
+                    // NOTE: a write, (the dataSource may route the reads to a read replica)
+                    final boolean primaryForced = ReadWriteRoutingDataSource.forcePrimary(true);
+                    try {
+                        final int rows = getJdbcTemplate().update(updateSql,
+                                                                  adaptivePasswordEncoder.hash(password), username, oldHash);
+                        logger.debug("password hash of {} upgraded, rows: {}", username, rows);
+
+                    } catch (final RuntimeException e) {
+                        logger.warn("password hash upgrade of {} failed: {}", username, e.getMessage());
+
+                    } finally {
+                        ReadWriteRoutingDataSource.forcePrimary(primaryForced);
+                    }
+                }
+            });
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        ThreadPoolExecutor executor = this.executor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.executor;
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                                      new ArrayBlockingQueue<Runnable>(this.rehashQueueSize),
+                                                      new ThreadPoolExecutor.DiscardPolicy());
+                    this.executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Finishes the pending rehashes; called by spring (destroy-method).
+     */
+    public void destroy() throws InterruptedException {
+        final ThreadPoolExecutor executor = this.executor;
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @param sql The sql statement returning the stored password hash of the username.
+     */
+    public void setSql(final String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * @param updateSql The statement upgrading the password hash (new hash, username, old hash).
+     */
+    public void setUpdateSql(final String updateSql) {
+        this.updateSql = updateSql;
+    }
+
+    /**
+     * @param loginSql The query returning the password hash and the attribute key/value rows of the username.
+     */
+    public void setLoginSql(final String loginSql) {
+        this.loginSql = loginSql;
+    }
+
+    /**
+     * @param passwordColumn The password hash column of the loginSql rows.
+     */
+    public void setPasswordColumn(final String passwordColumn) {
+        this.passwordColumn = passwordColumn;
+    }
+
+    /**
+     * @param keyColumn The attribute key column of the loginSql rows.
+     */
+    public void setKeyColumn(final String keyColumn) {
+        this.keyColumn = keyColumn;
+    }
+
+    /**
+     * @param valueColumn The attribute value column of the loginSql rows.
+     */
+    public void setValueColumn(final String valueColumn) {
+        this.valueColumn = valueColumn;
+    }
+
+    /**
+     * @param principalResolver The resolver of the principal attributes when there is no loginSql.
+     */
+    public void setPrincipalResolver(final PrincipalResolver principalResolver) {
+        this.principalResolver = principalResolver;
+    }
+
+    /**
+     * @param adaptivePasswordEncoder The encoder verifying the PBKDF2 and the legacy hashes.
+     */
+    public void setAdaptivePasswordEncoder(final AdaptivePasswordEncoder adaptivePasswordEncoder) {
+        this.adaptivePasswordEncoder = adaptivePasswordEncoder;
+    }
+
+    /**
+     * @param rehashQueueSize Max number of the pending password hash upgrades.
+     */
+    public void setRehashQueueSize(final int rehashQueueSize) {
+        this.rehashQueueSize = rehashQueueSize;
+    }
+}
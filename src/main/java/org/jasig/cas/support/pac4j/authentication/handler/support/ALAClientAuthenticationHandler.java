@@ -32,20 +32,37 @@ import org.jasig.cas.authentication.AbstractAuthenticationHandler;
 import org.jasig.cas.authentication.Credential;
 import org.jasig.cas.authentication.principal.Principal;
 import org.jasig.cas.authentication.principal.PrincipalResolver;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
 import org.jasig.cas.support.pac4j.authentication.principal.ClientCredential;
 import org.pac4j.core.client.Client;
 import org.pac4j.core.client.Clients;
 import org.pac4j.core.context.J2EContext;
 import org.pac4j.core.context.WebContext;
+import org.pac4j.core.credentials.Credentials;
 import org.pac4j.core.profile.UserProfile;
 import org.springframework.webflow.context.ExternalContextHolder;
 import org.springframework.webflow.context.servlet.ServletExternalContext;
+import au.org.ala.cas.ProviderProfile;
 import au.org.ala.cas.UserCreator;
+import au.org.ala.cas.UserAttributes;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import au.org.ala.cas.AttributeParser;
+import au.org.ala.cas.ProviderCallException;
+import au.org.ala.cas.async.AsyncCallbackFilter;
+import au.org.ala.cas.concurrent.SingleFlight;
+import au.org.ala.cas.guard.CircuitBreaker;
+import au.org.ala.cas.guard.ProviderCallGuard;
+import au.org.ala.cas.identity.ProviderIdentityIndex;
+import au.org.ala.cas.jdbc.ReadWriteRoutingDataSource;
+import au.org.ala.cas.metrics.StageTimers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -75,17 +92,43 @@ public final class ALAClientAuthenticationHandler extends AbstractAuthentication
     @NotNull
     private final UserCreator userCreator;
 
+    @NotNull
+    private final AttributeParser attributeParser;
+
+    /** The per provider bulkheads/circuit breakers of the provider calls, (optional). */
+    private ProviderCallGuard providerCallGuard;
+
+    /** The stage outcomes. */
+    static final String OK = "ok";
+    static final String FAILED = "failed";
+    static final String ERROR = "error";
+    static final String NOT_FOUND = "notfound";
+
+    /** The ALA users of the provider identities of the returning users, (optional). */
+    private ProviderIdentityIndex identityIndex;
+
+    /** The latency histograms of the login stages per client, (optional). */
+    private StageTimers stageTimers;
+
+    /** The in flight lookups/creations of the ALA users by (normalized) email. */
+    private final SingleFlight<String, Principal> userResolutions = new SingleFlight<String, Principal>();
+
     /**
      * Define the clients.
      *
      * @param theClients The clients for authentication
+     * @param principalResolver The resolver of the ALA user (attributes)
+     * @param userCreator The creator of the new ALA users
+     * @param attributeParser The parser of the ALA attributes from the user profile
      */
     public ALAClientAuthenticationHandler(final Clients theClients,
 					  final PrincipalResolver principalResolver,
-					  final UserCreator userCreator) {
+					  final UserCreator userCreator,
+					  final AttributeParser attributeParser) {
         this.clients = theClients;
 	this.principalResolver = principalResolver;
 	this.userCreator = userCreator;
+	this.attributeParser = attributeParser;
     }
 
     @Override
@@ -101,9 +144,24 @@ public final class ALAClientAuthenticationHandler extends AbstractAuthentication
         final String clientName = clientCredentials.getCredentials().getClientName();
         logger.debug("clientName : {}", clientName);
 
-        // get client
-        final Client<org.pac4j.core.credentials.Credentials, UserProfile> client = this.clients.findClient(clientName);
-        logger.debug("client : {}", client);
+	final long start = System.nanoTime();
+	String outcome = ERROR;
+	try {
+	    final HandlerResult result = this.authenticate(clientCredentials, clientName);
+	    outcome = OK;
+	    return result;
+
+	} catch (FailedLoginException e) {
+	    outcome = FAILED;
+	    throw e;
+
+	} finally {
+	    this.record(clientName, "total", outcome, start);
+	}
+    }
+
+    private HandlerResult authenticate(final ClientCredential clientCredentials, final String clientName)
+	throws GeneralSecurityException, PreventedException {
 
 	// web context
 	final ServletExternalContext servletExternalContext = (ServletExternalContext) ExternalContextHolder.getExternalContext();
@@ -111,14 +169,33 @@ public final class ALAClientAuthenticationHandler extends AbstractAuthentication
 	final HttpServletResponse response = (HttpServletResponse) servletExternalContext.getNativeResponse();
 	final WebContext webContext = new J2EContext(request, response);
 
-        // get user profile
-        final UserProfile userProfile = client.getUserProfile(clientCredentials.getCredentials(), webContext);
-        logger.debug("userProfile : {}", userProfile);
+	// the profile prefetched by the AsyncCallbackFilter (the request thread was not held meanwhile), or fetched now
+	ProviderProfile profile = this.getPrefetchedProfile(request, clientName);
+	if (profile == null) {
+	    profile = this.fetchProfile(clientCredentials.getCredentials(), webContext);
+	}
 
-        if (userProfile != null && StringUtils.isNotBlank(userProfile.getTypedId())) {
+	final UserProfile userProfile = profile.getUserProfile();
+	final ProviderIdentityIndex.Identity identity = profile.getIdentity();
+	UserAttributes userAttributes = profile.getUserAttributes();
+
+	if (identity != null) {
+	    final Principal principal = this.resolveIndexed(identity, userProfile, clientCredentials, clientName);
+	    if (principal != null) {
+		return new HandlerResult(this, new BasicCredentialMetaData(clientCredentials), principal);
+	    }
+
+	    // the ALA user of the provider identity changed (e.g. deleted), the full attribute extraction
+	    final CircuitBreaker circuitBreaker =
+		(this.providerCallGuard != null) ? this.providerCallGuard.getCircuitBreaker(clientName) : null;
+	    userAttributes = this.parseAttributes(userProfile, clientName, circuitBreaker);
+	}
+
+        if (userAttributes != null) {
             clientCredentials.setUserProfile(userProfile);
+	    clientCredentials.setUserAttributes(userAttributes);
 
-	    final String email = AttributeParser.lookup("email", userProfile);
+	    final String email = userAttributes.getEmail();
 	    logger.debug("email : {}", email);
 
 	    if (email==null || !EMAIL_PATTERN.matcher(email).matches()) {
@@ -126,34 +203,306 @@ public final class ALAClientAuthenticationHandler extends AbstractAuthentication
 		throw new FailedLoginException("No email address found; email address is required to lookup (and/or create) ALA user!");
 	    }
 
-	    final Credential alaCredential = new Credential() {
-		    public String getId() {
-			return email;
-		    }
-		};
-
-	    // get the ALA user attributes from the userdetails DB ("userid", "firstname", "lastname", "authority")
-	    Principal principal = this.principalResolver.resolve(alaCredential);
-
-	    // does the ALA user exist?
-	    if (!principal.getAttributes().containsKey("userid")) { //TODO: make this nice and configurable
-		// create a new ALA user in the userdetails DB
-		logger.debug("user {} not found in ALA userdetails DB, creating new ALA user for: {}.", email, email);
-		this.userCreator.createUser(userProfile); //TODO: we can check this for failed user creation, to be accurate
-
-		// re-try (we have to retry, because that is how we get the required "userid")
-		principal = this.principalResolver.resolve(alaCredential);
-		if (!principal.getAttributes().containsKey("userid")) {
-		    // we failed to lookup ALA user (most likely because the creation above failed), complain, throw exception, etc.
-		    throw new FailedLoginException("Unable to create ALA user for " + clientCredentials);
-		}
+	    // concurrent logins of the same user (double click, several tabs) share one lookup/creation,
+	    // i.e. no duplicate INSERTs of a new user
+	    final Principal principal = this.resolveOrCreatePrincipal(email, userAttributes, clientCredentials, clientName);
+	    if (this.identityIndex != null) {
+		final Object userid = principal.getAttributes().get("userid");
+		this.identityIndex.put(userProfile.getTypedId(), email, (userid != null) ? userid.toString() : null);
 	    }
 
             return new HandlerResult(this,
-				     new BasicCredentialMetaData(credential), //TODO: credential or alaCredential?
+				     new BasicCredentialMetaData(clientCredentials), //TODO: credential or alaCredential?
 				     principal);
         }
 
         throw new FailedLoginException("Provider did not produce profile for " + clientCredentials);
     }
+
+    /**
+     * Fetches the user profile of the provider credentials and extracts its ALA attributes (unless the ALA user
+     * of the provider identity is indexed); called from the login request or from the AsyncCallbackFilter.
+     *
+     * @param credentials the provider credentials (e.g. the OAuth code of the callback)
+     * @param webContext the web context of the callback request
+     * @return the profile, (the user profile is null if the provider did not produce one)
+     * @throws FailedLoginException if the provider is unavailable (circuit breaker open) or a provider call failed
+     */
+    public ProviderProfile fetchProfile(final Credentials credentials, final WebContext webContext) throws FailedLoginException {
+	final String clientName = credentials.getClientName();
+
+        // get client
+        final Client<Credentials, UserProfile> client = this.clients.findClient(clientName);
+        logger.debug("client : {}", client);
+
+	// the provider calls (user profile, attribute lookups) go through the provider's bulkhead/circuit breaker,
+	// a degraded provider fails fast instead of parking all the request threads
+	final CircuitBreaker circuitBreaker =
+	    (this.providerCallGuard != null) ? this.providerCallGuard.getCircuitBreaker(clientName) : null;
+	final CircuitBreaker.Permit permit = (circuitBreaker != null) ? circuitBreaker.tryAcquire() : null;
+	if (circuitBreaker != null && permit == null) {
+	    logger.warn("call to {} rejected: {}", clientName, circuitBreaker);
+	    throw new FailedLoginException("Provider " + clientName + " is unavailable, try again later or use another login");
+	}
+
+	UserProfile userProfile = null;
+	UserAttributes userAttributes = null;
+	ProviderIdentityIndex.Identity identity = null;
+	boolean success = false;
+	long start = System.nanoTime();
+	String stage = "profile";
+	try {
+	    // get user profile
+	    userProfile = client.getUserProfile(credentials, webContext);
+	    logger.debug("userProfile : {}", userProfile);
+
+	    if (userProfile != null && StringUtils.isNotBlank(userProfile.getTypedId())) {
+		this.record(clientName, stage, OK, start);
+
+		// a returning user: the ALA user of the provider identity is known, no attribute extraction
+		identity = (this.identityIndex != null) ? this.identityIndex.get(userProfile.getTypedId()) : null;
+		if (identity == null) {
+		    // resolve the ALA attributes only once per login, (GitHub email lookup is a REST call)
+		    start = System.nanoTime();
+		    stage = "attributes";
+		    userAttributes = this.attributeParser.parse(userProfile);
+		}
+		success = true;
+	    }
+
+	} catch (ProviderCallException e) {
+	    throw providerFailed(clientName, e);
+
+	} finally {
+	    if (circuitBreaker != null) {
+		circuitBreaker.release(permit, success);
+	    }
+	    if (identity == null) {
+		this.record(clientName, stage, success ? OK : ERROR, start);
+	    }
+	}
+	return new ProviderProfile(clientName, userProfile, userAttributes, identity);
+    }
+
+    /**
+     * @return the profile prefetched by the AsyncCallbackFilter for this request, or null
+     */
+    private ProviderProfile getPrefetchedProfile(final HttpServletRequest request, final String clientName)
+	throws GeneralSecurityException, PreventedException {
+	final Object prefetch = request.getAttribute(AsyncCallbackFilter.PROFILE_ATTRIBUTE);
+	if (!(prefetch instanceof Future)) {
+	    return null;
+	}
+
+	try {
+	    final ProviderProfile profile = ((Future<ProviderProfile>) prefetch).get();
+	    return clientName.equals(profile.getClientName()) ? profile : null;
+
+	} catch (ExecutionException e) {
+	    final Throwable cause = e.getCause();
+	    if (cause instanceof GeneralSecurityException) {
+		throw (GeneralSecurityException) cause;
+	    }
+	    if (cause instanceof RuntimeException) {
+		throw (RuntimeException) cause;
+	    }
+	    throw new PreventedException(cause);
+
+	} catch (CancellationException e) {
+	    throw new FailedLoginException("Provider " + clientName + " did not respond in time, try again later or use another login");
+
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new PreventedException(e);
+	}
+    }
+
+    /**
+     * Resolves the indexed ALA user of the provider identity.
+     *
+     * @return the principal, or null if the ALA user (userid) of the indexed email is not the indexed one
+     */
+    private Principal resolveIndexed(final ProviderIdentityIndex.Identity identity,
+				     final UserProfile userProfile,
+				     final ClientCredential clientCredentials,
+				     final String clientName) {
+	final Principal principal = this.resolve(alaCredential(identity.getEmail()), clientName, "resolve", System.nanoTime());
+	final Object userid = principal.getAttributes().get("userid");
+	if (userid == null || !userid.toString().equals(identity.getUserid())) {
+	    logger.debug("indexed user {} of {} not found", identity.getEmail(), userProfile.getTypedId());
+	    this.identityIndex.invalidate(userProfile.getTypedId());
+	    return null;
+	}
+
+	final Map<String, Object> attributes = principal.getAttributes();
+	clientCredentials.setUserProfile(userProfile);
+	clientCredentials.setUserAttributes(new UserAttributes(identity.getEmail(),
+							       toString(attributes.get("firstname")),
+							       toString(attributes.get("lastname"))));
+	return principal;
+    }
+
+    /**
+     * The attribute extraction (e.g. GitHub email lookup) through the provider's bulkhead/circuit breaker.
+     */
+    private UserAttributes parseAttributes(final UserProfile userProfile,
+					   final String clientName,
+					   final CircuitBreaker circuitBreaker) throws FailedLoginException {
+	final CircuitBreaker.Permit permit = (circuitBreaker != null) ? circuitBreaker.tryAcquire() : null;
+	if (circuitBreaker != null && permit == null) {
+	    logger.warn("call to {} rejected: {}", clientName, circuitBreaker);
+	    throw new FailedLoginException("Provider " + clientName + " is unavailable, try again later or use another login");
+	}
+
+	final long start = System.nanoTime();
+	boolean success = false;
+	try {
+	    final UserAttributes userAttributes = this.attributeParser.parse(userProfile);
+	    success = true;
+	    return userAttributes;
+
+	} catch (ProviderCallException e) {
+	    throw providerFailed(clientName, e);
+
+	} finally {
+	    if (circuitBreaker != null) {
+		circuitBreaker.release(permit, success);
+	    }
+	    this.record(clientName, "attributes", success ? OK : ERROR, start);
+	}
+    }
+
+    /**
+     * @return the login failure of the failed provider call, (the caller releases the circuit breaker with a failure)
+     */
+    private FailedLoginException providerFailed(final String clientName, final ProviderCallException e) {
+	logger.warn("call to {} failed: {}", clientName, e.getMessage());
+	return new FailedLoginException("Provider " + clientName + " is unavailable, try again later or use another login");
+    }
+
+    static String toString(final Object value) {
+	return (value != null) ? value.toString() : null;
+    }
+
+    static Credential alaCredential(final String email) {
+	return new Credential() {
+		public String getId() {
+		    return email;
+		}
+	    };
+    }
+
+    /**
+     * Looks up the ALA user, creates it if it does not exist, (single flight per email).
+     */
+    private Principal resolveOrCreatePrincipal(final String email,
+					       final UserAttributes userAttributes,
+					       final ClientCredential clientCredentials,
+					       final String clientName) throws GeneralSecurityException, PreventedException {
+	try {
+	    return this.userResolutions.execute(email.trim().toLowerCase(Locale.ENGLISH), new Callable<Principal>() {
+		    public Principal call() throws Exception {
+			return resolveOrCreatePrincipalNow(email, userAttributes, clientCredentials, clientName);
+		    }
+		});
+
+	} catch (GeneralSecurityException e) {
+	    throw e;
+	} catch (RuntimeException e) {
+	    throw e;
+	} catch (Exception e) {
+	    throw new PreventedException(e);
+	}
+    }
+
+    private Principal resolveOrCreatePrincipalNow(final String email,
+						  final UserAttributes userAttributes,
+						  final ClientCredential clientCredentials,
+						  final String clientName) throws FailedLoginException {
+	final Credential alaCredential = alaCredential(email);
+
+	// look up or create the ALA user in a single userdetails DB round trip, (if the userCreator supports it)
+	long start = System.nanoTime();
+	final Map<String, Object> attributes;
+	try {
+	    attributes = this.userCreator.resolveOrCreateUser(userAttributes);
+	} catch (RuntimeException e) {
+	    this.record(clientName, "resolveOrCreate", ERROR, start);
+	    throw e;
+	}
+	if (attributes != null) {
+	    this.record(clientName, "resolveOrCreate", OK, start);
+	    if (!attributes.containsKey("userid")) {
+		throw new FailedLoginException("Unable to create ALA user for " + clientCredentials);
+	    }
+	    return new SimplePrincipal(email, attributes);
+	}
+
+	// get the ALA user attributes from the userdetails DB ("userid", "firstname", "lastname", "authority")
+	start = System.nanoTime();
+	Principal principal = this.resolve(alaCredential, clientName, "resolve", start);
+
+	// does the ALA user exist?
+	if (!principal.getAttributes().containsKey("userid")) { //TODO: make this nice and configurable
+	    // create a new ALA user in the userdetails DB
+	    logger.debug("user {} not found in ALA userdetails DB, creating new ALA user for: {}.", email, email);
+	    start = System.nanoTime();
+	    String outcome = ERROR;
+	    try {
+		this.userCreator.createUser(userAttributes); //TODO: we can check this for failed user creation, to be accurate
+		outcome = OK;
+	    } finally {
+		this.record(clientName, "create", outcome, start);
+	    }
+
+	    // re-try (we have to retry, because that is how we get the required "userid"); from the primary,
+	    // the read replica may not have the new user yet
+	    final boolean primaryForced = ReadWriteRoutingDataSource.forcePrimary(true);
+	    try {
+		principal = this.resolve(alaCredential, clientName, "reresolve", System.nanoTime());
+	    } finally {
+		ReadWriteRoutingDataSource.forcePrimary(primaryForced);
+	    }
+	    if (!principal.getAttributes().containsKey("userid")) {
+		// we failed to lookup ALA user (most likely because the creation above failed), complain, throw exception, etc.
+		throw new FailedLoginException("Unable to create ALA user for " + clientCredentials);
+	    }
+	}
+	return principal;
+    }
+
+    /**
+     * Resolves the ALA user, (timed).
+     */
+    private Principal resolve(final Credential alaCredential, final String clientName, final String stage, final long start) {
+	String outcome = ERROR;
+	try {
+	    final Principal principal = this.principalResolver.resolve(alaCredential);
+	    outcome = principal.getAttributes().containsKey("userid") ? OK : NOT_FOUND;
+	    return principal;
+	} finally {
+	    this.record(clientName, stage, outcome, start);
+	}
+    }
+
+    /**
+     * Records the duration of the stage, (if the stage timers are configured).
+     */
+    private void record(final String clientName, final String stage, final String outcome, final long start) {
+	if (this.stageTimers != null) {
+	    this.stageTimers.record(clientName, stage, outcome, System.nanoTime() - start);
+	}
+    }
+
+    public void setIdentityIndex(final ProviderIdentityIndex identityIndex) {
+	this.identityIndex = identityIndex;
+    }
+
+    public void setStageTimers(final StageTimers stageTimers) {
+	this.stageTimers = stageTimers;
+    }
+
+    public void setProviderCallGuard(final ProviderCallGuard providerCallGuard) {
+	this.providerCallGuard = providerCallGuard;
+    }
 }
@@ -22,7 +22,7 @@ import java.io.Serializable;
 
 import org.jasig.cas.authentication.Credential;
 import org.pac4j.core.profile.UserProfile;
-import au.org.ala.cas.AttributeParser;
+import au.org.ala.cas.UserAttributes;
 
 /**
  * This class represents client credentials and (after authentication) a user profile.
@@ -42,6 +42,11 @@ public final class ClientCredential implements Credential, Serializable {
      */
     private UserProfile userProfile;
 
+    /**
+     * The ALA attributes resolved (once) from the user profile.
+     */
+    private UserAttributes userAttributes;
+
     /**
      * The internal credentials provided by the authentication at the provider.
      */
@@ -83,6 +88,24 @@ public final class ClientCredential implements Credential, Serializable {
         this.userProfile = theUserProfile;
     }
 
+    /**
+     * Return the ALA attributes resolved from the user profile.
+     *
+     * @return the ALA attributes resolved from the user profile
+     */
+    public UserAttributes getUserAttributes() {
+        return userAttributes;
+    }
+
+    /**
+     * Define the ALA attributes resolved from the user profile.
+     *
+     * @param theUserAttributes The ALA attributes
+     */
+    public void setUserAttributes(final UserAttributes theUserAttributes) {
+        this.userAttributes = theUserAttributes;
+    }
+
     @Override
     public String getId() {
         if (this.userProfile != null) {
@@ -94,9 +117,10 @@ public final class ClientCredential implements Credential, Serializable {
     @Override
     public String toString() {
 	final StringBuffer sb = new StringBuffer(credentials.getClientName());
-	if (this.userProfile != null) {
+	if (this.userAttributes != null) {
+	    // NOTE: never call the AttributeParser from here, toString() is called by logging
 	    sb.append("+");
-	    sb.append(AttributeParser.lookup("email", this.userProfile));
+	    sb.append(this.userAttributes.getEmail());
 	}
 
 	return sb.toString();
@@ -20,9 +20,10 @@ package org.jasig.cas.web.flow;
 
 import org.jasig.cas.CentralAuthenticationService;
 import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Principal;
 import org.jasig.cas.authentication.principal.Service;
 import org.jasig.cas.ticket.TicketException;
-import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
 import org.jasig.cas.ticket.registry.TicketRegistry;
 import org.jasig.cas.web.support.WebUtils;
 import org.jasig.cas.web.support.CookieRetrievingCookieGenerator;
@@ -31,6 +32,9 @@ import org.springframework.webflow.action.AbstractAction;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
+import au.org.ala.cas.cache.ExpiringCache;
+import au.org.ala.cas.cookie.AlaAuthCookieCodec;
+
 import javax.validation.constraints.NotNull;
 import java.util.List;
 
@@ -53,6 +57,15 @@ public final class GenerateServiceTicketAction extends AbstractAction {
     @NotNull
     private TicketRegistry serviceTicketRegistry;
 
+    /**
+     * The principals by TGT id, (optional); the principal of a TGT does not change, the service logins of
+     * a cached TGT do not read it back from the ticket registry for the ALA-Auth cookie.
+     */
+    private ExpiringCache<String, Principal> ticketPrincipalCache;
+
+    /** Signs the ALA-Auth cookie (principal id, userid, expiry), (optional: the cookie is the bare principal id). */
+    private AlaAuthCookieCodec alaAuthCookieCodec;
+
     @Override
     protected Event doExecute(final RequestContext context) {
         final Service service = WebUtils.getService(context);
@@ -68,17 +81,12 @@ public final class GenerateServiceTicketAction extends AbstractAction {
 	    //
 	    // Create ALA specific cookie that any ALA web application can read
 	    //
-	    final ServiceTicket st =
-		(ServiceTicket)this.serviceTicketRegistry.getTicket(serviceTicketId);
-
-	    final List<Authentication> authentications =
-		st.getGrantingTicket().getChainedAuthentications();
-
-	    final String email = authentications.get(authentications.size() - 1).getPrincipal().getId();
-
-	    this.alaProxyAuthenticationCookieGenerator.addCookie(WebUtils.getHttpServletRequest(context),
-								 WebUtils.getHttpServletResponse(context),
-								 email);
+	    final Principal principal = this.getPrincipal(ticketGrantingTicket);
+	    if (principal != null) {
+		this.alaProxyAuthenticationCookieGenerator.addCookie(WebUtils.getHttpServletRequest(context),
+								     WebUtils.getHttpServletResponse(context),
+								     this.getCookieValue(principal));
+	    }
 
             return success();
         } catch (final TicketException e) {
@@ -91,6 +99,49 @@ public final class GenerateServiceTicketAction extends AbstractAction {
         return error();
     }
 
+    /**
+     * @return the signed token of the principal (if the codec is enabled and the principal has an userid),
+     *         otherwise the principal id
+     */
+    private String getCookieValue(final Principal principal) {
+	final Object userid = principal.getAttributes().get("userid");
+	if (this.alaAuthCookieCodec == null || !this.alaAuthCookieCodec.isEnabled() || userid == null) {
+	    return principal.getId();
+	}
+	return this.alaAuthCookieCodec.sign(principal.getId(), userid.toString());
+    }
+
+    /**
+     * @return the principal of the (valid, the service ticket was just granted) TGT, from the cache if possible,
+     *         null if the TGT was destroyed meanwhile
+     *
+     * NOTE: the cache is filled when the TGT is added (PrincipalCachingTicketRegistry), the registry is read
+     * only for the TGTs created on another node (or evicted from the cache).
+     */
+    private Principal getPrincipal(final String ticketGrantingTicketId) {
+	if (this.ticketPrincipalCache != null) {
+	    final Principal cachedPrincipal = this.ticketPrincipalCache.get(ticketGrantingTicketId);
+	    if (cachedPrincipal != null) {
+		return cachedPrincipal;
+	    }
+	}
+
+	final long start = System.nanoTime();
+	final TicketGrantingTicket tgt =
+	    (TicketGrantingTicket) this.serviceTicketRegistry.getTicket(ticketGrantingTicketId);
+	if (tgt == null) {
+	    return null;
+	}
+
+	final List<Authentication> authentications = tgt.getChainedAuthentications();
+	final Principal principal = authentications.get(authentications.size() - 1).getPrincipal();
+	if (this.ticketPrincipalCache != null) {
+	    this.ticketPrincipalCache.recordLoad(System.nanoTime() - start);
+	    this.ticketPrincipalCache.put(ticketGrantingTicketId, principal);
+	}
+	return principal;
+    }
+
     public void setCentralAuthenticationService(
         final CentralAuthenticationService centralAuthenticationService) {
         this.centralAuthenticationService = centralAuthenticationService;
@@ -104,6 +155,14 @@ public final class GenerateServiceTicketAction extends AbstractAction {
 	this.serviceTicketRegistry = serviceTicketRegistry;
     }
 
+    public void setTicketPrincipalCache(final ExpiringCache<String, Principal> ticketPrincipalCache) {
+	this.ticketPrincipalCache = ticketPrincipalCache;
+    }
+
+    public void setAlaAuthCookieCodec(final AlaAuthCookieCodec alaAuthCookieCodec) {
+	this.alaAuthCookieCodec = alaAuthCookieCodec;
+    }
+
     protected boolean isGatewayPresent(final RequestContext context) {
         return StringUtils.hasText(context.getExternalContext()
             .getRequestParameterMap().get("gateway"));
@@ -29,6 +29,8 @@ import org.springframework.webflow.action.EventFactorySupport;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
+import au.org.ala.cas.cache.ExpiringCache;
+
 /**
  * Terminates the CAS SSO session by destroying all SSO state data (i.e. TGT, cookies).
  *
@@ -56,6 +58,9 @@ public class TerminateSessionAction {
     @NotNull
     private final CookieRetrievingCookieGenerator alaProxyAuthenticationCookieGenerator;
 
+    /** The principals by TGT id (see GenerateServiceTicketAction), (optional). */
+    private ExpiringCache<String, ?> ticketPrincipalCache;
+
     /**
      * Creates a new instance with the given parameters.
      * @param cas Core business logic object.
@@ -90,6 +95,9 @@ public class TerminateSessionAction {
         }
         if (tgtId != null) {
             WebUtils.putLogoutRequests(context, this.centralAuthenticationService.destroyTicketGrantingTicket(tgtId));
+	    if (this.ticketPrincipalCache != null) {
+		this.ticketPrincipalCache.invalidate(tgtId);
+	    }
         }
         final HttpServletResponse response = WebUtils.getHttpServletResponse(context);
         this.ticketGrantingTicketCookieGenerator.removeCookie(response);
@@ -97,4 +105,8 @@ public class TerminateSessionAction {
 	this.alaProxyAuthenticationCookieGenerator.removeCookie(response);
         return this.eventFactorySupport.success(this);
     }
+
+    public void setTicketPrincipalCache(final ExpiringCache<String, ?> ticketPrincipalCache) {
+	this.ticketPrincipalCache = ticketPrincipalCache;
+    }
 }
@@ -1,12 +1,45 @@
 package org.jasig.services.persondir.support.jdbc;
 
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.sql.DataSource;
 
 import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.support.NamedPersonImpl;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.BadSqlGrammarException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import au.org.ala.cas.cache.ExpiringCache;
+import au.org.ala.cas.concurrent.MicroBatcher;
+import au.org.ala.cas.jdbc.AttributeRows;
+import au.org.ala.cas.jdbc.ReadWriteRoutingDataSource;
 
 /**
  * Sub-class of {@link org.jasig.services.persondir.support.jdbc.MultiRowJdbcPersonAttributeDao} 
@@ -15,30 +48,564 @@ import org.springframework.jdbc.core.JdbcTemplate;
  * 
  * <p><code>call sp_get_user_attributes(?)</code></p>
  * 
+ * The query results can be cached (see {@link #setAttributeCache}) by the query user name; an empty
+ * result (unknown user) is never cached, and the entry of a user is invalidated when the user is
+ * created (see au.org.ala.cas.UserCreatorALA), so a new user is always found.
+ * 
+ * With a latency budget (see {@link #setLatencyBudget}) an expired result is revalidated: the query
+ * runs in the background and if it does not complete within the budget, or fails, the expired result
+ * (at most maxStaleness old) is served instead and the query still refreshes the cache when it
+ * completes; so a slow or down userdetails DB does not block the logins of the known users.
+ * 
+ * The key/value rows are folded straight into the person attributes (no intermediate row maps),
+ * and the prepared statement is reused per connection if the pool caches the statements (see the
+ * c3p0 maxStatementsPerConnection of the userStoreDataSource).
+ * 
+ * With a batch query (see {@link #setBatchSql}) the attributes of several users are looked up in one
+ * query, see {@link #getPeopleByUserNames}; with a batch window the concurrent single user queries are
+ * coalesced into batch queries too (see {@link MicroBatcher}).
+ * 
  * @author peter.flemming@csiro.au
  */
 public class MyMultiRowJdbcPersonAttributeDao extends MultiRowJdbcPersonAttributeDao {
 
     private final JdbcTemplate jdbcTemplate;
     private final String sql;
+
+    /** The query results by the query user name, (optional). */
+    private ExpiringCache<String, List<IPersonAttributes>> attributeCache;
+
+    /** The query latency budget (ms) when an expired result can be served instead, 0: always wait for the query. */
+    private long latencyBudget = 0;
+
+    /** How long (ms) past its expiry a cached result can still be served. */
+    private long maxStaleness = 24 * 60 * 60 * 1000;
+
+    /** Max number of the concurrent background queries. */
+    private int refreshThreads = 4;
+
+    /** Max number of the pending background queries, the rest is served stale right away. */
+    private int refreshQueueSize = 100;
+
+    private volatile ThreadPoolExecutor executor;
+
+    /**
+     * The batch query of the attributes of several users (key/value rows with the user name column),
+     * the user names are the :usernames (IN list) parameter, (optional).
+     */
+    private String batchSql;
+
+    /** The user name column of the batchSql rows. */
+    private String batchUserNameColumn = "username";
+
+    /** Max number of the users of one batchSql query. */
+    private int maxBatchSize = 100;
+
+    /** The time (ms) a single user query waits for the concurrent ones to join its batch query, 0: no batching. */
+    private long batchWindow = 0;
+
+    /** Max number of the concurrent batch queries. */
+    private int batchThreads = 4;
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private volatile MicroBatcher<String, IPersonAttributes> batcher;
+
+    /** The background queries in progress by the query user name. */
+    private final ConcurrentMap<String, FutureTask<List<IPersonAttributes>>> refreshes =
+        new ConcurrentHashMap<String, FutureTask<List<IPersonAttributes>>>();
     
     public MyMultiRowJdbcPersonAttributeDao(DataSource ds, String sql) {
 		super(ds, sql);
 		this.jdbcTemplate = new JdbcTemplate(ds);
+		// NOTE: a user has a few (tens) attribute rows
+		this.jdbcTemplate.setFetchSize(32);
+		this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(this.jdbcTemplate);
 		this.sql = sql;
 	}
 
     @Override
     protected List<IPersonAttributes> getPeopleForQuery(PartialWhereClause queryBuilder, String queryUserName) {
-        
-        //Execute the query
-        List<Map<String, Object>> results = this.jdbcTemplate.queryForList(sql, queryUserName);
-    	
-       
+        if (this.attributeCache == null) {
+            return this.queryPeople(queryUserName);
+        }
+
+        final List<IPersonAttributes> cached = this.attributeCache.get(queryUserName);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (this.latencyBudget > 0) {
+            final List<IPersonAttributes> stale = this.attributeCache.peek(queryUserName, this.maxStaleness);
+            if (stale != null) {
+                return this.revalidate(queryUserName, stale);
+            }
+        }
+
+        return this.load(queryUserName);
+    }
+
+    /**
+     * Queries and caches the people of the query user name.
+     */
+    private List<IPersonAttributes> load(String queryUserName) {
+        final long start = System.nanoTime();
+        final List<IPersonAttributes> people = this.queryPeople(queryUserName);
+        this.attributeCache.recordLoad(System.nanoTime() - start);
+
+        if (people.isEmpty()) {
+            // NOTE: a removed user is not served stale
+            this.attributeCache.invalidate(queryUserName);
+            return people;
+        }
+
+        // NOTE: shared by the concurrent logins of the user
+        final List<IPersonAttributes> shared = Collections.unmodifiableList(people);
+        this.attributeCache.put(queryUserName, shared);
+        return shared;
+    }
+
+    /**
+     * Queries the people in the background (one query per query user name) and waits for the result
+     * at most latencyBudget ms, then serves the stale result.
+     */
+    private List<IPersonAttributes> revalidate(final String queryUserName, final List<IPersonAttributes> stale) {
+        FutureTask<List<IPersonAttributes>> refresh = this.refreshes.get(queryUserName);
+        if (refresh == null) {
+            final FutureTask<List<IPersonAttributes>> task = new FutureTask<List<IPersonAttributes>>(new Callable<List<IPersonAttributes>>() {
+                    public List<IPersonAttributes> call() {
+                        return load(queryUserName);
+                    }
+                }) {
+                    @Override
+                    protected void done() {
+                        refreshes.remove(queryUserName, this);
+                    }
+                };
+
+            refresh = this.refreshes.putIfAbsent(queryUserName, task);
+            if (refresh == null) {
+                refresh = task;
+                try {
+                    this.getExecutor().execute(task);
+                } catch (final RejectedExecutionException e) {
+                    this.refreshes.remove(queryUserName, task);
+                    return this.serveStale(queryUserName, stale, "too many pending queries");
+                }
+            }
+        }
+
+        try {
+            return refresh.get(this.latencyBudget, TimeUnit.MILLISECONDS);
+
+        } catch (final TimeoutException e) {
+            return this.serveStale(queryUserName, stale, "query exceeded " + this.latencyBudget + " ms");
+
+        } catch (final ExecutionException e) {
+            return this.serveStale(queryUserName, stale, "query failed: " + e.getCause());
+
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return this.serveStale(queryUserName, stale, "interrupted");
+        }
+    }
+
+    private List<IPersonAttributes> serveStale(String queryUserName, List<IPersonAttributes> stale, String reason) {
+        this.attributeCache.recordStaleServe();
+        this.logger.warn("Serving the cached (expired) attributes of " + queryUserName + ", " + reason);
+        return stale;
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        ThreadPoolExecutor executor = this.executor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.executor;
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(this.refreshThreads, this.refreshThreads, 60, TimeUnit.SECONDS,
+                                                      new ArrayBlockingQueue<Runnable>(this.refreshQueueSize));
+                    executor.allowCoreThreadTimeOut(true);
+                    this.executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the background and the batch queries; called by spring (destroy-method).
+     */
+    public void destroy() throws InterruptedException {
+        final ThreadPoolExecutor executor = this.executor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+
+        final MicroBatcher<String, IPersonAttributes> batcher = this.batcher;
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+    }
+
+    private List<IPersonAttributes> queryPeople(String queryUserName) {
+        if (queryUserName == null) {
+            // NOTE: the people are named by the (configured) username column of the rows
+            final List<Map<String, Object>> results = this.jdbcTemplate.queryForList(sql, queryUserName);
+            return this.parseAttributeMapFromResults(results, queryUserName);
+        }
+
+        final IPersonAttributes person;
+        // NOTE: the batches are queried by the batch threads, i.e. not from the primary forced for this thread
+        if (this.batchWindow > 0 && this.isBatchEnabled() && !ReadWriteRoutingDataSource.isPrimaryForced()) {
+            person = this.lookUpInBatch(queryUserName);
+
+        } else {
+            //Execute the query
+            final AttributeRowHandler rowHandler = new AttributeRowHandler(queryUserName);
+            this.jdbcTemplate.query(sql, rowHandler, queryUserName);
+
+            if (this.logger.isDebugEnabled()) {
+                this.logger.debug("Executed '" + sql + "' with arguments [" + queryUserName + "] and got attributes " + rowHandler.people);
+            }
+            person = rowHandler.getPerson(queryUserName);
+        }
+
+        if (person == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(person);
+    }
+
+    /**
+     * Batch lookup of the attributes of the users: the cached users are not queried, the others are
+     * queried (and cached) maxBatchSize users per batchSql query, or one by one if there is no batchSql.
+     *
+     * @param userNames the user names
+     * @return the people by user name, (an unknown user is missing)
+     */
+    public Map<String, IPersonAttributes> getPeopleByUserNames(final Collection<String> userNames) {
+        final Map<String, IPersonAttributes> people = new LinkedHashMap<String, IPersonAttributes>();
+        final List<String> misses = new ArrayList<String>();
+        for (final String userName : new LinkedHashSet<String>(userNames)) {
+            final List<IPersonAttributes> cached = (this.attributeCache != null) ? this.attributeCache.get(userName) : null;
+            if (cached == null) {
+                misses.add(userName);
+            } else if (!cached.isEmpty()) {
+                people.put(userName, this.mapPersonAttributes(cached.get(0)));
+            }
+        }
+
+        if (!this.isBatchEnabled()) {
+            for (final String userName : misses) {
+                final List<IPersonAttributes> loaded = (this.attributeCache != null) ? this.load(userName) : this.queryPeople(userName);
+                if (!loaded.isEmpty()) {
+                    people.put(userName, this.mapPersonAttributes(loaded.get(0)));
+                }
+            }
+            return people;
+        }
+
+        for (int from = 0; from < misses.size(); from += this.maxBatchSize) {
+            final List<String> batch = misses.subList(from, Math.min(misses.size(), from + this.maxBatchSize));
+            for (final Map.Entry<String, IPersonAttributes> person : this.loadBatch(batch).entrySet()) {
+                people.put(person.getKey(), this.mapPersonAttributes(person.getValue()));
+            }
+        }
+        return people;
+    }
+
+    /**
+     * Queries and caches the people of the user names.
+     */
+    private Map<String, IPersonAttributes> loadBatch(final Collection<String> userNames) {
+        final long start = System.nanoTime();
+        final Map<String, IPersonAttributes> people = this.queryBatch(userNames);
+        if (this.attributeCache != null) {
+            this.attributeCache.recordLoad(System.nanoTime() - start);
+            for (final String userName : userNames) {
+                final IPersonAttributes person = people.get(userName);
+                if (person == null) {
+                    this.attributeCache.invalidate(userName);
+                } else {
+                    this.attributeCache.put(userName, Collections.singletonList(person));
+                }
+            }
+        }
+        return people;
+    }
+
+    /**
+     * Queries the people of the user names in one batchSql query.
+     */
+    private Map<String, IPersonAttributes> queryBatch(final Collection<String> userNames) {
+        // NOTE: the returned user names are matched case insensitively, (as the DB usually does), i.e. the rows
+        //       of a user name are the rows of all its requested spellings
+        final Map<String, List<String>> requested = new HashMap<String, List<String>>();
+        final List<String> arguments = new ArrayList<String>(userNames.size());
+        for (final String userName : userNames) {
+            final String key = userName.toLowerCase(Locale.ENGLISH);
+            List<String> spellings = requested.get(key);
+            if (spellings == null) {
+                spellings = new ArrayList<String>(1);
+                requested.put(key, spellings);
+            }
+            if (!spellings.contains(userName)) {
+                spellings.add(userName);
+                arguments.add(userName);
+            }
+        }
+
+        final AttributeRowHandler rowHandler = new AttributeRowHandler(requested.keySet());
+        this.namedParameterJdbcTemplate.query(this.batchSql, Collections.singletonMap("usernames", arguments), rowHandler);
+
         if (this.logger.isDebugEnabled()) {
-            this.logger.debug("Executed '" + sql + "' with arguments " + queryBuilder.arguments + " and got results " + results);
+            this.logger.debug("Executed '" + batchSql + "' with arguments " + arguments + " and got attributes " + rowHandler.people);
+        }
+
+        final Map<String, IPersonAttributes> people = new HashMap<String, IPersonAttributes>();
+        for (final Map.Entry<String, List<String>> spellings : requested.entrySet()) {
+            for (final String userName : spellings.getValue()) {
+                final IPersonAttributes person = rowHandler.getPerson(spellings.getKey(), userName);
+                if (person != null) {
+                    people.put(userName, person);
+                }
+            }
+        }
+        return people;
+    }
+
+    private boolean isBatchEnabled() {
+        return this.batchSql != null && !this.batchSql.isEmpty();
+    }
+
+    /**
+     * Looks up the person as a part of the next batch query, (the concurrent lookups are coalesced).
+     */
+    private IPersonAttributes lookUpInBatch(final String queryUserName) {
+        try {
+            return this.getBatcher().get(queryUserName);
+
+        } catch (final DataAccessException e) {
+            throw e;
+
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessResourceFailureException("Interrupted looking up " + queryUserName, e);
+
+        } catch (final Exception e) {
+            throw new DataAccessResourceFailureException("Batch lookup of " + queryUserName + " failed", e);
+        }
+    }
+
+    private MicroBatcher<String, IPersonAttributes> getBatcher() {
+        MicroBatcher<String, IPersonAttributes> batcher = this.batcher;
+        if (batcher == null) {
+            synchronized (this) {
+                batcher = this.batcher;
+                if (batcher == null) {
+                    batcher = new MicroBatcher<String, IPersonAttributes>("PersonAttributeBatcher", new MicroBatcher.BatchLoader<String, IPersonAttributes>() {
+                            public Map<String, IPersonAttributes> load(final Collection<String> userNames) {
+                                return queryBatch(userNames);
+                            }
+                        }, this.batchWindow, this.maxBatchSize, this.batchThreads);
+                    batcher.start();
+                    this.batcher = batcher;
+                }
+            }
         }
+        return batcher;
+    }
+
+    /**
+     * Folds the key/value rows (see nameValueColumnMappings) straight into the attributes of the
+     * people, the same way parseAttributeMapFromResults does, without the intermediate row maps.
+     */
+    private final class AttributeRowHandler implements RowCallbackHandler {
+
+        /** The attributes by user name, (batch: by the lower case user name). */
+        final Map<String, Map<String, List<Object>>> people = new LinkedHashMap<String, Map<String, List<Object>>>();
+
+        /** The user name of all the rows, or null: the user name is in the batchUserNameColumn. */
+        private final String queryUserName;
+
+        /** The lower case requested user names, (batch). */
+        private final Set<String> userNames;
+
+        /** The (1 based) user name column index, (batch). */
+        private int userNameColumn;
+
+        /** The (1 based) key column index of every mapping. */
+        private int[] keyColumns;
+
+        /** The (1 based) value column indexes of every mapping. */
+        private int[][] valueColumns;
+
+        AttributeRowHandler(final String queryUserName) {
+            this.queryUserName = queryUserName;
+            this.userNames = null;
+        }
+
+        AttributeRowHandler(final Set<String> userNames) {
+            this.queryUserName = null;
+            this.userNames = userNames;
+        }
+
+        public void processRow(final ResultSet rs) throws SQLException {
+            if (this.keyColumns == null) {
+                this.resolveColumns(rs.getMetaData());
+            }
+
+            String userName = this.queryUserName;
+            if (userName == null) {
+                final Object value = JdbcUtils.getResultSetValue(rs, this.userNameColumn);
+                userName = (value != null) ? value.toString().toLowerCase(Locale.ENGLISH) : null;
+                if (userName == null || !this.userNames.contains(userName)) {
+                    return;
+                }
+            }
+
+            Map<String, List<Object>> attributes = this.people.get(userName);
+            if (attributes == null) {
+                attributes = new LinkedHashMap<String, List<Object>>();
+                this.people.put(userName, attributes);
+            }
+
+            for (int m = 0; m < this.keyColumns.length; m++) {
+                final List<Object> values = AttributeRows.values(attributes, JdbcUtils.getResultSetValue(rs, this.keyColumns[m]));
+                for (final int valueColumn : this.valueColumns[m]) {
+                    values.add(JdbcUtils.getResultSetValue(rs, valueColumn));
+                }
+            }
+        }
+
+        /**
+         * @return the person of the user name, or null if there are no rows of the user name
+         */
+        IPersonAttributes getPerson(final String userName) {
+            return this.getPerson(userName, userName);
+        }
+
+        /**
+         * @param key the user name of the rows, (batch: the lower case user name)
+         * @param userName the (requested spelling of the) user name of the person
+         * @return the person of the rows of the key, or null if there are no rows of the key
+         */
+        IPersonAttributes getPerson(final String key, final String userName) {
+            final Map<String, List<Object>> attributes = this.people.get(key);
+            return (attributes != null) ? new NamedPersonImpl(userName, attributes) : null;
+        }
+
+        private void resolveColumns(final ResultSetMetaData metaData) throws SQLException {
+            // NOTE: the column labels are case insensitive, (as the queryForList row maps)
+            final Map<String, Integer> columns = new HashMap<String, Integer>();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                columns.put(JdbcUtils.lookupColumnName(metaData, i).toLowerCase(Locale.ENGLISH), i);
+            }
+
+            if (this.queryUserName == null) {
+                this.userNameColumn = column(columns, batchUserNameColumn, "user name");
+            }
+
+            final Map<String, Set<String>> mappings = getNameValueColumnMappings();
+            this.keyColumns = new int[mappings.size()];
+            this.valueColumns = new int[mappings.size()][];
+            int m = 0;
+            for (final Map.Entry<String, Set<String>> mapping : mappings.entrySet()) {
+                this.keyColumns[m] = column(columns, mapping.getKey(), "attribute key");
+                this.valueColumns[m] = new int[mapping.getValue().size()];
+                int v = 0;
+                for (final String valueColumn : mapping.getValue()) {
+                    this.valueColumns[m][v++] = column(columns, valueColumn, "attribute value");
+                }
+                m++;
+            }
+        }
+
+        private int column(final Map<String, Integer> columns, final String name, final String type) {
+            final Integer index = columns.get(name.toLowerCase(Locale.ENGLISH));
+            if (index == null) {
+                throw new BadSqlGrammarException("No " + type + " column named '" + name + "' exists in result set",
+                                                 (this.queryUserName != null) ? sql : batchSql, null);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @param attributeCache The cache of the query results by the query user name.
+     */
+    public void setAttributeCache(final ExpiringCache<String, List<IPersonAttributes>> attributeCache) {
+        this.attributeCache = attributeCache;
+    }
+
+    /**
+     * @param fetchSize The JDBC fetch size of the query, (the number of rows fetched per round trip).
+     */
+    public void setFetchSize(final int fetchSize) {
+        this.jdbcTemplate.setFetchSize(fetchSize);
+    }
+
+    /**
+     * @param batchSql The batch query of the attributes of several users, e.g.
+     * <code>select u.email as username, p.property as key, p.value as value from ... where u.email in (:usernames)</code>
+     */
+    public void setBatchSql(final String batchSql) {
+        this.batchSql = batchSql;
+    }
+
+    /**
+     * @param batchUserNameColumn The user name column of the batchSql rows.
+     */
+    public void setBatchUserNameColumn(final String batchUserNameColumn) {
+        this.batchUserNameColumn = batchUserNameColumn;
+    }
+
+    /**
+     * @param maxBatchSize Max number of the users of one batchSql query.
+     */
+    public void setMaxBatchSize(final int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @param batchWindow The time (ms) a single user query waits for the concurrent ones to join its batch query; 0: no batching.
+     */
+    public void setBatchWindow(final long batchWindow) {
+        this.batchWindow = batchWindow;
+    }
+
+    /**
+     * @param batchThreads Max number of the concurrent batch queries.
+     */
+    public void setBatchThreads(final int batchThreads) {
+        this.batchThreads = batchThreads;
+    }
+
+    /**
+     * @param latencyBudget The query latency budget (ms) when an expired cached result can be served instead; 0: no stale serving.
+     */
+    public void setLatencyBudget(final long latencyBudget) {
+        this.latencyBudget = latencyBudget;
+    }
+
+    /**
+     * @param maxStaleness How long (seconds) past its expiry a cached result can still be served.
+     */
+    public void setMaxStaleness(final long maxStaleness) {
+        this.maxStaleness = maxStaleness * 1000;
+    }
+
+    /**
+     * @param refreshThreads Max number of the concurrent background queries.
+     */
+    public void setRefreshThreads(final int refreshThreads) {
+        this.refreshThreads = refreshThreads;
+    }
 
-        return this.parseAttributeMapFromResults(results, queryUserName);
+    /**
+     * @param refreshQueueSize Max number of the pending background queries.
+     */
+    public void setRefreshQueueSize(final int refreshQueueSize) {
+        this.refreshQueueSize = refreshQueueSize;
     }
 }
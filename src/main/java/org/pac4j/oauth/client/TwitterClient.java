@@ -15,9 +15,13 @@
  */
 package org.pac4j.oauth.client;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 import org.pac4j.core.context.WebContext;
 import org.pac4j.core.util.CommonHelper;
-import org.pac4j.oauth.profile.JsonHelper;
 import org.pac4j.oauth.profile.OAuthAttributesDefinitions;
 import org.pac4j.oauth.profile.twitter.TwitterProfile;
 import org.scribe.builder.api.DefaultApi10a;
@@ -27,7 +31,7 @@ import org.scribe.model.SignatureType;
 import org.scribe.model.Token;
 import org.scribe.oauth.ProxyOAuth10aServiceImpl;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import au.org.ala.cas.StreamingJsonHelper;
 
 /**
  * This class is the OAuth client to authenticate users in Twitter.
@@ -35,6 +39,9 @@ import com.fasterxml.jackson.databind.JsonNode;
  * You can define if a screen should always been displayed for authorization confirmation by using the
  * {@link #setAlwaysConfirmAuthorization(boolean)} method (<code>false</code> by default).
  * <p />
+ * You can define the (comma separated) attributes read from the profile by using the {@link #setAttributes(String)}
+ * method (all the twitter profile attributes by default); only these are extracted (streaming) from the response.
+ * <p />
  * It returns a {@link org.pac4j.oauth.profile.twitter.TwitterProfile}.
  * <p />
  * More information at https://dev.twitter.com/docs/api/1/get/account/verify_credentials
@@ -49,6 +56,10 @@ public class TwitterClient extends BaseOAuth10Client<TwitterProfile> {
     }
 
     private boolean alwaysConfirmAuthorization = false;
+
+    private String attributes;
+
+    private StreamingJsonHelper.Fields fields;
     
     public TwitterClient() {
     }
@@ -60,12 +71,23 @@ public class TwitterClient extends BaseOAuth10Client<TwitterProfile> {
     
     @Override
     protected TwitterClient newClient() {
-        return new TwitterClient();
+        final TwitterClient client = new TwitterClient();
+        client.setAttributes(this.attributes);
+        return client;
     }
     
     @Override
     protected void internalInit() {
         super.internalInit();
+        final List<String> paths = new ArrayList<String>();
+        paths.add("id");
+        if (CommonHelper.isNotBlank(this.attributes)) {
+            paths.addAll(Arrays.asList(this.attributes.trim().split("\\s*,\\s*")));
+        } else {
+            paths.addAll(OAuthAttributesDefinitions.twitterDefinition.getAllAttributes());
+        }
+        this.fields = new StreamingJsonHelper.Fields(paths);
+
         DefaultApi10a api;
         if (this.alwaysConfirmAuthorization == false) {
             api = new TwitterApi.Authenticate();
@@ -105,11 +127,11 @@ public class TwitterClient extends BaseOAuth10Client<TwitterProfile> {
     @Override
     protected TwitterProfile extractUserProfile(final String body) {
         final TwitterProfile profile = new TwitterProfile();
-        final JsonNode json = JsonHelper.getFirstNode(body);
-        if (json != null) {
-            profile.setId(JsonHelper.get(json, "id"));
-            for (final String attribute : OAuthAttributesDefinitions.twitterDefinition.getAllAttributes()) {
-                profile.addAttribute(attribute, JsonHelper.get(json, attribute));
+        final Map<String, Object> values = StreamingJsonHelper.extract(body, this.fields);
+        if (values != null) {
+            profile.setId(values.remove("id"));
+            for (final Map.Entry<String, Object> attribute : values.entrySet()) {
+                profile.addAttribute(attribute.getKey(), attribute.getValue());
             }
         }
         return profile;
@@ -122,4 +144,12 @@ public class TwitterClient extends BaseOAuth10Client<TwitterProfile> {
     public void setAlwaysConfirmAuthorization(final boolean alwaysConfirmAuthorization) {
         this.alwaysConfirmAuthorization = alwaysConfirmAuthorization;
     }
+
+    public String getAttributes() {
+        return this.attributes;
+    }
+
+    public void setAttributes(final String attributes) {
+        this.attributes = attributes;
+    }
 }
@@ -15,8 +15,13 @@
  */
 package org.pac4j.oauth.client;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 import org.pac4j.core.context.WebContext;
-import org.pac4j.oauth.profile.JsonHelper;
+import org.pac4j.core.util.CommonHelper;
 import org.pac4j.oauth.profile.OAuthAttributesDefinitions;
 import org.pac4j.oauth.profile.windowslive.WindowsLiveProfile;
 import org.scribe.builder.api.WindowsLiveApi;
@@ -25,13 +30,16 @@ import org.scribe.model.SignatureType;
 import org.scribe.model.Token;
 import org.scribe.oauth.ProxyOAuth20ServiceImpl;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import au.org.ala.cas.StreamingJsonHelper;
 
 /**
  * This class is the OAuth client to authenticate users in Windows Live (SkyDrive, Hotmail and Messenger).
  * <p />
  * It returns a {@link org.pac4j.oauth.profile.windowslive.WindowsLiveProfile}.
  * <p />
+ * You can define the (comma separated) attributes read from the profile by using the {@link #setAttributes(String)}
+ * method (all the windows live profile attributes by default); only these are extracted (streaming) from the response.
+ * <p />
  * More information at http://msdn.microsoft.com/en-us/library/live/hh243641.aspx
  * 
  * @see org.pac4j.oauth.profile.windowslive.WindowsLiveProfile
@@ -43,6 +51,13 @@ public class WindowsLiveClient extends BaseOAuth20Client<WindowsLiveProfile> {
 	System.out.println("org.pac4j.oauth.client.WindowsLiveClient: ALA mod loaded.");
     }
 
+    /** The email is not a top level attribute, it is the account email in the emails section. */
+    static final String EMAIL_PATH = "emails.account";
+
+    private String attributes;
+
+    private StreamingJsonHelper.Fields fields;
+
     public WindowsLiveClient() {
     }
     
@@ -53,12 +68,26 @@ public class WindowsLiveClient extends BaseOAuth20Client<WindowsLiveProfile> {
     
     @Override
     protected WindowsLiveClient newClient() {
-        return new WindowsLiveClient();
+        final WindowsLiveClient client = new WindowsLiveClient();
+        client.setAttributes(this.attributes);
+        return client;
     }
     
     @Override
     protected void internalInit() {
         super.internalInit();
+        final List<String> paths = new ArrayList<String>();
+        paths.add("id");
+        if (CommonHelper.isNotBlank(this.attributes)) {
+            paths.addAll(Arrays.asList(this.attributes.trim().split("\\s*,\\s*")));
+        } else {
+            paths.addAll(OAuthAttributesDefinitions.windowsLiveDefinition.getAllAttributes());
+        }
+        if (paths.remove("email")) {
+            paths.add(EMAIL_PATH);
+        }
+        this.fields = new StreamingJsonHelper.Fields(paths);
+
         this.service = new ProxyOAuth20ServiceImpl(new WindowsLiveApi(), new OAuthConfig(this.key, this.secret,
                                                                                   this.callbackUrl,
                                                                                   SignatureType.Header, "wl.basic", //NOTE: hardcoded scope wl.basic, we need wl.basic PLUS wl.emails in order to get the email address
@@ -75,27 +104,26 @@ public class WindowsLiveClient extends BaseOAuth20Client<WindowsLiveProfile> {
     protected WindowsLiveProfile extractUserProfile(final String body) {
         final WindowsLiveProfile profile = new WindowsLiveProfile();
 
-        final JsonNode json = JsonHelper.getFirstNode(body);
-	System.out.println("WindowsLiveClient.extractUserProfile:" + json);
+        final Map<String, Object> values = StreamingJsonHelper.extract(body, this.fields);
+	logger.debug("extractUserProfile: {}", values);
 
-        if (json != null) {
-            profile.setId(JsonHelper.get(json, "id"));
-            for (final String attribute : OAuthAttributesDefinitions.windowsLiveDefinition.getAllAttributes()) {
-		if (!attribute.equals("email")) { //skip email we will parse it separatelly at the end
-		    profile.addAttribute(attribute, JsonHelper.get(json, attribute));
-		}
+        if (values != null) {
+            profile.setId(values.remove("id"));
+
+	    //the email is in the emails section
+	    final Object email = values.remove(EMAIL_PATH);
+            for (final Map.Entry<String, Object> attribute : values.entrySet()) {
+		profile.addAttribute(attribute.getKey(), attribute.getValue());
             }
-        }
 
-	final JsonNode emails = (JsonNode)JsonHelper.get(json, "emails");
-	if (emails != null) {
-	    final String email = (String)JsonHelper.get(emails, "account");
-	    System.out.println("WindowsLiveClient.extractUserProfile, found email:" + email);
-	    profile.addAttribute("email", email);
+	    if (email != null) {
+		logger.debug("extractUserProfile, found email: {}", email);
+		profile.addAttribute("email", email);
 
-	} else {
-	    System.out.println("WindowsLiveClient.extractUserProfile, emails section not found! (Did you request the required OAuth2.0 scope 'wl.emails' ?)");
-	}
+	    } else if (this.fields.getPaths().contains(EMAIL_PATH)) {
+		logger.warn("extractUserProfile, emails section not found! (Did you request the required OAuth2.0 scope 'wl.emails' ?)");
+	    }
+        }
 
         return profile;
     }
@@ -109,4 +137,12 @@ public class WindowsLiveClient extends BaseOAuth20Client<WindowsLiveProfile> {
     protected boolean hasBeenCancelled(final WebContext context) {
         return false;
     }
+
+    public String getAttributes() {
+        return this.attributes;
+    }
+
+    public void setAttributes(final String attributes) {
+        this.attributes = attributes;
+    }
 }
@@ -0,0 +1,171 @@
+package au.org.ala.cas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The ProviderHttpClient against a stub provider, (the path is the scenario).
+ */
+public class ProviderHttpClientTest {
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    private ProviderHttpClient httpClient;
+
+    @Before
+    public void setUp() throws IOException {
+	this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 10);
+	this.server.createContext("/", new HttpHandler() {
+		public void handle(final HttpExchange exchange) throws IOException {
+		    respond(exchange);
+		}
+	    });
+	this.executor = Executors.newCachedThreadPool();
+	this.server.setExecutor(this.executor);
+	this.server.start();
+
+	this.httpClient = new ProviderHttpClient();
+	this.httpClient.setReadTimeout(1000);
+	this.httpClient.setRequestTimeout(1500);
+	this.httpClient.setMaxResponseSize(1024);
+	this.httpClient.init();
+    }
+
+    @After
+    public void tearDown() {
+	this.httpClient.destroy();
+	this.server.stop(0);
+	this.executor.shutdownNow();
+    }
+
+    private static void respond(final HttpExchange exchange) throws IOException {
+	final String path = exchange.getRequestURI().getPath();
+	try {
+	    if ("/emails".equals(path)) {
+		if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+		    exchange.getResponseHeaders().set("ETag", "\"v1\"");
+		    exchange.sendResponseHeaders(304, -1);
+		    return;
+		}
+		exchange.getResponseHeaders().set("ETag", "\"v1\"");
+		send(exchange, 200, "[{\"email\":\"jo@example.org\",\"primary\":true,\"verified\":true}]");
+
+	    } else if ("/big".equals(path)) {
+		final StringBuilder body = new StringBuilder();
+		while (body.length() <= 1024) {
+		    body.append("0123456789");
+		}
+		send(exchange, 200, body.toString());
+
+	    } else if ("/unauthorized".equals(path)) {
+		send(exchange, 401, "{\"message\":\"Bad credentials\"}");
+
+	    } else if ("/unavailable".equals(path)) {
+		send(exchange, 503, "unavailable");
+
+	    } else if ("/drip".equals(path)) {
+		// a byte every 200 ms, each read is well in the readTimeout, the response never ends
+		exchange.sendResponseHeaders(200, 0);
+		final OutputStream out = exchange.getResponseBody();
+		for (int i = 0; i < 100; i++) {
+		    out.write('[');
+		    out.flush();
+		    Thread.sleep(200);
+		}
+		out.close();
+	    }
+
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+
+	} catch (IOException e) {
+	    // the client gave up
+	} finally {
+	    exchange.close();
+	}
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String body) throws IOException {
+	final byte[] bytes = body.getBytes("UTF-8");
+	exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+	exchange.sendResponseHeaders(status, bytes.length);
+	final OutputStream out = exchange.getResponseBody();
+	out.write(bytes);
+	out.close();
+    }
+
+    private String url(final String path) {
+	return "http://127.0.0.1:" + this.server.getAddress().getPort() + path;
+    }
+
+    @Test
+    public void testOk() {
+	final ProviderHttpClient.Response response = this.httpClient.get(url("/emails"), null);
+	assertEquals(200, response.getStatus());
+	assertEquals("[{\"email\":\"jo@example.org\",\"primary\":true,\"verified\":true}]", response.getBody());
+	assertEquals("\"v1\"", response.getEtag());
+    }
+
+    @Test
+    public void testNotModified() {
+	final ProviderHttpClient.Response response =
+	    this.httpClient.get(url("/emails"), Collections.singletonMap("If-None-Match", "\"v1\""));
+	assertTrue(response.isNotModified());
+	assertNull(response.getBody());
+    }
+
+    @Test
+    public void testTooBig() {
+	assertNull(this.httpClient.get(url("/big"), null));
+    }
+
+    @Test
+    public void testClientError() {
+	assertNull(this.httpClient.get(url("/unauthorized"), null));
+    }
+
+    @Test(expected = ProviderCallException.class)
+    public void testServerError() {
+	this.httpClient.get(url("/unavailable"), null);
+    }
+
+    @Test(expected = ProviderCallException.class)
+    public void testConnectionRefused() throws IOException {
+	final ServerSocket socket = new ServerSocket(0);
+	final int port = socket.getLocalPort();
+	socket.close();
+	this.httpClient.get("http://127.0.0.1:" + port + "/emails", null);
+    }
+
+    @Test
+    public void testDripTimesOut() {
+	final long start = System.nanoTime();
+	try {
+	    this.httpClient.get(url("/drip"), null);
+	    fail("the dripping response must time out");
+	} catch (ProviderCallException e) {
+	    assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+	}
+	final long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	assertTrue("aborted after " + time + " ms", time >= 1500 && time < 3000);
+    }
+}
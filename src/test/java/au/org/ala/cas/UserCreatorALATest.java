@@ -0,0 +1,119 @@
+package au.org.ala.cas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * The resolveOrCreateSql of the UserCreatorALA against an H2 stand-in of the userdetails stored procedure.
+ */
+public class UserCreatorALATest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private UserCreatorALA userCreator;
+
+    @Before
+    public void setUp() {
+	final JdbcDataSource dataSource = new JdbcDataSource();
+	dataSource.setURL("jdbc:h2:mem:userdetails;DB_CLOSE_DELAY=-1");
+	this.jdbcTemplate = new JdbcTemplate(dataSource);
+	this.jdbcTemplate.execute("CREATE TABLE users (userid INT AUTO_INCREMENT PRIMARY KEY, email VARCHAR(255) NOT NULL UNIQUE,"
+				  + " firstname VARCHAR(255), lastname VARCHAR(255), password VARCHAR(255))");
+	this.jdbcTemplate.execute("CREATE TABLE authorities (userid INT NOT NULL, authority VARCHAR(255) NOT NULL)");
+	this.jdbcTemplate.execute("CREATE ALIAS sp_resolve_or_create_user FOR \"" + UserCreatorALATest.class.getName() + ".resolveOrCreateUser\"");
+
+	this.userCreator = new UserCreatorALA();
+	this.userCreator.setDataSource(dataSource);
+	this.userCreator.setSql("INSERT INTO users (email) VALUES (?)");
+	this.userCreator.setUserCreatePassword("password");
+	this.userCreator.setResolveOrCreateSql("CALL sp_resolve_or_create_user(?,?,?,?,?,?,?,?,?,?)");
+    }
+
+    @After
+    public void tearDown() {
+	this.jdbcTemplate.execute("DROP ALL OBJECTS");
+    }
+
+    /**
+     * The stored procedure stand-in: looks the user up by email, creates it (ROLE_USER) if it does not exist, and
+     * returns its attributes as key/value rows.
+     */
+    public static ResultSet resolveOrCreateUser(final Connection connection, final String email, final String firstname,
+						final String lastname, final String password, final String city,
+						final String organisation, final String primaryUserType,
+						final String secondaryUserType, final String state, final String telephone)
+	throws SQLException {
+
+	final PreparedStatement insert = connection.prepareStatement(
+	    "INSERT INTO users (email, firstname, lastname, password) SELECT ?, ?, ?, ? FROM DUAL"
+	    + " WHERE NOT EXISTS (SELECT 1 FROM users WHERE email = ?)");
+	insert.setString(1, email);
+	insert.setString(2, firstname);
+	insert.setString(3, lastname);
+	insert.setString(4, password);
+	insert.setString(5, email);
+	if (insert.executeUpdate() == 1) {
+	    connection.createStatement().executeUpdate(
+		"INSERT INTO authorities SELECT userid, 'ROLE_USER' FROM users WHERE email = '" + email.replace("'", "''") + "'");
+	}
+
+	final PreparedStatement select = connection.prepareStatement(
+	    "SELECT 'userid' AS \"key\", CAST(u.userid AS VARCHAR) AS \"value\" FROM users u WHERE u.email = ?"
+	    + " UNION ALL SELECT 'firstname', u.firstname FROM users u WHERE u.email = ?"
+	    + " UNION ALL SELECT 'lastname', u.lastname FROM users u WHERE u.email = ?"
+	    + " UNION ALL SELECT 'authority', a.authority FROM users u JOIN authorities a ON a.userid = u.userid WHERE u.email = ?");
+	for (int i = 1; i <= 4; i++) {
+	    select.setString(i, email);
+	}
+	return select.executeQuery();
+    }
+
+    @Test
+    public void testResolveOrCreate() {
+	assertTrue(this.userCreator.isResolveOrCreateSupported());
+
+	final Map<String, Object> attributes =
+	    this.userCreator.resolveOrCreateUser(new UserAttributes("jo.bloggs@example.org", "Jo", "Bloggs"));
+	assertNotNull(attributes.get("userid"));
+	assertEquals("Jo", attributes.get("firstname"));
+	assertEquals("Bloggs", attributes.get("lastname"));
+	assertEquals("ROLE_USER", attributes.get("authority"));
+	assertEquals(1, this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Integer.class).intValue());
+
+	// the second login of the email is the same user, (not created again)
+	final Map<String, Object> again =
+	    this.userCreator.resolveOrCreateUser(new UserAttributes("jo.bloggs@example.org", "Joanne", "Bloggs"));
+	assertEquals(attributes, again);
+	assertEquals(1, this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Integer.class).intValue());
+    }
+
+    @Test
+    public void testMultiValueAttribute() {
+	final Map<String, Object> attributes =
+	    this.userCreator.resolveOrCreateUser(new UserAttributes("fred@example.org", "Fred", "Nerk"));
+	this.jdbcTemplate.update("INSERT INTO authorities VALUES (?, 'ROLE_ADMIN')", Integer.valueOf((String) attributes.get("userid")));
+
+	assertEquals(Arrays.<Object>asList("ROLE_USER", "ROLE_ADMIN"),
+		     this.userCreator.resolveOrCreateUser(new UserAttributes("fred@example.org", "Fred", "Nerk")).get("authority"));
+    }
+
+    @Test
+    public void testNotConfigured() {
+	this.userCreator.setResolveOrCreateSql("");
+	assertTrue(!this.userCreator.isResolveOrCreateSupported());
+	assertEquals(null, this.userCreator.resolveOrCreateUser(new UserAttributes("jo.bloggs@example.org", "Jo", "Bloggs")));
+    }
+}
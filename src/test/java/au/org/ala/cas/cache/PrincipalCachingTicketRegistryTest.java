@@ -0,0 +1,85 @@
+package au.org.ala.cas.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.jasig.cas.authentication.AcceptUsersAuthenticationHandler;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.AuthenticationBuilder;
+import org.jasig.cas.authentication.BasicCredentialMetaData;
+import org.jasig.cas.authentication.HandlerResult;
+import org.jasig.cas.authentication.UsernamePasswordCredential;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.ticket.ExpirationPolicy;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry;
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrincipalCachingTicketRegistryTest {
+
+    private final ExpirationPolicy expirationPolicy = new NeverExpiresExpirationPolicy();
+
+    private ExpiringCache<String, Principal> ticketPrincipalCache;
+
+    private PrincipalCachingTicketRegistry ticketRegistry;
+
+    @Before
+    public void setUp() {
+	this.ticketPrincipalCache = new ExpiringCache<String, Principal>();
+	this.ticketRegistry = new PrincipalCachingTicketRegistry();
+	this.ticketRegistry.setTicketRegistry(new DefaultTicketRegistry());
+	this.ticketRegistry.setTicketPrincipalCache(this.ticketPrincipalCache);
+    }
+
+    private static Authentication authentication(final Principal principal) {
+	final BasicCredentialMetaData credential = new BasicCredentialMetaData(new UsernamePasswordCredential("jo", "secret"));
+	return new AuthenticationBuilder(principal)
+	    .addCredential(credential)
+	    .addSuccess("handler", new HandlerResult(new AcceptUsersAuthenticationHandler(), credential))
+	    .build();
+    }
+
+    @Test
+    public void testLoginFillsTheCache() {
+	final Principal principal = new SimplePrincipal("jo@example.org");
+	this.ticketRegistry.addTicket(new TicketGrantingTicketImpl("TGT-1", authentication(principal), this.expirationPolicy));
+
+	assertSame(principal, this.ticketPrincipalCache.get("TGT-1"));
+	assertEquals(1, this.ticketRegistry.sessionCount());
+    }
+
+    @Test
+    public void testOnlyRootTicketGrantingTicketsCached() {
+	final TicketGrantingTicket tgt =
+	    new TicketGrantingTicketImpl("TGT-1", authentication(new SimplePrincipal("jo@example.org")), this.expirationPolicy);
+	this.ticketRegistry.addTicket(tgt);
+
+	final ServiceTicket st =
+	    tgt.grantServiceTicket("ST-1", new SimpleWebApplicationServiceImpl("https://example.org"), this.expirationPolicy, false);
+	this.ticketRegistry.addTicket(st);
+	this.ticketRegistry.addTicket(st.grantTicketGrantingTicket("PGT-1", authentication(new SimplePrincipal("https://example.org")),
+								    this.expirationPolicy));
+
+	assertNull(this.ticketPrincipalCache.get("ST-1"));
+	assertNull(this.ticketPrincipalCache.get("PGT-1"));
+	assertEquals(1, this.ticketPrincipalCache.size());
+	assertEquals(1, this.ticketRegistry.serviceTicketCount());
+    }
+
+    @Test
+    public void testDeleteInvalidates() {
+	this.ticketRegistry.addTicket(new TicketGrantingTicketImpl("TGT-1", authentication(new SimplePrincipal("jo@example.org")),
+								   this.expirationPolicy));
+	this.ticketRegistry.deleteTicket("TGT-1");
+
+	assertNull(this.ticketPrincipalCache.get("TGT-1"));
+	assertNull(this.ticketRegistry.getTicket("TGT-1"));
+    }
+}
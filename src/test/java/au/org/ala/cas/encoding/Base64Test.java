@@ -0,0 +1,184 @@
+package au.org.ala.cas.encoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * The encoding of each dialect against the commons-codec (standard alphabet) encoding, translated
+ * to the alphabet of the dialect, and the round trips through the array and ByteBuffer methods.
+ */
+public class Base64Test {
+
+    private static final String STANDARD = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private static final String URL_SAFE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    private static final String ORDERED = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+
+    private static final int[] DIALECTS = { Base64.NO_OPTIONS, Base64.URL_SAFE, Base64.ORDERED };
+
+    private final Random random = new Random(42);
+
+    private byte[] data(final int len) {
+	final byte[] data = new byte[len];
+	this.random.nextBytes(data);
+	return data;
+    }
+
+    /**
+     * @return the commons-codec encoding of the data in the alphabet of the dialect, the new lines
+     *         (DO_BREAK_LINES) after every full line of 76 characters
+     */
+    private static byte[] expected(final byte[] data, final int options) {
+	final String alphabet = ((options & Base64.URL_SAFE) != 0) ? URL_SAFE : ((options & Base64.ORDERED) != 0) ? ORDERED : STANDARD;
+	final byte[] standard = org.apache.commons.codec.binary.Base64.encodeBase64(data);
+	final StringBuilder expected = new StringBuilder();
+	for (int i = 0; i < standard.length; i++) {
+	    final char c = (char) standard[i];
+	    expected.append((c == '=') ? c : alphabet.charAt(STANDARD.indexOf(c)));
+	    if ((options & Base64.DO_BREAK_LINES) != 0 && (i + 1) % 76 == 0 && (i + 1) / 4 * 3 <= data.length) {
+		expected.append('\n');
+	    }
+	}
+	return expected.toString().getBytes();
+    }
+
+    @Test
+    public void testEncodeAsCommonsCodec() {
+	for (final int dialect : DIALECTS) {
+	    for (int len = 0; len < 200; len++) {
+		final byte[] data = this.data(len);
+		assertArrayEquals("dialect " + dialect + ", length " + len, expected(data, dialect), Base64.encode(data, dialect));
+		assertArrayEquals(data, Base64.decode(Base64.encode(data, dialect), dialect));
+	    }
+	}
+    }
+
+    @Test
+    public void testDecodeCommonsCodec() {
+	for (int len = 0; len < 200; len++) {
+	    final byte[] data = this.data(len);
+	    assertArrayEquals(data, Base64.decode(org.apache.commons.codec.binary.Base64.encodeBase64(data)));
+	    assertArrayEquals(data, Base64.decode(org.apache.commons.codec.binary.Base64.encodeBase64Chunked(data)));
+	}
+    }
+
+    @Test
+    public void testBreakLines() {
+	for (final int dialect : DIALECTS) {
+	    for (int len = 0; len < 200; len++) {
+		final byte[] data = this.data(len);
+		final byte[] encoded = Base64.encode(data, dialect | Base64.DO_BREAK_LINES);
+		assertArrayEquals("dialect " + dialect + ", length " + len, expected(data, dialect | Base64.DO_BREAK_LINES), encoded);
+		assertEquals(Base64.encodedLength(len, Base64.DO_BREAK_LINES), encoded.length);
+		assertArrayEquals(data, Base64.decode(encoded, dialect));
+	    }
+	}
+
+	// the lengths ending a 19 block line with a partial block (or not), no trailing 0x00 byte
+	for (final int len : new int[] { 55, 56, 57, 112, 113, 114 }) {
+	    final byte[] encoded = Base64.encode(this.data(len), Base64.DO_BREAK_LINES);
+	    assertTrue("length " + len, encoded[encoded.length - 1] != 0);
+	}
+    }
+
+    @Test
+    public void testWhiteSpace() {
+	for (final int dialect : DIALECTS) {
+	    final byte[] data = this.data(100);
+	    final String encoded = new String(Base64.encode(data, dialect));
+	    final String spaced = " " + encoded.substring(0, 5) + "\r\n" + encoded.substring(5, 60) + "\t "
+		+ encoded.substring(60, encoded.length() - 1) + "\n" + encoded.substring(encoded.length() - 1) + "\r\n";
+	    assertArrayEquals(data, Base64.decode(spaced.getBytes(), dialect));
+	}
+    }
+
+    @Test
+    public void testArrayOffsets() {
+	for (final int dialect : DIALECTS) {
+	    for (int len = 0; len < 100; len++) {
+		final byte[] data = this.data(len);
+		final byte[] source = new byte[len + 10];
+		System.arraycopy(data, 0, source, 7, len);
+
+		final int encLen = Base64.encodedLength(len, dialect);
+		final byte[] encoded = new byte[encLen + 10];
+		assertEquals(encLen, Base64.encode(source, 7, len, encoded, 3, dialect));
+		assertArrayEquals(Base64.encode(data, dialect), copy(encoded, 3, encLen));
+		assertEquals(0, encoded[2]);
+		assertEquals(0, encoded[3 + encLen]);
+
+		final byte[] decoded = new byte[Base64.decodedMaxLength(encLen) + 10];
+		assertEquals(len, Base64.decode(encoded, 3, encLen, decoded, 5, dialect));
+		assertArrayEquals(data, copy(decoded, 5, len));
+	    }
+	}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDestinationTooSmall() {
+	Base64.encode(new byte[10], 0, 10, new byte[16], 1, Base64.NO_OPTIONS);
+    }
+
+    @Test
+    public void testByteBuffers() {
+	for (final int dialect : DIALECTS) {
+	    for (int len = 0; len < 100; len++) {
+		final byte[] data = this.data(len);
+		final byte[] expected = Base64.encode(data, dialect);
+
+		// heap buffers (a slice: the array offset is not 0) and direct buffers
+		for (final boolean direct : new boolean[] { false, true }) {
+		    final ByteBuffer source = buffer(len + 4, direct);
+		    source.position(2);
+		    source.put(data);
+		    source.position(2);
+		    source.limit(2 + len);
+
+		    final ByteBuffer encoded = buffer(expected.length + 3, direct);
+		    encoded.position(3);
+		    Base64.encode(source, encoded, dialect);
+		    assertEquals(2 + len, source.position());
+		    assertEquals(3 + expected.length, encoded.position());
+		    encoded.flip();
+		    encoded.position(3);
+		    assertArrayEquals(expected, remaining(encoded.duplicate()));
+
+		    final ByteBuffer decoded = buffer(Base64.decodedMaxLength(expected.length) + 1, direct);
+		    decoded.position(1);
+		    Base64.decode(encoded, decoded, dialect);
+		    assertEquals(3 + expected.length, encoded.position());
+		    decoded.flip();
+		    decoded.position(1);
+		    assertArrayEquals(data, remaining(decoded));
+		}
+	    }
+	}
+    }
+
+    private static ByteBuffer buffer(final int capacity, final boolean direct) {
+	if (direct) {
+	    return ByteBuffer.allocateDirect(capacity);
+	}
+	final ByteBuffer wrapped = ByteBuffer.wrap(new byte[capacity + 5]);
+	wrapped.position(5);
+	return wrapped.slice();
+    }
+
+    private static byte[] remaining(final ByteBuffer buffer) {
+	final byte[] bytes = new byte[buffer.remaining()];
+	buffer.get(bytes);
+	return bytes;
+    }
+
+    private static byte[] copy(final byte[] bytes, final int off, final int len) {
+	final byte[] copy = new byte[len];
+	System.arraycopy(bytes, off, copy, 0, len);
+	return copy;
+    }
+}
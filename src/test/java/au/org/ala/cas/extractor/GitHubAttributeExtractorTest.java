@@ -0,0 +1,108 @@
+package au.org.ala.cas.extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pac4j.oauth.profile.github.GitHubProfile;
+import au.org.ala.cas.ProviderCallException;
+import au.org.ala.cas.ProviderHttpClient;
+
+public class GitHubAttributeExtractorTest {
+
+    private final BlockingHttpClient httpClient = new BlockingHttpClient();
+
+    private GitHubAttributeExtractor extractor;
+
+    @Before
+    public void setUp() {
+	this.extractor = new GitHubAttributeExtractor();
+	this.extractor.setHttpClient(this.httpClient);
+	this.extractor.setEmailFetchThreads(1);
+    }
+
+    @After
+    public void tearDown() {
+	this.httpClient.release.countDown();
+	this.extractor.destroy();
+    }
+
+    @Test
+    public void testSaturatedPoolFetchesOnCaller() throws Exception {
+	this.extractor.init();
+	this.httpClient.block = true;
+	final Thread first = new Thread() {
+		@Override
+		public void run() {
+		    extractor.extract(profile("1"));
+		}
+	    };
+	first.start();
+	assertTrue(this.httpClient.entered.await(5, TimeUnit.SECONDS));
+
+	// the only fetch thread is busy, no waiting behind it
+	this.httpClient.block = false;
+	final long start = System.nanoTime();
+	assertNull(this.extractor.extract(profile("2")).getEmail());
+	assertEquals(Thread.currentThread(), this.httpClient.lastCaller);
+	assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+
+	this.httpClient.release.countDown();
+	first.join(5000);
+    }
+
+    @Test
+    public void testSlowFetchTimesOut() {
+	this.extractor.setEmailFetchTimeout(100);
+	this.extractor.init();
+	this.httpClient.block = true;
+	try {
+	    this.extractor.extract(profile("1"));
+	    fail("the slow GitHub email fetch must fail the login");
+	} catch (ProviderCallException e) {
+	    assertTrue(e.getMessage().contains("timed out"));
+	}
+    }
+
+    private static GitHubProfile profile(final String id) {
+	final GitHubProfile profile = new GitHubProfile();
+	profile.setId(id);
+	profile.setAccessToken("token" + id);
+	return profile;
+    }
+
+    /**
+     * The GitHub user/emails call, (no email), blocking until released while block is set.
+     */
+    private static final class BlockingHttpClient extends ProviderHttpClient {
+
+	final CountDownLatch entered = new CountDownLatch(1);
+
+	final CountDownLatch release = new CountDownLatch(1);
+
+	volatile boolean block;
+
+	volatile Thread lastCaller;
+
+	@Override
+	public Response get(final String url, final Map<String, String> headers) {
+	    this.lastCaller = Thread.currentThread();
+	    if (this.block) {
+		this.entered.countDown();
+		try {
+		    this.release.await();
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+	    }
+	    return null;
+	}
+    }
+}
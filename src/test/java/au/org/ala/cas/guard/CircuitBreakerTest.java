@@ -0,0 +1,73 @@
+package au.org.ala.cas.guard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    /** Opens after 2 failures of the last 4 calls, the trial call is let through at once (openDuration 0). */
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 10, 4, 2, 50, 0);
+
+    private void fail(final int calls) {
+	for (int i = 0; i < calls; i++) {
+	    this.circuitBreaker.release(this.circuitBreaker.tryAcquire(), false);
+	}
+    }
+
+    @Test
+    public void testOpens() {
+	this.fail(2);
+	assertEquals(CircuitBreaker.State.OPEN, this.circuitBreaker.getState());
+	assertEquals(2, this.circuitBreaker.getFailures());
+    }
+
+    @Test
+    public void testTrialSuccessCloses() {
+	this.fail(2);
+	final CircuitBreaker.Permit trial = this.circuitBreaker.tryAcquire();
+	assertTrue(trial.isTrial());
+	assertEquals(CircuitBreaker.State.HALF_OPEN, this.circuitBreaker.getState());
+
+	// only one trial call at a time
+	assertNull(this.circuitBreaker.tryAcquire());
+	assertEquals(1, this.circuitBreaker.getCircuitRejections());
+
+	this.circuitBreaker.release(trial, true);
+	assertEquals(CircuitBreaker.State.CLOSED, this.circuitBreaker.getState());
+	assertFalse(this.circuitBreaker.tryAcquire().isTrial());
+    }
+
+    @Test
+    public void testTrialFailureOpens() {
+	this.fail(2);
+	final CircuitBreaker.Permit trial = this.circuitBreaker.tryAcquire();
+	this.circuitBreaker.release(trial, false);
+	assertEquals(CircuitBreaker.State.OPEN, this.circuitBreaker.getState());
+    }
+
+    @Test
+    public void testStaleCallDoesNotDecideHalfOpen() {
+	// acquired while closed, released after the circuit opened and the trial started
+	final CircuitBreaker.Permit staleSuccess = this.circuitBreaker.tryAcquire();
+	final CircuitBreaker.Permit staleFailure = this.circuitBreaker.tryAcquire();
+	assertFalse(staleSuccess.isTrial());
+	this.fail(2);
+	final CircuitBreaker.Permit trial = this.circuitBreaker.tryAcquire();
+	assertNotNull(trial);
+
+	this.circuitBreaker.release(staleSuccess, true);
+	assertEquals(CircuitBreaker.State.HALF_OPEN, this.circuitBreaker.getState());
+	this.circuitBreaker.release(staleFailure, false);
+	assertEquals(CircuitBreaker.State.HALF_OPEN, this.circuitBreaker.getState());
+	assertNull(this.circuitBreaker.tryAcquire());
+
+	this.circuitBreaker.release(trial, true);
+	assertEquals(CircuitBreaker.State.CLOSED, this.circuitBreaker.getState());
+	assertEquals(0, this.circuitBreaker.getActiveCalls());
+    }
+}
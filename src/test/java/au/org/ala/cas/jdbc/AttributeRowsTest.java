@@ -0,0 +1,59 @@
+package au.org.ala.cas.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class AttributeRowsTest {
+
+    @Test
+    public void testSingleAndMultiValue() {
+	final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+	rows.add(row("userid", "42"));
+	rows.add(row("authority", "ROLE_USER"));
+	rows.add(row("authority", "ROLE_ADMIN"));
+
+	final Map<String, Object> attributes = AttributeRows.toAttributes(rows, "key", "value");
+	assertEquals(2, attributes.size());
+	assertEquals("42", attributes.get("userid"));
+	assertEquals(Arrays.<Object>asList("ROLE_USER", "ROLE_ADMIN"), attributes.get("authority"));
+    }
+
+    @Test
+    public void testNullKey() {
+	// as the MultiRowJdbcPersonAttributeDao: the outer join row of a user without attributes is the "null" attribute
+	final Map<String, Object> attributes =
+	    AttributeRows.toAttributes(Arrays.asList(row("userid", "42"), row(null, null)), "key", "value");
+	assertEquals("42", attributes.get("userid"));
+	assertTrue(attributes.containsKey("null"));
+	assertEquals(null, attributes.get("null"));
+    }
+
+    @Test
+    public void testNoRows() {
+	assertTrue(AttributeRows.toAttributes(new ArrayList<Map<String, Object>>(), "key", "value").isEmpty());
+    }
+
+    @Test
+    public void testValues() {
+	final Map<String, List<Object>> attributes = new HashMap<String, List<Object>>();
+	AttributeRows.values(attributes, "email").add("jo@example.org");
+	AttributeRows.values(attributes, "email").add("jo.bloggs@example.org");
+	AttributeRows.values(attributes, null).add("x");
+	assertEquals(Arrays.<Object>asList("jo@example.org", "jo.bloggs@example.org"), attributes.get("email"));
+	assertEquals(Arrays.<Object>asList("x"), attributes.get("null"));
+    }
+
+    private static Map<String, Object> row(final String key, final String value) {
+	final Map<String, Object> row = new HashMap<String, Object>();
+	row.put("key", key);
+	row.put("value", value);
+	return row;
+    }
+}
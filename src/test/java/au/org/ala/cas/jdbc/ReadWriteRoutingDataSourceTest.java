@@ -0,0 +1,137 @@
+package au.org.ala.cas.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import javax.security.auth.login.AccountNotFoundException;
+import javax.sql.DataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jasig.cas.adaptors.jdbc.RehashingQueryDatabaseAuthenticationHandler;
+import org.jasig.cas.authentication.HandlerResult;
+import org.jasig.cas.authentication.UsernamePasswordCredential;
+import org.jasig.services.persondir.support.jdbc.MyMultiRowJdbcPersonAttributeDao;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import au.org.ala.cas.encoding.AdaptivePasswordEncoder;
+
+/**
+ * The user store reads behind two embedded databases, a user created a moment ago is only in the primary,
+ * (the replica lags behind).
+ */
+public class ReadWriteRoutingDataSourceTest {
+
+    static final String EXISTING = "existing@example.org";
+
+    static final String CREATED = "created@example.org";
+
+    private JdbcTemplate primary;
+
+    private JdbcTemplate replica;
+
+    private ReadWriteRoutingDataSource routingDataSource;
+
+    private MyMultiRowJdbcPersonAttributeDao attributeRepository;
+
+    private RehashingQueryDatabaseAuthenticationHandler authenticationHandler;
+
+    @Before
+    public void setUp() throws Exception {
+	final AdaptivePasswordEncoder passwordEncoder = new AdaptivePasswordEncoder();
+	passwordEncoder.setIterations(1000);
+	passwordEncoder.init();
+	final String password = passwordEncoder.hash("secret");
+
+	this.primary = createUserStore("primary", password, EXISTING, CREATED);
+	this.replica = createUserStore("replica", password, EXISTING);
+
+	this.routingDataSource = new ReadWriteRoutingDataSource();
+	this.routingDataSource.setPrimaryDataSource(this.primary.getDataSource());
+	this.routingDataSource.setReplicaDataSource(this.replica.getDataSource());
+	this.routingDataSource.afterPropertiesSet();
+
+	this.attributeRepository = new MyMultiRowJdbcPersonAttributeDao(this.routingDataSource,
+	    "SELECT attr_key AS \"key\", attr_value AS \"value\" FROM user_attributes WHERE email = ?");
+	this.attributeRepository.setNameValueColumnMappings(Collections.singletonMap("key", "value"));
+
+	this.authenticationHandler = new RehashingQueryDatabaseAuthenticationHandler();
+	this.authenticationHandler.setDataSource(this.routingDataSource);
+	this.authenticationHandler.setSql("SELECT password FROM users WHERE email = ?");
+	this.authenticationHandler.setAdaptivePasswordEncoder(passwordEncoder);
+    }
+
+    @After
+    public void tearDown() {
+	this.primary.execute("DROP ALL OBJECTS");
+	this.replica.execute("DROP ALL OBJECTS");
+	ReadWriteRoutingDataSource.forcePrimary(false);
+    }
+
+    private static JdbcTemplate createUserStore(final String name, final String password, final String... emails) {
+	final JdbcDataSource dataSource = new JdbcDataSource();
+	dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+	final JdbcTemplate jdbcTemplate = new JdbcTemplate((DataSource) dataSource);
+	jdbcTemplate.execute("CREATE TABLE users (email VARCHAR(255) NOT NULL, password VARCHAR(255))");
+	jdbcTemplate.execute("CREATE TABLE user_attributes (email VARCHAR(255) NOT NULL, attr_key VARCHAR(255) NOT NULL, attr_value VARCHAR(255))");
+	for (int i = 0; i < emails.length; i++) {
+	    jdbcTemplate.update("INSERT INTO users VALUES (?, ?)", emails[i], password);
+	    jdbcTemplate.update("INSERT INTO user_attributes VALUES (?, 'userid', ?)", emails[i], String.valueOf(i + 1));
+	}
+	return jdbcTemplate;
+    }
+
+    @Test
+    public void testReadsGoToTheReplica() throws Exception {
+	assertNotNull(this.attributeRepository.getPerson(EXISTING));
+	assertNull(this.attributeRepository.getPerson(CREATED));
+
+	final HandlerResult result = this.authenticationHandler.authenticate(new UsernamePasswordCredential(EXISTING, "secret"));
+	assertEquals(EXISTING, result.getPrincipal().getId());
+	try {
+	    this.authenticationHandler.authenticate(new UsernamePasswordCredential(CREATED, "secret"));
+	    fail(CREATED + " is not in the replica yet");
+	} catch (AccountNotFoundException e) {
+	    // expected
+	}
+    }
+
+    @Test
+    public void testForcedPrimarySeesTheCreatedUser() throws Exception {
+	final boolean previous = ReadWriteRoutingDataSource.forcePrimary(true);
+	try {
+	    assertFalse(previous);
+	    assertEquals("2", this.attributeRepository.getPerson(CREATED).getAttributeValue("userid"));
+	    assertEquals(CREATED,
+			 this.authenticationHandler.authenticate(new UsernamePasswordCredential(CREATED, "secret")).getPrincipal().getId());
+	} finally {
+	    ReadWriteRoutingDataSource.forcePrimary(previous);
+	}
+
+	// restored: the reads are back on the replica
+	assertFalse(ReadWriteRoutingDataSource.isPrimaryForced());
+	assertNull(this.attributeRepository.getPerson(CREATED));
+    }
+
+    @Test
+    public void testNestedForcePrimaryRestored() {
+	final boolean outer = ReadWriteRoutingDataSource.forcePrimary(true);
+	final boolean inner = ReadWriteRoutingDataSource.forcePrimary(true);
+	assertTrue(inner);
+	ReadWriteRoutingDataSource.forcePrimary(inner);
+	assertTrue(ReadWriteRoutingDataSource.isPrimaryForced());
+	ReadWriteRoutingDataSource.forcePrimary(outer);
+	assertFalse(ReadWriteRoutingDataSource.isPrimaryForced());
+    }
+
+    @Test
+    public void testReplicaDisabled() {
+	this.routingDataSource.setReplicaEnabled(false);
+	assertNotNull(this.attributeRepository.getPerson(CREATED));
+    }
+}
@@ -0,0 +1,99 @@
+package au.org.ala.cas.writebehind;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import au.org.ala.cas.cache.ExpiringCache;
+import au.org.ala.cas.writebehind.ProfileUpdateQueue.ProfileUpdate;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jasig.cas.monitor.StatusCode;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+public class ProfileUpdateQueueTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private ProfileUpdateQueue profileUpdateQueue;
+
+    @Before
+    public void setUp() {
+	final JdbcDataSource dataSource = new JdbcDataSource();
+	dataSource.setURL("jdbc:h2:mem:profiles;DB_CLOSE_DELAY=-1");
+	this.jdbcTemplate = new JdbcTemplate(dataSource);
+	this.jdbcTemplate.execute("DROP TABLE IF EXISTS profiles");
+	this.jdbcTemplate.execute("CREATE TABLE profiles (userid INT NOT NULL, property VARCHAR(255) NOT NULL, value VARCHAR(10))");
+
+	this.profileUpdateQueue = new ProfileUpdateQueue();
+	this.profileUpdateQueue.setDataSource(dataSource);
+	this.profileUpdateQueue.setSql("INSERT INTO profiles (userid, property, value) VALUES (?, ?, ?)");
+    }
+
+    @Test
+    public void testFailedBatchRetriedRowByRow() {
+	final List<ProfileUpdate> batch = new ArrayList<ProfileUpdate>();
+	batch.add(new ProfileUpdate(null, new Object[] { 1, "country", "AU" }));
+	batch.add(new ProfileUpdate(null, new Object[] { 1, "city", "far too long for the column" }));
+	batch.add(new ProfileUpdate(null, new Object[] { 2, "country", "NZ" }));
+	this.profileUpdateQueue.flush(batch);
+
+	assertEquals(2, this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM profiles", Integer.class).intValue());
+	assertEquals(2, this.profileUpdateQueue.getWritten());
+	assertEquals(1, this.profileUpdateQueue.getFailed());
+	assertEquals(1, this.profileUpdateQueue.getBatchFailures());
+    }
+
+    @Test
+    public void testMonitorReportsFailed() {
+	final List<ProfileUpdate> batch = new ArrayList<ProfileUpdate>();
+	batch.add(new ProfileUpdate(null, new Object[] { 1, null, "AU" }));
+	this.profileUpdateQueue.flush(batch);
+
+	final ProfileUpdateQueueMonitor monitor = new ProfileUpdateQueueMonitor();
+	monitor.setProfileUpdateQueue(this.profileUpdateQueue);
+	final ProfileUpdateQueueStatus status = monitor.observe();
+	assertEquals(StatusCode.OK, status.getCode());
+	assertEquals(1, status.getFailedCount());
+	assertTrue(status.getDescription().startsWith("failed: 1,"));
+    }
+
+    @Test
+    public void testCacheInvalidatedAfterTheWrite() {
+	final ExpiringCache<String, String> attributeCache = new ExpiringCache<String, String>();
+	attributeCache.put("jo@example.org", "reserved");
+	attributeCache.put("fred@example.org", "reserved");
+	this.profileUpdateQueue.setAttributeCache(attributeCache);
+
+	final List<ProfileUpdate> batch = new ArrayList<ProfileUpdate>();
+	batch.add(new ProfileUpdate("jo@example.org", new Object[] { 1, "country", "AU" }));
+	batch.add(new ProfileUpdate("fred@example.org", new Object[] { 2, "city", "far too long for the column" }));
+	this.profileUpdateQueue.flush(batch);
+
+	assertNull(attributeCache.peek("jo@example.org"));
+	assertNull(attributeCache.peek("fred@example.org"));
+    }
+
+    @Test
+    public void testCacheInvalidatedAfterTheQueuedWrite() throws InterruptedException {
+	final ExpiringCache<String, String> attributeCache = new ExpiringCache<String, String>();
+	this.profileUpdateQueue.setAttributeCache(attributeCache);
+	this.profileUpdateQueue.init();
+	try {
+	    // the (incomplete) attributes read before the update is written
+	    attributeCache.put("jo@example.org", "reserved");
+	    this.profileUpdateQueue.enqueue("jo@example.org", new Object[] { 1, "country", "AU" });
+	    for (int i = 0; i < 100 && attributeCache.peek("jo@example.org") != null; i++) {
+		Thread.sleep(50);
+	    }
+	    assertNull(attributeCache.peek("jo@example.org"));
+	    assertEquals(1, this.profileUpdateQueue.getWritten());
+
+	} finally {
+	    this.profileUpdateQueue.destroy();
+	}
+    }
+}
@@ -0,0 +1,381 @@
+package org.jasig.cas.support.pac4j.authentication.handler.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.security.auth.login.FailedLoginException;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+
+import org.jasig.cas.authentication.Credential;
+import org.jasig.cas.authentication.HandlerResult;
+import org.jasig.cas.authentication.principal.PersonDirectoryPrincipalResolver;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.PrincipalResolver;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.support.pac4j.authentication.principal.ClientCredential;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jasig.services.persondir.support.jdbc.MyMultiRowJdbcPersonAttributeDao;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pac4j.core.client.BaseClient;
+import org.pac4j.core.client.Clients;
+import org.pac4j.core.client.Mechanism;
+import org.pac4j.core.client.RedirectAction;
+import org.pac4j.core.context.WebContext;
+import org.pac4j.core.credentials.Credentials;
+import org.pac4j.core.profile.CommonProfile;
+import org.pac4j.core.profile.UserProfile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.webflow.context.ExternalContextHolder;
+import org.springframework.webflow.context.servlet.ServletExternalContext;
+import au.org.ala.cas.AttributeParser;
+import au.org.ala.cas.ProviderCallException;
+import au.org.ala.cas.UserAttributes;
+import au.org.ala.cas.UserCreator;
+import au.org.ala.cas.guard.CircuitBreaker;
+import au.org.ala.cas.guard.ProviderCallGuard;
+import au.org.ala.cas.jdbc.ReadWriteRoutingDataSource;
+
+/**
+ * Concurrent first-time logins of the same user (double click, several tabs, the email spelled differently by the
+ * providers) create the ALA user exactly once; failed provider calls open the provider's circuit; a just created
+ * user is looked up in the primary, not the (lagging) read replica.
+ */
+public class ALAClientAuthenticationHandlerTest {
+
+    private static final int THREADS = 32;
+
+    private static final String[] EMAILS = {
+	"Jo.Bloggs@Example.org", "jo.bloggs@example.org", " jo.bloggs@example.org ", "JO.BLOGGS@EXAMPLE.ORG", "\tjo.bloggs@Example.ORG"
+    };
+
+    private CountingUserStore userStore;
+
+    private EmailAttributeParser attributeParser;
+
+    private ALAClientAuthenticationHandler handler;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+	this.userStore = new CountingUserStore();
+	final Clients clients = new Clients("http://localhost/cas/login", new StubClient());
+	this.attributeParser = new EmailAttributeParser();
+	this.handler = new ALAClientAuthenticationHandler(clients, this.userStore, this.userStore, this.attributeParser);
+	this.executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+	this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testSameEmailCreatedOnce() throws Exception {
+	final List<String> userids = this.authenticateAll(EMAILS);
+
+	assertEquals(1, this.userStore.creations.get());
+	assertEquals(THREADS, userids.size());
+	assertEquals(Collections.singleton(this.userStore.userids.get("jo.bloggs@example.org")), new HashSet<String>(userids));
+    }
+
+    @Test
+    public void testDifferentEmailsCreatedOnceEach() throws Exception {
+	final String[] emails = { "jo.bloggs@example.org", "Jo.Bloggs@example.org", "fred@example.org", " FRED@example.org" };
+	final List<String> userids = this.authenticateAll(emails);
+
+	assertEquals(2, this.userStore.creations.get());
+	assertEquals(2, new HashSet<String>(userids).size());
+	for (int i = 0; i < THREADS; i++) {
+	    final String email = emails[i % emails.length].trim().toLowerCase(Locale.ENGLISH);
+	    assertEquals(email, this.userStore.userids.get(email), userids.get(i));
+	}
+    }
+
+    @Test
+    public void testProviderFailuresOpenTheCircuit() throws Exception {
+	final ProviderCallGuard providerCallGuard = new ProviderCallGuard();
+	providerCallGuard.setWindowSize(4);
+	providerCallGuard.setMinimumCalls(4);
+	providerCallGuard.setFailureRateThreshold(50);
+	providerCallGuard.setOpenDuration(60000);
+	this.handler.setProviderCallGuard(providerCallGuard);
+
+	ExternalContextHolder.setExternalContext(externalContext());
+	try {
+	    // the provider call fails (e.g. the GitHub user/emails timed out): a failed login, not a missing email
+	    for (int i = 0; i < 4; i++) {
+		this.assertLoginFails("jo.bloggs@down.example.org");
+	    }
+	    final CircuitBreaker circuitBreaker = providerCallGuard.getCircuitBreaker(StubClient.class.getSimpleName());
+	    assertEquals(4, circuitBreaker.getFailures());
+	    assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+	    // the open circuit rejects the next login without calling the provider
+	    final int calls = this.attributeParser.calls.get();
+	    this.assertLoginFails("jo.bloggs@example.org");
+	    assertEquals(calls, this.attributeParser.calls.get());
+	    assertEquals(1, circuitBreaker.getCircuitRejections());
+	    assertEquals(0, this.userStore.creations.get());
+
+	} finally {
+	    ExternalContextHolder.setExternalContext(null);
+	}
+    }
+
+    @Test
+    public void testCreatedUserReresolvedFromThePrimary() throws Exception {
+	// the replica lags behind: the user created by the login is only in the primary
+	final JdbcTemplate primary = createUserStore("loginprimary");
+	final JdbcTemplate replica = createUserStore("loginreplica");
+	final ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource();
+	routingDataSource.setPrimaryDataSource(primary.getDataSource());
+	routingDataSource.setReplicaDataSource(replica.getDataSource());
+	routingDataSource.afterPropertiesSet();
+
+	final MyMultiRowJdbcPersonAttributeDao attributeRepository = new MyMultiRowJdbcPersonAttributeDao(routingDataSource,
+	    "SELECT attr_key AS \"key\", attr_value AS \"value\" FROM user_attributes WHERE email = ?");
+	attributeRepository.setNameValueColumnMappings(Collections.singletonMap("key", "value"));
+	final PersonDirectoryPrincipalResolver principalResolver = new PersonDirectoryPrincipalResolver();
+	principalResolver.setAttributeRepository(attributeRepository);
+
+	final UserCreator userCreator = new CountingUserStore() {
+		@Override
+		public void createUser(final UserAttributes userAttributes) {
+		    primary.update("INSERT INTO user_attributes VALUES (?, 'userid', '42')", userAttributes.getEmail());
+		}
+	    };
+	final ALAClientAuthenticationHandler handler = new ALAClientAuthenticationHandler(
+	    new Clients("http://localhost/cas/login", new StubClient()), principalResolver, userCreator, this.attributeParser);
+
+	ExternalContextHolder.setExternalContext(externalContext());
+	try {
+	    final HandlerResult result = handler.authenticate(new ClientCredential(new StubCredentials("jo.bloggs@example.org")));
+	    assertEquals("42", result.getPrincipal().getAttributes().get("userid"));
+	    assertFalse(ReadWriteRoutingDataSource.isPrimaryForced());
+	    assertTrue(replica.queryForList("SELECT * FROM user_attributes").isEmpty());
+
+	} finally {
+	    ExternalContextHolder.setExternalContext(null);
+	    primary.execute("DROP ALL OBJECTS");
+	    replica.execute("DROP ALL OBJECTS");
+	}
+    }
+
+    private static JdbcTemplate createUserStore(final String name) {
+	final JdbcDataSource dataSource = new JdbcDataSource();
+	dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+	final JdbcTemplate jdbcTemplate = new JdbcTemplate((DataSource) dataSource);
+	jdbcTemplate.execute("CREATE TABLE user_attributes (email VARCHAR(255) NOT NULL, attr_key VARCHAR(255) NOT NULL, attr_value VARCHAR(255))");
+	return jdbcTemplate;
+    }
+
+    private void assertLoginFails(final String email) throws Exception {
+	try {
+	    this.handler.authenticate(new ClientCredential(new StubCredentials(email)));
+	    fail("login of " + email + " did not fail");
+	} catch (FailedLoginException e) {
+	    assertTrue(e.getMessage(), e.getMessage().contains("unavailable"));
+	}
+    }
+
+    /**
+     * Authenticates THREADS logins at once, (the emails round robin).
+     *
+     * @return the userids of the logins, in order
+     */
+    private List<String> authenticateAll(final String[] emails) throws Exception {
+	final CountDownLatch ready = new CountDownLatch(THREADS);
+	final CountDownLatch start = new CountDownLatch(1);
+	final List<Future<String>> results = new ArrayList<Future<String>>();
+	for (int i = 0; i < THREADS; i++) {
+	    final String email = emails[i % emails.length];
+	    results.add(this.executor.submit(new Callable<String>() {
+		    public String call() throws Exception {
+			ExternalContextHolder.setExternalContext(externalContext());
+			try {
+			    ready.countDown();
+			    start.await();
+			    final HandlerResult result = handler.authenticate(new ClientCredential(new StubCredentials(email)));
+			    return (String) result.getPrincipal().getAttributes().get("userid");
+			} finally {
+			    ExternalContextHolder.setExternalContext(null);
+			}
+		    }
+		}));
+	}
+
+	assertTrue(ready.await(10, TimeUnit.SECONDS));
+	start.countDown();
+
+	final List<String> userids = new ArrayList<String>();
+	for (final Future<String> result : results) {
+	    final String userid = result.get(10, TimeUnit.SECONDS);
+	    assertNotNull(userid);
+	    userids.add(userid);
+	}
+	return userids;
+    }
+
+    private static ServletExternalContext externalContext() {
+	return new ServletExternalContext(stub(ServletContext.class), stub(HttpServletRequest.class), stub(HttpServletResponse.class));
+    }
+
+    /**
+     * @return a stub of the interface, all its methods return null (e.g. no request attributes)
+     */
+    private static <T> T stub(final Class<T> type) {
+	return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+		public Object invoke(final Object proxy, final Method method, final Object[] args) {
+		    return null;
+		}
+	    }));
+    }
+
+    /**
+     * The userdetails DB: the emails are case insensitive (and trimmed), creating a user is slow; the lookup/create
+     * of one round trip (resolveOrCreateUser) is not supported.
+     */
+    private static class CountingUserStore implements UserCreator, PrincipalResolver {
+
+	final AtomicInteger creations = new AtomicInteger();
+
+	final ConcurrentMap<String, String> userids = new ConcurrentHashMap<String, String>();
+
+	public void createUser(final UserAttributes userAttributes) {
+	    final String userid = String.valueOf(1000 + this.creations.incrementAndGet());
+	    try {
+		Thread.sleep(50);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    // a duplicate INSERT would be a second ALA user of the email, the latest one wins the lookups
+	    this.userids.put(normalize(userAttributes.getEmail()), userid);
+	}
+
+	public Map<String, Object> resolveOrCreateUser(final UserAttributes userAttributes) {
+	    return null;
+	}
+
+	public boolean isResolveOrCreateSupported() {
+	    return false;
+	}
+
+	public Principal resolve(final Credential credential) {
+	    final String userid = this.userids.get(normalize(credential.getId()));
+	    final Map<String, Object> attributes = new HashMap<String, Object>();
+	    if (userid != null) {
+		attributes.put("userid", userid);
+	    }
+	    return new SimplePrincipal(credential.getId(), attributes);
+	}
+
+	public boolean supports(final Credential credential) {
+	    return true;
+	}
+
+	private static String normalize(final String email) {
+	    return email.trim().toLowerCase(Locale.ENGLISH);
+	}
+    }
+
+    /**
+     * The provider credentials of a login, (the provider returns the email as is).
+     */
+    private static final class StubCredentials extends Credentials {
+
+	private static final long serialVersionUID = 1L;
+
+	final String email;
+
+	StubCredentials(final String email) {
+	    this.email = email;
+	    this.setClientName(StubClient.class.getSimpleName());
+	}
+    }
+
+    private static final class StubClient extends BaseClient<StubCredentials, CommonProfile> {
+
+	@Override
+	protected BaseClient<StubCredentials, CommonProfile> newClient() {
+	    return new StubClient();
+	}
+
+	@Override
+	protected void internalInit() {
+	}
+
+	@Override
+	protected boolean isDirectRedirection() {
+	    return true;
+	}
+
+	@Override
+	protected RedirectAction retrieveRedirectAction(final WebContext context) {
+	    return RedirectAction.redirect("http://localhost/provider");
+	}
+
+	@Override
+	protected StubCredentials retrieveCredentials(final WebContext context) {
+	    return null;
+	}
+
+	@Override
+	protected CommonProfile retrieveUserProfile(final StubCredentials credentials, final WebContext context) {
+	    final CommonProfile profile = new CommonProfile();
+	    profile.setId(credentials.email.trim().toLowerCase(Locale.ENGLISH));
+	    profile.addAttribute("email", credentials.email);
+	    return profile;
+	}
+
+	@Override
+	public Mechanism getMechanism() {
+	    return Mechanism.OAUTH_PROTOCOL;
+	}
+    }
+
+    /**
+     * The provider calls of the attribute extraction of an email at down.example.org fail.
+     */
+    private static final class EmailAttributeParser extends AttributeParser {
+
+	final AtomicInteger calls = new AtomicInteger();
+
+	@Override
+	public UserAttributes parse(final UserProfile userProfile) {
+	    this.calls.incrementAndGet();
+	    final String email = (String) userProfile.getAttribute("email");
+	    if (email.endsWith("@down.example.org")) {
+		throw new ProviderCallException("HTTP GET /user/emails error: Read timed out");
+	    }
+	    return new UserAttributes(email, "Jo", "Bloggs");
+	}
+    }
+}
@@ -0,0 +1,51 @@
+package org.jasig.services.persondir.support.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+public class MyMultiRowJdbcPersonAttributeDaoTest {
+
+    private MyMultiRowJdbcPersonAttributeDao attributeRepository;
+
+    @Before
+    public void setUp() {
+	final JdbcDataSource dataSource = new JdbcDataSource();
+	dataSource.setURL("jdbc:h2:mem:userstore;DB_CLOSE_DELAY=-1");
+	final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+	jdbcTemplate.execute("DROP TABLE IF EXISTS user_attributes");
+	jdbcTemplate.execute("CREATE TABLE user_attributes (email VARCHAR_IGNORECASE(255) NOT NULL, attr_key VARCHAR(255) NOT NULL, attr_value VARCHAR(255))");
+	jdbcTemplate.update("INSERT INTO user_attributes VALUES ('jo@example.org', 'userid', '42')");
+	jdbcTemplate.update("INSERT INTO user_attributes VALUES ('jo@example.org', 'authority', 'ROLE_USER')");
+
+	this.attributeRepository = new MyMultiRowJdbcPersonAttributeDao(dataSource,
+	    "SELECT attr_key AS \"key\", attr_value AS \"value\" FROM user_attributes WHERE email = ?");
+	this.attributeRepository.setNameValueColumnMappings(Collections.singletonMap("key", "value"));
+	this.attributeRepository.setBatchSql(
+	    "SELECT email AS username, attr_key AS \"key\", attr_value AS \"value\" FROM user_attributes WHERE email IN (:usernames)");
+    }
+
+    @Test
+    public void testBatchSpellingsOfOneUser() {
+	final Map<String, IPersonAttributes> people =
+	    this.attributeRepository.getPeopleByUserNames(Arrays.asList("jo@example.org", "Jo@Example.org", "nobody@example.org"));
+
+	// every requested spelling is the person of the (case insensitive) rows
+	assertEquals(2, people.size());
+	for (final String userName : Arrays.asList("jo@example.org", "Jo@Example.org")) {
+	    final IPersonAttributes person = people.get(userName);
+	    assertEquals(userName, person.getName());
+	    assertEquals("42", person.getAttributeValue("userid"));
+	    assertEquals(Arrays.<Object>asList("ROLE_USER"), person.getAttributeValues("authority"));
+	}
+	assertFalse(people.containsKey("nobody@example.org"));
+    }
+}